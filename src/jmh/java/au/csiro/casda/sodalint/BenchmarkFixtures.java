@@ -0,0 +1,146 @@
+package au.csiro.casda.sodalint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import uk.ac.starlink.ttools.taplint.ReportCode;
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Loads and builds the documents used by the benchmarks. The large documents are built from the small ones by adding
+ * content which the validators must read past, as aggregated registries and data-bearing descriptors do.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+final class BenchmarkFixtures
+{
+    /** The number of extra capabilities in the large capabilities document, giving a document of several MB. */
+    static final int LARGE_EXTRA_CAPABILITIES = 20000;
+
+    /** The number of data rows in the large service descriptor. */
+    static final int LARGE_DESCRIPTOR_ROWS = 20000;
+
+    private BenchmarkFixtures()
+    {
+    }
+
+    /**
+     * Read a fixture from the benchmark class path.
+     * 
+     * @param name
+     *            The resource name.
+     * @return The content of the resource.
+     * @throws IOException
+     *             If the resource cannot be read.
+     */
+    static byte[] readResource(String name) throws IOException
+    {
+        try (InputStream is = BenchmarkFixtures.class.getResourceAsStream("/" + name))
+        {
+            if (is == null)
+            {
+                throw new IOException("Missing benchmark resource " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int len = is.read(buffer); len >= 0; len = is.read(buffer))
+            {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Build a capabilities document with extra non SODA capabilities before the closing element.
+     * 
+     * @param document
+     *            The base capabilities document.
+     * @param extraCapabilities
+     *            The number of capabilities to add.
+     * @return The enlarged document.
+     */
+    static byte[] enlargeCapabilities(byte[] document, int extraCapabilities)
+    {
+        String xml = new String(document, StandardCharsets.UTF_8);
+        int insertAt = xml.lastIndexOf("</vosi:capabilities>");
+        StringBuilder sb = new StringBuilder(xml.substring(0, insertAt));
+        for (int i = 0; i < extraCapabilities; i++)
+        {
+            sb.append("\t<capability standardID=\"ivo://example.com/std/Other#").append(i).append("\">\n")
+                    .append("\t\t<interface xsi:type=\"vod:ParamHTTP\" version=\"1.0\">\n")
+                    .append("\t\t\t<accessURL use=\"base\">http://example.com/other/").append(i)
+                    .append("</accessURL>\n\t\t</interface>\n\t</capability>\n");
+        }
+        sb.append(xml.substring(insertAt));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build a service descriptor with a data table resource alongside the service resource.
+     * 
+     * @param document
+     *            The base service descriptor.
+     * @param rows
+     *            The number of rows in the data table.
+     * @return The enlarged document.
+     */
+    static String enlargeDescriptor(byte[] document, int rows)
+    {
+        String xml = new String(document, StandardCharsets.UTF_8);
+        int insertAt = xml.lastIndexOf("</VOTABLE>");
+        StringBuilder sb = new StringBuilder(xml.substring(0, insertAt));
+        sb.append("\t<RESOURCE type=\"results\">\n\t\t<TABLE>\n")
+                .append("\t\t\t<FIELD name=\"obs_publisher_did\" datatype=\"char\" arraysize=\"*\"/>\n")
+                .append("\t\t\t<FIELD name=\"s_ra\" datatype=\"double\" unit=\"deg\"/>\n")
+                .append("\t\t\t<FIELD name=\"s_dec\" datatype=\"double\" unit=\"deg\"/>\n")
+                .append("\t\t\t<DATA><TABLEDATA>\n");
+        for (int i = 0; i < rows; i++)
+        {
+            sb.append("\t\t\t\t<TR><TD>ivo://example.com/data?cube-").append(i).append("</TD><TD>")
+                    .append(i % 360).append(".5</TD><TD>-").append(i % 90).append(".25</TD></TR>\n");
+        }
+        sb.append("\t\t\t</TABLEDATA></DATA>\n\t\t</TABLE>\n\t</RESOURCE>\n");
+        sb.append(xml.substring(insertAt));
+        return sb.toString();
+    }
+
+    /**
+     * A reporter which discards messages, so that benchmarks measure validation rather than output.
+     */
+    static class CountingReporter implements Reporter
+    {
+        private int count;
+
+        @Override
+        public void report(ReportCode code, String message)
+        {
+            count++;
+        }
+
+        @Override
+        public void report(ReportCode code, String message, Throwable err)
+        {
+            count++;
+        }
+
+        int getCount()
+        {
+            return count;
+        }
+    }
+}
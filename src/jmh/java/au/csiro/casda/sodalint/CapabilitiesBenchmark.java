@@ -0,0 +1,81 @@
+package au.csiro.casda.sodalint;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Measures the throughput of the capabilities rule checks for a typical and an aggregated capabilities document.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CapabilitiesBenchmark
+{
+    @Param({ "small", "large" })
+    private String size;
+
+    private byte[] document;
+    private URL serviceUrl;
+    private ValidateCapabilities validator;
+
+    /**
+     * Load the capabilities document for this run.
+     * 
+     * @throws IOException
+     *             If the fixture cannot be read.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        byte[] small = BenchmarkFixtures.readResource("capabilities-small.xml");
+        document = "large".equals(size)
+                ? BenchmarkFixtures.enlargeCapabilities(small, BenchmarkFixtures.LARGE_EXTRA_CAPABILITIES) : small;
+        serviceUrl = new URL("http://example.com/SODA/");
+        validator = new ValidateCapabilities();
+    }
+
+    /**
+     * Benchmark ValidateCapabilities.validateCapabilities.
+     * 
+     * @return The service populated by the checks.
+     */
+    @Benchmark
+    public SodaService validateCapabilities()
+    {
+        SodaService sodaService = new SodaService(serviceUrl, null);
+        validator.validateCapabilities(new BenchmarkFixtures.CountingReporter(), new ByteArrayInputStream(document),
+                sodaService);
+        return sodaService;
+    }
+}
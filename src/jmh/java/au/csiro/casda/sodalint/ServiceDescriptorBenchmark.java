@@ -0,0 +1,97 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Measures the throughput of the service descriptor checks for the known good v1.3 descriptor and for the same
+ * descriptor with a large data table alongside the service resource.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceDescriptorBenchmark
+{
+    @Param({ "small", "large" })
+    private String size;
+
+    private String xmlContent;
+    private ValidateServiceDescriptor validator;
+
+    /**
+     * Load the service descriptor for this run.
+     * 
+     * @throws IOException
+     *             If the fixture cannot be read.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        byte[] small = BenchmarkFixtures.readResource("service-descriptor-v1_3-good.xml");
+        xmlContent = "large".equals(size)
+                ? BenchmarkFixtures.enlargeDescriptor(small, BenchmarkFixtures.LARGE_DESCRIPTOR_ROWS)
+                : new String(small, StandardCharsets.UTF_8);
+        validator = new ValidateServiceDescriptor();
+    }
+
+    /**
+     * Benchmark ValidateServiceDescriptor.verifyServiceDescriptor.
+     * 
+     * @return The number of messages reported.
+     */
+    @Benchmark
+    public int verifyServiceDescriptor()
+    {
+        BenchmarkFixtures.CountingReporter reporter = new BenchmarkFixtures.CountingReporter();
+        validator.verifyServiceDescriptor(reporter, xmlContent);
+        return reporter.getCount();
+    }
+
+    /**
+     * Benchmark ValidateServiceDescriptor.verifyResponseWithVotLint.
+     * 
+     * @return The number of messages reported.
+     * @throws IOException
+     *             If the content cannot be read.
+     * @throws SAXException
+     *             If the content cannot be parsed.
+     */
+    @Benchmark
+    public int verifyResponseWithVotLint() throws IOException, SAXException
+    {
+        BenchmarkFixtures.CountingReporter reporter = new BenchmarkFixtures.CountingReporter();
+        validator.verifyResponseWithVotLint(reporter, xmlContent);
+        return reporter.getCount();
+    }
+}
@@ -0,0 +1,115 @@
+package au.csiro.casda.sodalint;
+
+import uk.ac.starlink.ttools.taplint.OutputReporter;
+import uk.ac.starlink.ttools.taplint.ReportCode;
+import uk.ac.starlink.ttools.taplint.ReportType;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A reporter which passes messages on to the report of a single service while counting its errors, warnings and
+ * failures in a {@link MessageAggregator} shared by the whole fleet. Information messages are not counted, as they
+ * describe the service rather than a problem with it. Sections can be streamed if the service's reporter supports
+ * it, in which case the messages of each section are counted as they are written.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class AggregatingReporter implements StreamingOutputReporter
+{
+    private final OutputReporter reporter;
+    private final MessageAggregator aggregator;
+    private final String serviceUrl;
+
+    /**
+     * Create a new AggregatingReporter instance.
+     *
+     * @param reporter
+     *            The reporter for the service, which receives every message.
+     * @param aggregator
+     *            The counts of the messages across the fleet.
+     * @param serviceUrl
+     *            The url of the service being validated.
+     */
+    public AggregatingReporter(OutputReporter reporter, MessageAggregator aggregator, String serviceUrl)
+    {
+        this.reporter = reporter;
+        this.aggregator = aggregator;
+        this.serviceUrl = serviceUrl;
+    }
+
+    @Override
+    public void start(String[] announcements)
+    {
+        reporter.start(announcements);
+    }
+
+    @Override
+    public void end()
+    {
+        reporter.end();
+    }
+
+    @Override
+    public void startSection(String code, String description)
+    {
+        reporter.startSection(code, description);
+    }
+
+    @Override
+    public String getSectionCode()
+    {
+        return reporter.getSectionCode();
+    }
+
+    @Override
+    public void summariseUnreportedMessages(String code)
+    {
+        reporter.summariseUnreportedMessages(code);
+    }
+
+    @Override
+    public void endSection()
+    {
+        reporter.endSection();
+    }
+
+    @Override
+    public OutputReporter openSection(String code, String description)
+    {
+        if (!(reporter instanceof StreamingOutputReporter))
+        {
+            return null;
+        }
+        OutputReporter section = ((StreamingOutputReporter) reporter).openSection(code, description);
+        return section == null ? null : new AggregatingReporter(section, aggregator, serviceUrl);
+    }
+
+    @Override
+    public void report(ReportCode code, String message)
+    {
+        report(code, message, null);
+    }
+
+    @Override
+    public void report(ReportCode code, String message, Throwable err)
+    {
+        reporter.report(code, message, err);
+        ReportType type = code.getType();
+        if (type == ReportType.ERROR || type == ReportType.WARNING || type == ReportType.FAILURE)
+        {
+            String sectionCode = reporter.getSectionCode();
+            String fullCode = type.getChar() + "-" + (sectionCode == null ? "" : sectionCode) + "-" + code.getLabel();
+            aggregator.add(fullCode, err == null ? message : message + " " + err, serviceUrl);
+        }
+    }
+}
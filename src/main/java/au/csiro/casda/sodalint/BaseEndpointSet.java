@@ -6,7 +6,9 @@ import java.net.URL;
 import uk.ac.starlink.vo.TapService;
 import uk.ac.starlink.vo.TapVersion;
 /**
- * Minimal implementation of EndpointSet for use in XSD validation of pages.
+ * Minimal implementation of EndpointSet for use in XSD validation of pages. This is the one place the addresses of
+ * the VOSI endpoints are built, so that every stage reading a document requests the same address and the
+ * {@link ResponseCache} can serve them all from a single fetch.
  *  
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
@@ -67,11 +69,25 @@ public class BaseEndpointSet implements TapService
         return null;
     }
 
+    /**
+     * Build the address of an endpoint beneath the service. The service url is treated as a directory whether or not
+     * it ends with a slash, so that a base of https://host/soda gives https://host/soda/capabilities rather than the
+     * sibling https://host/capabilities.
+     * 
+     * @param endpointPath
+     *            The path of the endpoint relative to the service.
+     * @return The endpoint url, or null if it could not be built.
+     */
     private URL getUrl(String endpointPath)
     {
+        String baseUrl = serviceUrl.toString();
+        if (!baseUrl.endsWith("/"))
+        {
+            baseUrl += "/";
+        }
         try
         {
-            return new URL(serviceUrl, endpointPath);
+            return new URL(baseUrl + endpointPath);
         }
         catch (MalformedURLException e)
         {
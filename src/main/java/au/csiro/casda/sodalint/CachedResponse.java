@@ -0,0 +1,112 @@
+package au.csiro.casda.sodalint;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A fully read response, such as the responses to GET requests held in the ResponseCache. Instances are immutable
+ * and may be shared between stages.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class CachedResponse
+{
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Header[] headers;
+    private final ContentType contentType;
+    private final byte[] body;
+
+    /**
+     * Create a new CachedResponse instance.
+     * 
+     * @param statusCode
+     *            The http status code of the response.
+     * @param reasonPhrase
+     *            The reason phrase of the status line.
+     * @param headers
+     *            The response headers.
+     * @param contentType
+     *            The content type of the body, or null if there was no body.
+     * @param body
+     *            The content of the response, or null if there was no body.
+     */
+    public CachedResponse(int statusCode, String reasonPhrase, Header[] headers, ContentType contentType, byte[] body)
+    {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = headers == null ? new Header[0] : headers.clone();
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    public String getReasonPhrase()
+    {
+        return reasonPhrase;
+    }
+
+    public Header[] getHeaders()
+    {
+        return headers.clone();
+    }
+
+    /**
+     * Retrieve the value of the first header with the given name.
+     * 
+     * @param name
+     *            The case insensitive name of the header.
+     * @return The header value, or null if the header was not present.
+     */
+    public String getFirstHeader(String name)
+    {
+        for (Header header : headers)
+        {
+            if (header.getName().equalsIgnoreCase(name))
+            {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The length of the response body in bytes.
+     */
+    public int getContentLength()
+    {
+        return body == null ? 0 : body.length;
+    }
+
+    /**
+     * Build a new entity over the stored body. Each call returns a fresh entity so it can be read independently.
+     * 
+     * @return The body as an entity, or null if the response had no body.
+     */
+    public HttpEntity getEntity()
+    {
+        if (body == null)
+        {
+            return null;
+        }
+        return new ByteArrayEntity(body, contentType);
+    }
+}
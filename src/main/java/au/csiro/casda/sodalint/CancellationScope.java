@@ -0,0 +1,179 @@
+package au.csiro.casda.sodalint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A unit of work, such as a stage, which can be cancelled when its deadline is reached. Threads enter the scope while
+ * they do its work, and requests made through the {@link SodaHttpClient} by those threads are registered with it.
+ * Cancelling the scope aborts the registered requests, which are otherwise blocked in socket reads that ignore
+ * interrupts, interrupts the threads, and runs the cancel listeners of work which is waiting without a thread.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class CancellationScope
+{
+    private static final ThreadLocal<CancellationScope> CURRENT = new ThreadLocal<>();
+
+    private final Set<HttpUriRequest> requests = ConcurrentHashMap.newKeySet();
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> cancelListeners = new ArrayList<>();
+    private volatile String cancelReason;
+
+    /**
+     * @return The scope the current thread is working in, or null if it is not in a scope.
+     */
+    public static CancellationScope current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Run part of the work of a scope on the current thread, such as work carried on by another thread once a job
+     * the stage was waiting for has finished. Any interrupt from the scope is cleared afterwards so the thread can be
+     * reused.
+     *
+     * @param scope
+     *            The scope of the work, or null if the work is not in a scope.
+     * @param work
+     *            The work to be run.
+     */
+    public static void runIn(CancellationScope scope, Runnable work)
+    {
+        if (scope == null || current() == scope)
+        {
+            work.run();
+            return;
+        }
+        scope.enter();
+        try
+        {
+            work.run();
+        }
+        finally
+        {
+            scope.exit();
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Start doing the work of this scope on the current thread.
+     */
+    public synchronized void enter()
+    {
+        threads.add(Thread.currentThread());
+        CURRENT.set(this);
+    }
+
+    /**
+     * Stop doing the work of this scope on the current thread. Once this returns the thread will not be interrupted
+     * by the scope, although an interrupt may already be pending.
+     */
+    public synchronized void exit()
+    {
+        CURRENT.remove();
+        threads.remove(Thread.currentThread());
+    }
+
+    /**
+     * Cancel the work, aborting its requests and interrupting its threads. Only the first reason given is kept.
+     *
+     * @param reason
+     *            A description of why the work was cancelled.
+     */
+    public synchronized void cancel(String reason)
+    {
+        if (cancelReason != null)
+        {
+            return;
+        }
+        cancelReason = reason;
+        for (HttpUriRequest request : requests)
+        {
+            request.abort();
+        }
+        for (Thread thread : threads)
+        {
+            thread.interrupt();
+        }
+        for (Runnable listener : cancelListeners)
+        {
+            listener.run();
+        }
+        cancelListeners.clear();
+    }
+
+    /**
+     * Register an action to stop part of the work which is not running on a thread, such as waiting for a job. The
+     * action is run straight away if the scope has already been cancelled.
+     *
+     * @param listener
+     *            The action, which must not block as it is run by the thread cancelling the scope.
+     */
+    public synchronized void onCancel(Runnable listener)
+    {
+        if (isCancelled())
+        {
+            listener.run();
+        }
+        else
+        {
+            cancelListeners.add(listener);
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelReason != null;
+    }
+
+    /**
+     * @return The reason the work was cancelled, or null if it has not been cancelled.
+     */
+    public String getCancelReason()
+    {
+        return cancelReason;
+    }
+
+    /**
+     * Register a request made as part of the work. A request registered after the scope is cancelled is aborted
+     * straight away.
+     *
+     * @param request
+     *            The request.
+     */
+    void register(HttpUriRequest request)
+    {
+        requests.add(request);
+        if (isCancelled())
+        {
+            request.abort();
+        }
+    }
+
+    /**
+     * @param request
+     *            A request which has completed.
+     */
+    void unregister(HttpUriRequest request)
+    {
+        requests.remove(request);
+    }
+}
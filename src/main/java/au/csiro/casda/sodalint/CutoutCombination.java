@@ -0,0 +1,75 @@
+package au.csiro.casda.sodalint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A set of filter parameters to be sent in one cutout request. A combination which stays within the declared ranges
+ * of its parameters must produce a cutout. An edge case, such as an empty or out of range filter, may instead be
+ * rejected by the service, but should not cause a server error or a timeout.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class CutoutCombination
+{
+    private final List<String[]> parameters;
+    private final boolean edgeCase;
+
+    /**
+     * Create a new CutoutCombination instance.
+     *
+     * @param parameters
+     *            The name and value of each parameter, a name may be repeated.
+     * @param edgeCase
+     *            True if the service may reject the request.
+     */
+    public CutoutCombination(List<String[]> parameters, boolean edgeCase)
+    {
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+        this.edgeCase = edgeCase;
+    }
+
+    /**
+     * @return The name and value of each parameter in the order they are to be sent.
+     */
+    public List<String[]> getParameters()
+    {
+        return parameters;
+    }
+
+    public boolean isEdgeCase()
+    {
+        return edgeCase;
+    }
+
+    /**
+     * @return The parameters in the form NAME=value NAME=value, for use in reports and to detect duplicates.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        for (String[] parameter : parameters)
+        {
+            if (text.length() > 0)
+            {
+                text.append(' ');
+            }
+            text.append(parameter[0]).append('=').append(parameter[1]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package au.csiro.casda.sodalint;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The settings of the cutout parameter space exerciser. The exerciser requests at most the maximum number of filter
+ * combinations, with no more than the given number of requests in progress at once.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class CutoutExerciseSettings
+{
+    /** The default number of concurrent requests. */
+    public static final int DEFAULT_CLIENTS = 4;
+
+    /** The default number of filter combinations to be requested. */
+    public static final int DEFAULT_MAX_COMBINATIONS = 50;
+
+    private int clients = DEFAULT_CLIENTS;
+    private int maxCombinations = DEFAULT_MAX_COMBINATIONS;
+
+    public int getClients()
+    {
+        return clients;
+    }
+
+    public void setClients(int clients)
+    {
+        this.clients = clients;
+    }
+
+    public int getMaxCombinations()
+    {
+        return maxCombinations;
+    }
+
+    public void setMaxCombinations(int maxCombinations)
+    {
+        this.maxCombinations = maxCombinations;
+    }
+}
@@ -0,0 +1,168 @@
+package au.csiro.casda.sodalint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * An input parameter of a service descriptor along with the values it declares. The MIN and MAX of the parameter's
+ * VALUES element give its range, e.g. the wavelengths a BAND may cover or the bounding circle of a CIRCLE, and the
+ * OPTION elements list the allowed values of an enumerated parameter such as POL.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class CutoutParameter
+{
+    private static final String MIN_PATH = "*[local-name()='VALUES']/*[local-name()='MIN']/@value";
+
+    private static final String MAX_PATH = "*[local-name()='VALUES']/*[local-name()='MAX']/@value";
+
+    private static final String OPTION_PATH = "*[local-name()='VALUES']/*[local-name()='OPTION']/@value";
+
+    private final String name;
+    private final String xtype;
+    private final String min;
+    private final String max;
+    private final List<String> options;
+
+    /**
+     * Create a new CutoutParameter instance.
+     *
+     * @param name
+     *            The name of the parameter.
+     * @param xtype
+     *            The extended type of the parameter, e.g. interval, may be null.
+     * @param min
+     *            The declared minimum value, may be null.
+     * @param max
+     *            The declared maximum value, may be null.
+     * @param options
+     *            The declared allowed values, may be empty.
+     */
+    public CutoutParameter(String name, String xtype, String min, String max, List<String> options)
+    {
+        this.name = name;
+        this.xtype = xtype;
+        this.min = StringUtils.trimToNull(min);
+        this.max = StringUtils.trimToNull(max);
+        this.options = Collections.unmodifiableList(new ArrayList<>(options));
+    }
+
+    /**
+     * Read the input parameters of a SODA service resource, other than the ID parameter.
+     *
+     * @param sodaSvcNode
+     *            The adhoc:service RESOURCE element.
+     * @return The parameters in document order.
+     * @throws XPathExpressionException
+     *             If the parameters cannot be read.
+     */
+    public static List<CutoutParameter> readParameters(Node sodaSvcNode) throws XPathExpressionException
+    {
+        List<CutoutParameter> parameters = new ArrayList<>();
+        NodeList paramList = (NodeList) XmlRegistry.evaluate(ValidateServiceDescriptor.INPUT_PARAM_PATH, sodaSvcNode,
+                XPathConstants.NODESET);
+        for (int i = 0; i < paramList.getLength(); i++)
+        {
+            Node paramNode = paramList.item(i);
+            String paramName = getAttribute(paramNode, "name");
+            if (paramName == null || SodaParameter.ID.name().equals(paramName))
+            {
+                continue;
+            }
+            String paramMin = (String) XmlRegistry.evaluate(MIN_PATH, paramNode, XPathConstants.STRING);
+            String paramMax = (String) XmlRegistry.evaluate(MAX_PATH, paramNode, XPathConstants.STRING);
+            List<String> paramOptions = new ArrayList<>();
+            NodeList optionList =
+                    (NodeList) XmlRegistry.evaluate(OPTION_PATH, paramNode, XPathConstants.NODESET);
+            for (int j = 0; j < optionList.getLength(); j++)
+            {
+                paramOptions.add(optionList.item(j).getNodeValue());
+            }
+            parameters.add(
+                    new CutoutParameter(paramName, getAttribute(paramNode, "xtype"), paramMin, paramMax, paramOptions));
+        }
+        return parameters;
+    }
+
+    private static String getAttribute(Node node, String attrName)
+    {
+        Node attrNode = node.getAttributes().getNamedItem(attrName);
+        return attrNode == null ? null : attrNode.getNodeValue();
+    }
+
+    /**
+     * Create a copy of this parameter with a different range, for use when the descriptor does not declare one.
+     *
+     * @param newMin
+     *            The minimum value, may be null.
+     * @param newMax
+     *            The maximum value, may be null.
+     * @return The new parameter.
+     */
+    public CutoutParameter withRange(String newMin, String newMax)
+    {
+        return new CutoutParameter(name, xtype, newMin, newMax, options);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getXtype()
+    {
+        return xtype;
+    }
+
+    public String getMin()
+    {
+        return min;
+    }
+
+    public String getMax()
+    {
+        return max;
+    }
+
+    public List<String> getOptions()
+    {
+        return options;
+    }
+
+    /**
+     * @return True if the parameter declares a range or allowed values from which requests can be built.
+     */
+    public boolean hasValues()
+    {
+        return min != null || max != null || !options.isEmpty();
+    }
+
+    /**
+     * @return True if the parameter selects a spatial region. Only one of these is sent in each request.
+     */
+    public boolean isSpatial()
+    {
+        return SodaParameter.POS.name().equals(name) || SodaParameter.CIRCLE.name().equals(name)
+                || SodaParameter.POLYGON.name().equals(name);
+    }
+}
@@ -0,0 +1,444 @@
+package au.csiro.casda.sodalint;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Builds a sample of cutout filter combinations from the values declared by the parameters of a service descriptor.
+ * Each parameter is given a set of valid values, from its full range down to a narrow slice, and a set of edge cases
+ * such as zero width, open ended, reversed and out of range filters. The sample holds each value on its own, each
+ * pair of parameters at their widest and narrowest valid values, and all the parameters together at their narrowest,
+ * so that the shapes which are expensive for the service to cut out are covered.
+ * <p>
+ * Spatial regions are treated as flat, which is adequate for the small fields of a typical data product. Only one of
+ * POS, CIRCLE and POLYGON is sent in a single request.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public final class CutoutSampler
+{
+    /** An allowed value which no service will declare, used to check undeclared values are rejected cleanly. */
+    static final String UNDECLARED_OPTION = "sodalint-undeclared";
+
+    private static final MathContext PRECISION = new MathContext(10);
+    private static final double MAX_DEC = 90.0;
+    private static final double QUARTER = 0.25;
+    private static final double HALF = 0.5;
+    private static final double SLICE = 0.01;
+    private static final double NEAR_EDGE = 0.9;
+    private static final double EDGE_RADIUS = 0.2;
+    private static final double OUTSIDE_DISTANCE = 3.0;
+    private static final double OUTSIDE_RADIUS = 0.1;
+    private static final int CIRCLE_VALUES = 3;
+    private static final int MIN_POLYGON_VALUES = 6;
+
+    private CutoutSampler()
+    {
+    }
+
+    /**
+     * Build the filter combinations for a set of parameters.
+     *
+     * @param parameters
+     *            The parameters of the service descriptor.
+     * @param maxCombinations
+     *            The maximum number of combinations to be returned. If more are built, an evenly spaced selection of
+     *            them is returned.
+     * @return The combinations, which will be empty if no parameter declares any values.
+     */
+    public static List<CutoutCombination> sample(List<CutoutParameter> parameters, int maxCombinations)
+    {
+        double[] bounds = getBoundingCircle(parameters);
+        Map<CutoutParameter, List<Sample>> samples = new LinkedHashMap<>();
+        for (CutoutParameter parameter : parameters)
+        {
+            List<Sample> parameterSamples = getSamples(parameter, bounds);
+            if (!parameterSamples.isEmpty())
+            {
+                samples.put(parameter, parameterSamples);
+            }
+        }
+
+        Map<String, CutoutCombination> combinations = new LinkedHashMap<>();
+        for (List<Sample> parameterSamples : samples.values())
+        {
+            for (Sample sample : parameterSamples)
+            {
+                addCombination(combinations, Collections.singletonList(sample));
+            }
+        }
+
+        List<CutoutParameter> sampled = new ArrayList<>(samples.keySet());
+        for (int i = 0; i < sampled.size(); i++)
+        {
+            for (int j = i + 1; j < sampled.size(); j++)
+            {
+                if (sampled.get(i).isSpatial() && sampled.get(j).isSpatial())
+                {
+                    continue;
+                }
+                List<Sample> first = samples.get(sampled.get(i));
+                List<Sample> second = samples.get(sampled.get(j));
+                addCombination(combinations, Arrays.asList(getWidest(first), getWidest(second)));
+                addCombination(combinations, Arrays.asList(getNarrowest(first), getNarrowest(second)));
+            }
+        }
+
+        List<Sample> narrowest = new ArrayList<>();
+        boolean spatial = false;
+        for (CutoutParameter parameter : sampled)
+        {
+            if (!parameter.isSpatial() || !spatial)
+            {
+                narrowest.add(getNarrowest(samples.get(parameter)));
+                spatial |= parameter.isSpatial();
+            }
+        }
+        if (narrowest.size() > 2)
+        {
+            addCombination(combinations, narrowest);
+        }
+
+        return limit(new ArrayList<>(combinations.values()), maxCombinations);
+    }
+
+    private static void addCombination(Map<String, CutoutCombination> combinations, List<Sample> samples)
+    {
+        List<String[]> parameters = new ArrayList<>();
+        boolean edgeCase = false;
+        for (Sample sample : samples)
+        {
+            for (String value : sample.values)
+            {
+                parameters.add(new String[] { sample.name, value });
+            }
+            edgeCase |= sample.edgeCase;
+        }
+        CutoutCombination combination = new CutoutCombination(parameters, edgeCase);
+        combinations.putIfAbsent(combination.toString(), combination);
+    }
+
+    private static List<CutoutCombination> limit(List<CutoutCombination> combinations, int maxCombinations)
+    {
+        if (combinations.size() <= maxCombinations)
+        {
+            return combinations;
+        }
+        List<CutoutCombination> selection = new ArrayList<>();
+        for (int i = 0; i < maxCombinations; i++)
+        {
+            selection.add(combinations.get((int) ((long) i * combinations.size() / maxCombinations)));
+        }
+        return selection;
+    }
+
+    private static Sample getWidest(List<Sample> samples)
+    {
+        return samples.get(0);
+    }
+
+    private static Sample getNarrowest(List<Sample> samples)
+    {
+        Sample narrowest = samples.get(0);
+        for (Sample sample : samples)
+        {
+            if (!sample.edgeCase)
+            {
+                narrowest = sample;
+            }
+        }
+        return narrowest;
+    }
+
+    private static List<Sample> getSamples(CutoutParameter parameter, double[] bounds)
+    {
+        String name = parameter.getName();
+        String xtype = StringUtils.defaultString(parameter.getXtype());
+        if (SodaParameter.POS.name().equals(name))
+        {
+            return bounds == null ? Collections.<Sample> emptyList() : getPosSamples(name, bounds);
+        }
+        if ("circle".equals(xtype))
+        {
+            return getCircleSamples(name, parseNumbers(parameter.getMax()));
+        }
+        if ("polygon".equals(xtype))
+        {
+            return getPolygonSamples(name, parseNumbers(parameter.getMax()));
+        }
+        if ("interval".equals(xtype))
+        {
+            return getIntervalSamples(name, parseNumbers(parameter.getMin()), parseNumbers(parameter.getMax()));
+        }
+        if (!parameter.getOptions().isEmpty())
+        {
+            return getOptionSamples(name, parameter.getOptions());
+        }
+        return getScalarSamples(name, parseNumbers(parameter.getMin()), parseNumbers(parameter.getMax()));
+    }
+
+    private static List<Sample> getIntervalSamples(String name, double[] min, double[] max)
+    {
+        List<Sample> samples = new ArrayList<>();
+        if (min == null || max == null)
+        {
+            return samples;
+        }
+        double lo = Math.min(min[0], max[max.length - 1]);
+        double hi = Math.max(min[0], max[max.length - 1]);
+        double width = hi - lo;
+        double mid = (lo + hi) / 2;
+        samples.add(new Sample(name, false, format(lo, hi)));
+        samples.add(new Sample(name, false, format(lo + width * QUARTER, hi - width * QUARTER)));
+        samples.add(new Sample(name, false, format(lo, lo + width * SLICE)));
+        samples.add(new Sample(name, false, format(hi - width * SLICE, hi)));
+        samples.add(new Sample(name, false, format(mid - width * SLICE / 2, mid + width * SLICE / 2)));
+
+        double span = width > 0 ? width : Math.max(Math.abs(hi), 1.0);
+        samples.add(new Sample(name, true, format(mid, mid)));
+        samples.add(new Sample(name, true, "-Inf " + format(mid)));
+        samples.add(new Sample(name, true, format(mid) + " +Inf"));
+        samples.add(new Sample(name, true, format(hi, lo)));
+        samples.add(new Sample(name, true, format(hi + span, hi + 2 * span)));
+        return samples;
+    }
+
+    private static List<Sample> getCircleSamples(String name, double[] max)
+    {
+        List<Sample> samples = new ArrayList<>();
+        if (max == null || max.length != CIRCLE_VALUES)
+        {
+            return samples;
+        }
+        double ra = max[0];
+        double dec = max[1];
+        double radius = max[2];
+        samples.add(new Sample(name, false, format(ra, dec, radius)));
+        samples.add(new Sample(name, false, format(ra, dec, radius * HALF)));
+        samples.add(new Sample(name, false,
+                format(ra, Math.min(dec + radius * NEAR_EDGE, MAX_DEC), radius * EDGE_RADIUS)));
+        samples.add(new Sample(name, false, format(ra, dec, radius * SLICE)));
+
+        samples.add(new Sample(name, true, format(ra, dec, 0)));
+        samples.add(new Sample(name, true, format(ra, dec, radius * 2)));
+        double outsideDec = dec + radius * OUTSIDE_DISTANCE;
+        if (outsideDec > MAX_DEC)
+        {
+            outsideDec = dec - radius * OUTSIDE_DISTANCE;
+        }
+        if (outsideDec >= -MAX_DEC)
+        {
+            samples.add(new Sample(name, true, format(ra, outsideDec, radius * OUTSIDE_RADIUS)));
+        }
+        return samples;
+    }
+
+    private static List<Sample> getPolygonSamples(String name, double[] max)
+    {
+        List<Sample> samples = new ArrayList<>();
+        if (max == null || max.length < MIN_POLYGON_VALUES || max.length % 2 != 0)
+        {
+            return samples;
+        }
+        double[] centre = getCentroid(max);
+        samples.add(new Sample(name, false, format(max)));
+        samples.add(new Sample(name, false, format(shrink(max, centre, HALF))));
+        samples.add(new Sample(name, false, format(shrink(max, centre, SLICE))));
+
+        double[] reversed = new double[max.length];
+        for (int i = 0; i < max.length; i += 2)
+        {
+            reversed[max.length - i - 2] = max[i];
+            reversed[max.length - i - 1] = max[i + 1];
+        }
+        samples.add(new Sample(name, true, format(reversed)));
+        return samples;
+    }
+
+    private static List<Sample> getPosSamples(String name, double[] bounds)
+    {
+        double ra = bounds[0];
+        double dec = bounds[1];
+        double radius = bounds[2];
+        List<Sample> samples = new ArrayList<>();
+        samples.add(new Sample(name, false, "CIRCLE " + format(ra, dec, radius)));
+        samples.add(new Sample(name, false, "RANGE " + format(ra - radius, ra + radius,
+                Math.max(dec - radius, -MAX_DEC), Math.min(dec + radius, MAX_DEC))));
+        samples.add(new Sample(name, false, "CIRCLE " + format(ra, dec, radius * SLICE)));
+
+        samples.add(new Sample(name, true, "RANGE -Inf +Inf -Inf +Inf"));
+        samples.add(new Sample(name, true, "CIRCLE " + format(ra, dec, 0)));
+        return samples;
+    }
+
+    private static List<Sample> getOptionSamples(String name, List<String> options)
+    {
+        List<Sample> samples = new ArrayList<>();
+        if (options.size() > 1)
+        {
+            samples.add(new Sample(name, false, options.toArray(new String[options.size()])));
+        }
+        for (String option : options)
+        {
+            samples.add(new Sample(name, false, option));
+        }
+        samples.add(new Sample(name, true, UNDECLARED_OPTION));
+        return samples;
+    }
+
+    private static List<Sample> getScalarSamples(String name, double[] min, double[] max)
+    {
+        List<Sample> samples = new ArrayList<>();
+        if (min == null || max == null || min.length != 1 || max.length != 1)
+        {
+            return samples;
+        }
+        double span = Math.max(max[0] - min[0], 1.0);
+        samples.add(new Sample(name, false, format(min[0])));
+        samples.add(new Sample(name, false, format(max[0])));
+        samples.add(new Sample(name, false, format((min[0] + max[0]) / 2)));
+        samples.add(new Sample(name, true, format(min[0] - span)));
+        samples.add(new Sample(name, true, format(max[0] + span)));
+        return samples;
+    }
+
+    /**
+     * Find the circle covering the declared spatial extent, for use by the POS parameter which declares no values of
+     * its own.
+     */
+    private static double[] getBoundingCircle(List<CutoutParameter> parameters)
+    {
+        double[] polygonBounds = null;
+        for (CutoutParameter parameter : parameters)
+        {
+            double[] max = parseNumbers(parameter.getMax());
+            if (max == null)
+            {
+                continue;
+            }
+            if ("circle".equals(parameter.getXtype()) && max.length == CIRCLE_VALUES)
+            {
+                return max;
+            }
+            if ("polygon".equals(parameter.getXtype()) && max.length >= MIN_POLYGON_VALUES && max.length % 2 == 0)
+            {
+                double[] centre = getCentroid(max);
+                double radius = 0;
+                for (int i = 0; i < max.length; i += 2)
+                {
+                    radius = Math.max(radius, Math.hypot(max[i] - centre[0], max[i + 1] - centre[1]));
+                }
+                polygonBounds = new double[] { centre[0], centre[1], radius };
+            }
+        }
+        return polygonBounds;
+    }
+
+    private static double[] getCentroid(double[] vertices)
+    {
+        double ra = 0;
+        double dec = 0;
+        int count = vertices.length / 2;
+        for (int i = 0; i < vertices.length; i += 2)
+        {
+            ra += vertices[i];
+            dec += vertices[i + 1];
+        }
+        return new double[] { ra / count, dec / count };
+    }
+
+    private static double[] shrink(double[] vertices, double[] centre, double factor)
+    {
+        double[] shrunk = new double[vertices.length];
+        for (int i = 0; i < vertices.length; i += 2)
+        {
+            shrunk[i] = centre[0] + (vertices[i] - centre[0]) * factor;
+            shrunk[i + 1] = centre[1] + (vertices[i + 1] - centre[1]) * factor;
+        }
+        return shrunk;
+    }
+
+    /**
+     * Parse a space separated list of numbers.
+     *
+     * @param text
+     *            The text to be parsed, may be null.
+     * @return The numbers, or null if the text is empty or is not a list of finite numbers.
+     */
+    static double[] parseNumbers(String text)
+    {
+        if (StringUtils.isBlank(text))
+        {
+            return null;
+        }
+        String[] tokens = text.trim().split("\\s+");
+        double[] numbers = new double[tokens.length];
+        try
+        {
+            for (int i = 0; i < tokens.length; i++)
+            {
+                numbers[i] = Double.parseDouble(tokens[i]);
+                if (Double.isNaN(numbers[i]) || Double.isInfinite(numbers[i]))
+                {
+                    return null;
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+        return numbers;
+    }
+
+    private static String format(double... numbers)
+    {
+        StringBuilder text = new StringBuilder();
+        for (double number : numbers)
+        {
+            if (text.length() > 0)
+            {
+                text.append(' ');
+            }
+            text.append(BigDecimal.valueOf(number).round(PRECISION).stripTrailingZeros().toPlainString());
+        }
+        return text.toString();
+    }
+
+    /**
+     * The values to be sent for one parameter. Enumerated parameters may send several values at once.
+     */
+    private static class Sample
+    {
+        private final String name;
+        private final boolean edgeCase;
+        private final List<String> values;
+
+        Sample(String name, boolean edgeCase, String... values)
+        {
+            this.name = name;
+            this.edgeCase = edgeCase;
+            this.values = Arrays.asList(values);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package au.csiro.casda.sodalint;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The time limits of a validation run. A stage which runs past the stage deadline is cancelled, and when the service
+ * deadline is reached any running stages are cancelled and the stages not yet started are skipped. A limit of 0
+ * means the time is not limited. The deadline of each http request is set on the {@link SodaHttpClient}.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class DeadlineSettings
+{
+    private int stageSeconds;
+    private int serviceSeconds;
+
+    /**
+     * @return The number of seconds each stage may run for, or 0 if stages are not limited.
+     */
+    public int getStageSeconds()
+    {
+        return stageSeconds;
+    }
+
+    public void setStageSeconds(int stageSeconds)
+    {
+        this.stageSeconds = stageSeconds;
+    }
+
+    /**
+     * @return The number of seconds all the stages of a service may run for, or 0 if services are not limited.
+     */
+    public int getServiceSeconds()
+    {
+        return serviceSeconds;
+    }
+
+    public void setServiceSeconds(int serviceSeconds)
+    {
+        this.serviceSeconds = serviceSeconds;
+    }
+}
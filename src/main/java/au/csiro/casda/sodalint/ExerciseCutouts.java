@@ -0,0 +1,419 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Exercise the parameter space of the sync endpoint. The ranges and allowed values declared by the service
+ * descriptor's input parameters are used by the {@link CutoutSampler} to build valid and edge case filter
+ * combinations, which are requested for the test data product by a number of concurrent clients. Where the descriptor
+ * declares no bounding CIRCLE or BAND range, the configured test cutout values are used instead.
+ * <p>
+ * A valid combination must return a FITS cutout with a valid primary header, while an edge case may also be rejected
+ * with a client error. Server errors, timeouts and invalid cutouts are reported as failures, and the slowest
+ * combinations are reported so that the shapes which are expensive for the service can be found. Cutouts are read
+ * through a fixed size buffer and discarded.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ExerciseCutouts extends Validator implements SodaValidationTask
+{
+    private static final int BUFFER_SIZE = FitsHeader.BLOCK_SIZE * 16;
+    private static final int SLOWEST_REPORTED = 5;
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_SERVER_ERROR = 500;
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /** {@inheritDoc} */
+    @Override
+    public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
+    {
+        SodaCapability syncCapability = sodaService.getSyncCapability();
+        if (syncCapability == null)
+        {
+            reporter.report(SodaCode.I_SYNO, "No sync SODA endpoint to exercise.");
+            return;
+        }
+        if (StringUtils.isBlank(testDataProductId))
+        {
+            reporter.report(SodaCode.I_SYNI,
+                    "No test data product id supplied, so cutout parameters will not be exercised.");
+            return;
+        }
+
+        URL syncUrl;
+        try
+        {
+            syncUrl = syncCapability.getAccessUrl();
+        }
+        catch (MalformedURLException e)
+        {
+            reporter.report(SodaCode.E_SYUR, "Invalid sync interface access URL: ", e);
+            return;
+        }
+
+        List<CutoutParameter> parameters = readParameters(reporter, sodaService, syncUrl);
+        if (parameters == null)
+        {
+            return;
+        }
+        CutoutExerciseSettings settings = sodaService.getCutoutExerciseSettings();
+        List<CutoutCombination> combinations =
+                CutoutSampler.sample(applyConfiguredRanges(parameters, sodaService), settings.getMaxCombinations());
+        if (combinations.isEmpty())
+        {
+            reporter.report(SodaCode.I_CXNO,
+                    "The service descriptor declares no parameter values from which to build cutout requests.");
+            return;
+        }
+
+        int edgeCases = 0;
+        for (CutoutCombination combination : combinations)
+        {
+            edgeCases += combination.isEdgeCase() ? 1 : 0;
+        }
+        reporter.report(SodaCode.I_VURL, "Exercising " + combinations.size() + " cutout filter combinations ("
+                + edgeCases + " edge cases) of " + testDataProductId + " at " + syncUrl + " with "
+                + settings.getClients() + " clients");
+
+        long start = System.nanoTime();
+        List<CutoutResult> results;
+        try
+        {
+            results = runCombinations(sodaService, syncUrl, testDataProductId, combinations, settings.getClients());
+        }
+        catch (URISyntaxException e)
+        {
+            reporter.report(SodaCode.E_SYUR, "Invalid sync interface access URL: ", e);
+            return;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            reporter.report(SodaCode.E_CXFL, "Cutout parameter exercise interrupted");
+            return;
+        }
+        catch (ExecutionException e)
+        {
+            reporter.report(SodaCode.F_CODE, "Cutout parameter exercise failed: ", e.getCause());
+            return;
+        }
+        reportResults(reporter, results, System.nanoTime() - start);
+    }
+
+    private List<CutoutParameter> readParameters(Reporter reporter, SodaService sodaService, URL syncUrl)
+    {
+        try
+        {
+            HttpEntity entity = getXmlEntityFromUrl(reporter, sodaService, syncUrl.toString());
+            if (entity == null)
+            {
+                reporter.report(SodaCode.E_SYCO, "Sync response contains no content");
+                return null;
+            }
+            Document document;
+            try (InputStream is = entity.getContent())
+            {
+                document = XmlRegistry.parse(is);
+            }
+            Node sodaSvcNode = (Node) XmlRegistry.evaluate(ValidateServiceDescriptor.SODA_SERVICE_RESOURCE_PATH,
+                    document.getDocumentElement(), XPathConstants.NODE);
+            if (sodaSvcNode == null)
+            {
+                reporter.report(SodaCode.E_SDNO, "No service descriptor resource found in default sync repsonse.");
+                return null;
+            }
+            return CutoutParameter.readParameters(sodaSvcNode);
+        }
+        catch (HttpResponseException e)
+        {
+            reporter.report(SodaCode.E_SYCO,
+                    "Unexpected http response: " + e.getStatusCode() + " Reason: " + e.getMessage());
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            reporter.report(SodaCode.E_SYCO, "Sync response has an unexpected content type:" + e.getMessage());
+        }
+        catch (IOException e)
+        {
+            reporter.report(SodaCode.E_SYCO, "Unable to read sync response: " + e.getMessage());
+        }
+        catch (ParserConfigurationException | XPathExpressionException e)
+        {
+            reporter.report(SodaCode.E_SDIN, "Unexpected error processing service description", e);
+        }
+        catch (SAXException e)
+        {
+            reporter.report(SodaCode.E_SDIN, "Error parsing service description", e);
+        }
+        return null;
+    }
+
+    private List<CutoutParameter> applyConfiguredRanges(List<CutoutParameter> parameters, SodaService sodaService)
+    {
+        List<CutoutParameter> ranged = new ArrayList<>();
+        for (CutoutParameter parameter : parameters)
+        {
+            if (SodaParameter.CIRCLE.name().equals(parameter.getName()) && parameter.getMax() == null
+                    && StringUtils.isNotBlank(sodaService.getCutoutCircle()))
+            {
+                ranged.add(parameter.withRange(null, sodaService.getCutoutCircle()));
+            }
+            else if (SodaParameter.BAND.name().equals(parameter.getName()) && !parameter.hasValues()
+                    && StringUtils.isNotBlank(sodaService.getCutoutBand()))
+            {
+                ranged.add(parameter.withRange(sodaService.getCutoutBand(), sodaService.getCutoutBand()));
+            }
+            else
+            {
+                ranged.add(parameter);
+            }
+        }
+        return ranged;
+    }
+
+    private List<CutoutResult> runCombinations(SodaService sodaService, URL syncUrl, String testDataProductId,
+            List<CutoutCombination> combinations, int clients)
+            throws URISyntaxException, InterruptedException, ExecutionException
+    {
+        List<CutoutRequest> requests = new ArrayList<>();
+        for (CutoutCombination combination : combinations)
+        {
+            URIBuilder uriBuilder = new URIBuilder(syncUrl.toURI()).addParameter("ID", testDataProductId);
+            for (String[] parameter : combination.getParameters())
+            {
+                uriBuilder.addParameter(parameter[0], parameter[1]);
+            }
+            requests.add(new CutoutRequest(sodaService.getHttpClient(), uriBuilder.build().toString(), combination));
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(clients, ThreadFactories.newThreadFactory("sodalint-cutout-", false));
+        // The requests join the stage's scope so that cancelling the stage also aborts them
+        final CancellationScope scope = CancellationScope.current();
+        try
+        {
+            List<Future<CutoutResult>> futures = new ArrayList<>();
+            for (CutoutRequest request : requests)
+            {
+                futures.add(executor.submit(() -> request.callInScope(scope)));
+            }
+            List<CutoutResult> results = new ArrayList<>();
+            for (Future<CutoutResult> future : futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private void reportResults(Reporter reporter, List<CutoutResult> results, long elapsedNanos)
+    {
+        int returned = 0;
+        int rejected = 0;
+        int failed = 0;
+        for (CutoutResult result : results)
+        {
+            if (result.problem != null)
+            {
+                failed++;
+                reporter.report(SodaCode.E_CXFL, (result.combination.isEdgeCase() ? "Edge case cutout " : "Cutout ")
+                        + result.combination + " failed after " + result.millis + " ms: " + result.problem);
+            }
+            else if (result.rejected)
+            {
+                rejected++;
+            }
+            else
+            {
+                returned++;
+            }
+        }
+        reporter.report(SodaCode.I_CXSM,
+                String.format("%d combinations in %.1f s: %d cutouts returned, %d edge cases rejected, %d failed",
+                        results.size(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos) / MILLIS_PER_SECOND, returned,
+                        rejected, failed));
+
+        List<CutoutResult> slowest = new ArrayList<>(results);
+        Collections.sort(slowest, new Comparator<CutoutResult>()
+        {
+            @Override
+            public int compare(CutoutResult first, CutoutResult second)
+            {
+                return Long.compare(second.millis, first.millis);
+            }
+        });
+        for (CutoutResult result : slowest.subList(0, Math.min(SLOWEST_REPORTED, slowest.size())))
+        {
+            String status = result.statusCode < 0 ? "no response" : "status " + result.statusCode;
+            reporter.report(SodaCode.I_CXSL, "Slow cutout took " + result.millis + " ms, " + status + ", "
+                    + result.bytes + " bytes: " + result.combination);
+        }
+    }
+
+    /**
+     * A request for one combination, which checks the response and reads and discards its body.
+     */
+    private static class CutoutRequest
+    {
+        private final SodaHttpClient httpClient;
+        private final String address;
+        private final CutoutCombination combination;
+
+        CutoutRequest(SodaHttpClient httpClient, String address, CutoutCombination combination)
+        {
+            this.httpClient = httpClient;
+            this.address = address;
+            this.combination = combination;
+        }
+
+        CutoutResult callInScope(CancellationScope scope)
+        {
+            if (scope == null)
+            {
+                return call();
+            }
+            scope.enter();
+            try
+            {
+                return call();
+            }
+            finally
+            {
+                scope.exit();
+            }
+        }
+
+        CutoutResult call()
+        {
+            CutoutResult result = new CutoutResult(combination);
+            HttpGet request = new HttpGet(address);
+            long start = System.nanoTime();
+            try (CloseableHttpResponse response = httpClient.execute(request, new RequestTiming(address)))
+            {
+                result.statusCode = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (result.statusCode != STATUS_OK || entity == null)
+                {
+                    request.abort();
+                    if (combination.isEdgeCase() && result.statusCode != STATUS_OK
+                            && result.statusCode < STATUS_SERVER_ERROR)
+                    {
+                        result.rejected = true;
+                    }
+                    else
+                    {
+                        result.problem = "Unexpected http response: " + result.statusCode + " Reason: "
+                                + response.getStatusLine().getReasonPhrase();
+                    }
+                }
+                else
+                {
+                    readCutout(entity, request, result);
+                }
+            }
+            catch (IOException e)
+            {
+                request.abort();
+                result.problem = "Unable to read cutout response: " + e.getMessage();
+            }
+            result.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return result;
+        }
+
+        private void readCutout(HttpEntity entity, HttpGet request, CutoutResult result) throws IOException
+        {
+            ContentType contentType = ContentType.getOrDefault(entity);
+            if (!ValidateSync.isFitsContentType(contentType))
+            {
+                request.abort();
+                // Some services report a rejected filter in a document with a 200 status
+                if (combination.isEdgeCase())
+                {
+                    result.rejected = true;
+                }
+                else
+                {
+                    result.problem = "Cutout response has an unexpected content type: " + contentType;
+                }
+                return;
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            InputStream content = entity.getContent();
+            FitsHeader header = FitsHeader.read(content, buffer);
+            String headerProblem = header.validate();
+            if (headerProblem != null)
+            {
+                request.abort();
+                result.problem = "Invalid FITS primary header in cutout: " + headerProblem;
+                return;
+            }
+            result.bytes = header.getHeaderBytes() + ValidateSync.discard(content, buffer);
+        }
+    }
+
+    /**
+     * The outcome of the request for one combination.
+     */
+    private static class CutoutResult
+    {
+        private final CutoutCombination combination;
+        private int statusCode = -1;
+        private long millis;
+        private long bytes;
+        private boolean rejected;
+        private String problem;
+
+        CutoutResult(CutoutCombination combination)
+        {
+            this.combination = combination;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package au.csiro.casda.sodalint;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The primary header of a FITS file, read from the start of a stream. Only the header blocks are read, one 2880 byte
+ * block at a time into a buffer supplied by the caller, so the data which follows can be streamed or discarded
+ * without being held in memory.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class FitsHeader
+{
+    /** The size in bytes of a FITS block. */
+    public static final int BLOCK_SIZE = 2880;
+
+    private static final int CARD_SIZE = 80;
+    private static final int KEYWORD_SIZE = 8;
+    private static final int VALUE_INDICATOR_END = 10;
+    private static final int MAX_HEADER_BLOCKS = 1000;
+    private static final Set<Integer> VALID_BITPIX = new HashSet<>(Arrays.asList(8, 16, 32, 64, -32, -64));
+
+    private final Map<String, String> values;
+    private final String firstKeyword;
+    private final int blockCount;
+
+    private FitsHeader(Map<String, String> values, String firstKeyword, int blockCount)
+    {
+        this.values = Collections.unmodifiableMap(values);
+        this.firstKeyword = firstKeyword;
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * Read the primary header from the start of a FITS stream, leaving the stream positioned at the start of the
+     * primary data.
+     *
+     * @param in
+     *            The FITS stream.
+     * @param buffer
+     *            A buffer of at least {@link #BLOCK_SIZE} bytes to read the header blocks into.
+     * @return The header.
+     * @throws IOException
+     *             If the stream ends before the END card, or the header is longer than the limit.
+     */
+    public static FitsHeader read(InputStream in, byte[] buffer) throws IOException
+    {
+        Map<String, String> values = new LinkedHashMap<>();
+        String firstKeyword = null;
+        for (int block = 1; block <= MAX_HEADER_BLOCKS; block++)
+        {
+            readBlock(in, buffer);
+            for (int offset = 0; offset < BLOCK_SIZE; offset += CARD_SIZE)
+            {
+                String card = new String(buffer, offset, CARD_SIZE, StandardCharsets.US_ASCII);
+                String keyword = card.substring(0, KEYWORD_SIZE).trim();
+                if (firstKeyword == null)
+                {
+                    firstKeyword = keyword;
+                }
+                if ("END".equals(keyword))
+                {
+                    return new FitsHeader(values, firstKeyword, block);
+                }
+                if (card.startsWith("= ", KEYWORD_SIZE) && !values.containsKey(keyword))
+                {
+                    values.put(keyword, parseValue(card.substring(VALUE_INDICATOR_END)));
+                }
+            }
+        }
+        throw new IOException("No END card found in the first " + MAX_HEADER_BLOCKS + " header blocks");
+    }
+
+    private static void readBlock(InputStream in, byte[] buffer) throws IOException
+    {
+        int read = 0;
+        while (read < BLOCK_SIZE)
+        {
+            int count = in.read(buffer, read, BLOCK_SIZE - read);
+            if (count < 0)
+            {
+                throw new EOFException("Stream ended within the FITS header");
+            }
+            read += count;
+        }
+    }
+
+    private static String parseValue(String valueField)
+    {
+        String value = valueField.trim();
+        if (value.startsWith("'"))
+        {
+            // A string value, in which '' is an escaped quote
+            StringBuilder text = new StringBuilder();
+            for (int i = 1; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+                if (c == '\'')
+                {
+                    if (i + 1 < value.length() && value.charAt(i + 1) == '\'')
+                    {
+                        text.append(c);
+                        i++;
+                        continue;
+                    }
+                    break;
+                }
+                text.append(c);
+            }
+            return text.toString().trim();
+        }
+        int commentStart = value.indexOf('/');
+        return (commentStart >= 0 ? value.substring(0, commentStart) : value).trim();
+    }
+
+    /**
+     * @param keyword
+     *            The keyword of the card.
+     * @return The value of the first card with the keyword, or null if there is no such card.
+     */
+    public String getValue(String keyword)
+    {
+        return values.get(keyword);
+    }
+
+    /**
+     * @return The keyword of the first card, which should be SIMPLE.
+     */
+    public String getFirstKeyword()
+    {
+        return firstKeyword;
+    }
+
+    /**
+     * @return The number of bytes in the header, including padding.
+     */
+    public long getHeaderBytes()
+    {
+        return (long) blockCount * BLOCK_SIZE;
+    }
+
+    /**
+     * Check the header has the mandatory primary header keywords with valid values.
+     *
+     * @return A description of the first problem found, or null if the header is valid.
+     */
+    public String validate()
+    {
+        if (!"SIMPLE".equals(firstKeyword) || !"T".equals(getValue("SIMPLE")))
+        {
+            return "First card is not SIMPLE = T";
+        }
+        Integer bitpix = getIntValue("BITPIX");
+        if (bitpix == null || !VALID_BITPIX.contains(bitpix))
+        {
+            return "Invalid BITPIX value " + getValue("BITPIX");
+        }
+        final int maxAxes = 999;
+        Integer naxis = getIntValue("NAXIS");
+        if (naxis == null || naxis < 0 || naxis > maxAxes)
+        {
+            return "Invalid NAXIS value " + getValue("NAXIS");
+        }
+        for (int axis = 1; axis <= naxis; axis++)
+        {
+            Integer length = getIntValue("NAXIS" + axis);
+            if (length == null || length < 0)
+            {
+                return "Invalid NAXIS" + axis + " value " + getValue("NAXIS" + axis);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The dimensions of the primary data, e.g. 100 x 100 x 20, or an empty string if there is no data.
+     */
+    public String getDimensions()
+    {
+        StringBuilder dimensions = new StringBuilder();
+        Integer naxis = getIntValue("NAXIS");
+        for (int axis = 1; naxis != null && axis <= naxis; axis++)
+        {
+            if (dimensions.length() > 0)
+            {
+                dimensions.append(" x ");
+            }
+            dimensions.append(getValue("NAXIS" + axis));
+        }
+        return dimensions.toString();
+    }
+
+    /**
+     * Calculate the size of the primary data, including padding, from a valid header.
+     *
+     * @return The number of bytes of primary data.
+     */
+    public long getDataBytes()
+    {
+        final int bitsPerByte = 8;
+        Integer naxis = getIntValue("NAXIS");
+        if (naxis == null || naxis == 0)
+        {
+            return 0;
+        }
+        long size = Math.abs(getIntValue("BITPIX")) / bitsPerByte;
+        for (int axis = 1; axis <= naxis; axis++)
+        {
+            size *= getIntValue("NAXIS" + axis);
+        }
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private Integer getIntValue(String keyword)
+    {
+        String value = getValue(keyword);
+        if (value == null)
+        {
+            return null;
+        }
+        try
+        {
+            return Integer.valueOf(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package au.csiro.casda.sodalint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A SODA service to be validated as part of a fleet, along with the optional id of a data product it can serve. When
+ * the fleet is monitored each service may also have its own interval between runs and its own set of stages.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class FleetEntry
+{
+    private final URL serviceUrl;
+    private final String testDataProductId;
+    private final int intervalSeconds;
+    private final Set<String> stageCodes;
+
+    /**
+     * Create a new FleetEntry instance.
+     *
+     * @param serviceUrl
+     *            The base url of the SODA service to be validated.
+     * @param testDataProductId
+     *            id of a valid data product which can be tested, may be null.
+     */
+    public FleetEntry(URL serviceUrl, String testDataProductId)
+    {
+        this(serviceUrl, testDataProductId, 0, null);
+    }
+
+    /**
+     * Create a new FleetEntry instance.
+     *
+     * @param serviceUrl
+     *            The base url of the SODA service to be validated.
+     * @param testDataProductId
+     *            id of a valid data product which can be tested, may be null.
+     * @param intervalSeconds
+     *            The number of seconds between monitoring runs, or 0 to use the default interval.
+     * @param stageCodes
+     *            The codes of the stages to be run for this service, or null to use the default stages.
+     */
+    public FleetEntry(URL serviceUrl, String testDataProductId, int intervalSeconds, Set<String> stageCodes)
+    {
+        this.serviceUrl = serviceUrl;
+        this.testDataProductId = testDataProductId;
+        this.intervalSeconds = intervalSeconds;
+        this.stageCodes = stageCodes;
+    }
+
+    public URL getServiceUrl()
+    {
+        return serviceUrl;
+    }
+
+    public String getTestDataProductId()
+    {
+        return testDataProductId;
+    }
+
+    public int getIntervalSeconds()
+    {
+        return intervalSeconds;
+    }
+
+    public Set<String> getStageCodes()
+    {
+        return stageCodes;
+    }
+
+    /**
+     * Read a list of services. Each line holds a service URL optionally followed by whitespace and the id of a data
+     * product to test. The line may end with interval=&lt;secs&gt; and stages=&lt;code,...&gt; settings, which are
+     * used when the fleet is monitored. Blank lines and lines starting with # are ignored.
+     *
+     * @param source
+     *            The source of the service list.
+     * @return The services in the order they were listed.
+     * @throws IOException
+     *             If the list cannot be read or contains an invalid URL.
+     */
+    public static List<FleetEntry> readServiceList(Reader source) throws IOException
+    {
+        List<FleetEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(source))
+        {
+            int lineNum = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+            {
+                lineNum++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                {
+                    continue;
+                }
+                entries.add(parseLine(trimmed, lineNum));
+            }
+        }
+        return entries;
+    }
+
+    private static FleetEntry parseLine(String line, int lineNum) throws IOException
+    {
+        List<String> tokens = new ArrayList<>(Arrays.asList(StringUtils.split(line)));
+        int intervalSeconds = 0;
+        Set<String> stageCodes = null;
+
+        // Settings are only recognised at the end of the line, so product ids are read as before
+        for (int i = tokens.size() - 1; i > 0; i--)
+        {
+            String token = tokens.get(i);
+            if (token.startsWith("interval="))
+            {
+                String value = token.substring("interval=".length());
+                try
+                {
+                    intervalSeconds = Integer.parseInt(value);
+                }
+                catch (NumberFormatException e)
+                {
+                    intervalSeconds = 0;
+                }
+                if (intervalSeconds < 1)
+                {
+                    throw new IOException("Invalid interval on line " + lineNum + ": " + value);
+                }
+            }
+            else if (token.startsWith("stages="))
+            {
+                stageCodes = new LinkedHashSet<>(
+                        Arrays.asList(StringUtils.split(token.substring("stages=".length()), ',')));
+            }
+            else
+            {
+                break;
+            }
+            tokens.remove(i);
+        }
+
+        String productId = tokens.size() > 1 ? StringUtils.join(tokens.subList(1, tokens.size()), ' ') : null;
+        try
+        {
+            return new FleetEntry(new URL(tokens.get(0)), productId, intervalSeconds, stageCodes);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IOException("Invalid service URL on line " + lineNum + ": " + tokens.get(0), e);
+        }
+    }
+}
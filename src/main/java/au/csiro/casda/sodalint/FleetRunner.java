@@ -0,0 +1,274 @@
+package au.csiro.casda.sodalint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import uk.ac.starlink.task.TaskException;
+import uk.ac.starlink.ttools.taplint.OutputReporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates a fleet of SODA services from a single JVM. Services are validated concurrently. On platform threads
+ * they share a fixed size pool. If the linter has been configured for virtual threads, each service is started on
+ * its own virtual thread, and the number validated at once is only limited if a maximum has been given. The
+ * requests themselves are limited per host by the {@link HostGovernor} of the linter's http client, so a large fleet
+ * does not overload any one archive. Each service has its own SodaService and
+ * reporter. JSON records name the service in each record, so they are written to the output as soon as they are
+ * reported, interleaved with the records of the other services. Text reports are preceded by a line naming the
+ * service and are written as a single block as soon as the service has been validated, so they appear in the order
+ * the services completed rather than the order they were listed.
+ * <p>
+ * If a summary size is set, the errors, warnings and failures of every service are also counted in a fixed size
+ * {@link MessageAggregator}, and the most common messages across the fleet are written after the last report.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class FleetRunner
+{
+    /** The number of services validated at once on platform threads when no maximum has been given. */
+    public static final int DEFAULT_PLATFORM_SERVICES = 8;
+
+    private static final String CHARSET_UTF_8 = "UTF-8";
+
+    private final SodaLinter linter;
+    private final int maxServices;
+    private final Semaphore serviceSlots;
+    private final ReportFormat format;
+    private final int maxRepeat;
+    private final int maxLineLen;
+    private int summarySize;
+
+    /**
+     * Create a new FleetRunner instance.
+     *
+     * @param linter
+     *            The linter used to validate each service.
+     * @param maxServices
+     *            The maximum number of services to be validated at the same time, or 0 for no limit on virtual
+     *            threads and {@link #DEFAULT_PLATFORM_SERVICES} on platform threads.
+     * @param format
+     *            The format of the reports.
+     * @param maxRepeat
+     *            The maximum number of a particular message that will be output for each service.
+     * @param maxLineLen
+     *            The maximum line length that will be output.
+     */
+    public FleetRunner(SodaLinter linter, int maxServices, ReportFormat format, int maxRepeat, int maxLineLen)
+    {
+        this.linter = linter;
+        this.maxServices = Math.max(0, maxServices);
+        this.serviceSlots = this.maxServices > 0 ? new Semaphore(this.maxServices) : null;
+        this.format = format;
+        this.maxRepeat = maxRepeat;
+        this.maxLineLen = maxLineLen;
+    }
+
+    public int getSummarySize()
+    {
+        return summarySize;
+    }
+
+    /**
+     * @param summarySize
+     *            The number of the most common messages to be listed after the fleet has been validated, or 0 for no
+     *            summary.
+     */
+    public void setSummarySize(int summarySize)
+    {
+        this.summarySize = summarySize;
+    }
+
+    /**
+     * Create an executor to run the validation of services. Each service is started on its own virtual thread if the
+     * linter has been configured for them, otherwise a pool of platform threads is used.
+     *
+     * @param namePrefix
+     *            The prefix for the names of the threads.
+     * @return The executor, which the caller must shut down.
+     */
+    ExecutorService createExecutor(String namePrefix)
+    {
+        return ThreadFactories.newExecutor(namePrefix, maxServices > 0 ? maxServices : DEFAULT_PLATFORM_SERVICES,
+                linter.isVirtualThreads());
+    }
+
+    ReportFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Validate each of the services and write their reports to the output.
+     *
+     * @param services
+     *            The services to be validated.
+     * @param stageCodeSet
+     *            unordered collection of code strings indicating which stages should be run
+     * @param out
+     *            The destination for the reports.
+     */
+    public void run(List<FleetEntry> services, final Set<String> stageCodeSet, PrintStream out)
+    {
+        if (services.isEmpty())
+        {
+            return;
+        }
+
+        ExecutorService executor = createExecutor("sodalint-service-");
+        final MessageAggregator aggregator = summarySize > 0 ? new MessageAggregator() : null;
+        try
+        {
+            List<CompletableFuture<Void>> reports = new ArrayList<>();
+            for (final FleetEntry service : services)
+            {
+                reports.add(CompletableFuture.runAsync(() -> validateService(service, stageCodeSet, out, aggregator),
+                        executor));
+            }
+            CompletableFuture.allOf(reports.toArray(new CompletableFuture<?>[reports.size()])).join();
+            if (aggregator != null)
+            {
+                aggregator.writeSummary(out, format, summarySize);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validate a single service, writing its report to the output and counting its messages. JSON records are written
+     * as they are reported, while a text report is written as a single block once the service has been validated. If
+     * a maximum number of services has been given, this waits until fewer than that many services are being
+     * validated.
+     *
+     * @param service
+     *            The service to be validated.
+     * @param stageCodeSet
+     *            unordered collection of code strings indicating which stages should be run
+     * @param out
+     *            The destination for the report, which may be shared with other services.
+     * @param aggregator
+     *            The counts of the messages across the fleet, or null if messages are not counted.
+     */
+    void validateService(FleetEntry service, Set<String> stageCodeSet, PrintStream out, MessageAggregator aggregator)
+    {
+        if (serviceSlots != null)
+        {
+            try
+            {
+                serviceSlots.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                // The run is being stopped
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        try
+        {
+            if (format == ReportFormat.TEXT)
+            {
+                String report = collectTextReport(service, stageCodeSet, aggregator);
+                synchronized (out)
+                {
+                    out.print(report);
+                    out.flush();
+                }
+            }
+            else
+            {
+                writeReport(service, stageCodeSet, out, aggregator);
+            }
+        }
+        finally
+        {
+            if (serviceSlots != null)
+            {
+                serviceSlots.release();
+            }
+        }
+    }
+
+    private String collectTextReport(FleetEntry service, Set<String> stageCodeSet, MessageAggregator aggregator)
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (PrintStream ps = new PrintStream(buffer, false, CHARSET_UTF_8))
+        {
+            writeReport(service, stageCodeSet, ps, aggregator);
+            ps.flush();
+            return buffer.toString(CHARSET_UTF_8);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeReport(FleetEntry service, Set<String> stageCodeSet, PrintStream ps,
+            MessageAggregator aggregator)
+    {
+        boolean text = format == ReportFormat.TEXT;
+        if (text)
+        {
+            ps.println("Service: " + service.getServiceUrl());
+        }
+        OutputReporter reporter = format.createReporter(ps, service.getServiceUrl(), maxRepeat, maxLineLen);
+        String serviceUrl = service.getServiceUrl().toString();
+        if (aggregator != null)
+        {
+            reporter = new AggregatingReporter(reporter, aggregator, serviceUrl);
+        }
+        try
+        {
+            linter.createExecutable(reporter, service.getServiceUrl(), stageCodeSet, service.getTestDataProductId())
+                    .execute();
+        }
+        catch (TaskException | IOException | RuntimeException e)
+        {
+            if (text)
+            {
+                ps.println("Validation of " + service.getServiceUrl() + " failed: " + e);
+                if (aggregator != null)
+                {
+                    aggregator.add("F--" + SodaCode.F_CODE.getLabel(), "Validation of " + serviceUrl + " failed: " + e,
+                            serviceUrl);
+                }
+            }
+            else
+            {
+                reporter.report(SodaCode.F_CODE, "Validation of " + service.getServiceUrl() + " failed: ", e);
+            }
+        }
+        if (text)
+        {
+            ps.println();
+        }
+        if (aggregator != null)
+        {
+            aggregator.serviceCompleted();
+        }
+        ps.flush();
+    }
+}
@@ -0,0 +1,349 @@
+package au.csiro.casda.sodalint;
+
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Governs the requests sent to each host, so that validating many services at once stays polite to each archive.
+ * Every request made through the {@link SodaHttpClient} first takes a permit from the governor, which limits the
+ * number of requests in progress to a host, spaces requests to the host with a token bucket if a rate is set, and
+ * holds requests back while the host has asked clients to back off. Hosts are identified by name, so services on
+ * different ports or paths of one host share its limits, while requests to different hosts never wait for each other.
+ * <p>
+ * A host asks clients to back off by answering 429 Too Many Requests, or 503 Service Unavailable with a Retry-After
+ * header. The Retry-After time is honoured up to a limit; a 429 without one backs off for a time which doubles with
+ * each throttled response until the host answers normally again. The throttled response itself is still returned to
+ * the caller, so that stages can report it, and is not retried, as not every request is safe to repeat.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class HostGovernor
+{
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    private static final long MAX_RETRY_AFTER_MILLIS = 300000;
+    private static final long WAIT_SLICE_MILLIS = 100;
+    private static final double NANOS_PER_SECOND = 1.0e9;
+
+    private final int maxConcurrentPerHost;
+    private final double requestsPerSecond;
+    private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new HostGovernor instance.
+     *
+     * @param maxConcurrentPerHost
+     *            The maximum number of requests in progress to a single host.
+     * @param requestsPerSecond
+     *            The maximum average rate of requests to a single host, or 0 for no limit. Up to a second's worth of
+     *            requests may be sent at once after the host has been idle.
+     */
+    public HostGovernor(int maxConcurrentPerHost, double requestsPerSecond)
+    {
+        this.maxConcurrentPerHost = maxConcurrentPerHost;
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getMaxConcurrentPerHost()
+    {
+        return maxConcurrentPerHost;
+    }
+
+    /**
+     * @return The maximum average rate of requests to a single host, or 0 if the rate is not limited.
+     */
+    public double getRequestsPerSecond()
+    {
+        return requestsPerSecond;
+    }
+
+    /**
+     * @param host
+     *            The name of the host.
+     * @return The number of further requests which could be in progress to the host now.
+     */
+    int getAvailableSlots(String host)
+    {
+        HostState state = hosts.get(host.toLowerCase(Locale.ROOT));
+        return state == null ? maxConcurrentPerHost : state.slots.availablePermits();
+    }
+
+    /**
+     * Wait until a request may be sent to its host. The permit must be released once the response has been read.
+     *
+     * @param request
+     *            The request to be sent. If it is aborted while waiting, the wait ends.
+     * @return The permit to send the request.
+     * @throws InterruptedIOException
+     *             If the request was aborted or the thread interrupted while waiting.
+     */
+    public Permit acquire(HttpUriRequest request) throws InterruptedIOException
+    {
+        String host = getHost(request);
+        HostState state = hosts.computeIfAbsent(host, k -> new HostState());
+        long start = System.nanoTime();
+        try
+        {
+            waitUntil(request, state.getBlockedUntilNanos());
+            while (!state.slots.tryAcquire(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                checkAborted(request);
+                waitUntil(request, state.getBlockedUntilNanos());
+            }
+            Permit permit = new Permit(state);
+            try
+            {
+                waitUntil(request, state.reserveToken());
+                // A back off may have started while this request waited its turn
+                waitUntil(request, state.getBlockedUntilNanos());
+            }
+            catch (InterruptedIOException e)
+            {
+                permit.release();
+                throw e;
+            }
+            permit.queuedNanos = System.nanoTime() - start;
+            return permit;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to send request to " + host);
+        }
+    }
+
+    /**
+     * Record the response from a host, starting a back off if the host has asked for one.
+     *
+     * @param request
+     *            The request which was sent.
+     * @param statusCode
+     *            The http status code of the response.
+     * @param retryAfter
+     *            The value of the Retry-After header of the response, may be null.
+     */
+    public void observe(HttpUriRequest request, int statusCode, String retryAfter)
+    {
+        HostState state = hosts.computeIfAbsent(getHost(request), k -> new HostState());
+        Long retryAfterMillis = parseRetryAfter(retryAfter);
+        if (statusCode == STATUS_TOO_MANY_REQUESTS)
+        {
+            state.backOff(retryAfterMillis);
+        }
+        else if (statusCode == STATUS_SERVICE_UNAVAILABLE && retryAfterMillis != null)
+        {
+            state.backOff(retryAfterMillis);
+        }
+        else
+        {
+            state.resetBackOff();
+        }
+    }
+
+    /**
+     * Parse a Retry-After header, which holds either a number of seconds or an http date.
+     *
+     * @param retryAfter
+     *            The header value, may be null.
+     * @return The number of milliseconds to wait, limited to a maximum, or null if there is no valid value.
+     */
+    static Long parseRetryAfter(String retryAfter)
+    {
+        if (StringUtils.isBlank(retryAfter))
+        {
+            return null;
+        }
+        String value = retryAfter.trim();
+        long millis;
+        if (StringUtils.isNumeric(value))
+        {
+            try
+            {
+                millis = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+            }
+            catch (NumberFormatException e)
+            {
+                millis = MAX_RETRY_AFTER_MILLIS;
+            }
+        }
+        else
+        {
+            Date date = DateUtils.parseDate(value);
+            if (date == null)
+            {
+                return null;
+            }
+            millis = Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+        return Math.min(millis, MAX_RETRY_AFTER_MILLIS);
+    }
+
+    private static String getHost(HttpUriRequest request)
+    {
+        String host = request.getURI().getHost();
+        return host == null ? "" : host.toLowerCase(Locale.ROOT);
+    }
+
+    private static void waitUntil(HttpUriRequest request, long untilNanos)
+            throws InterruptedException, InterruptedIOException
+    {
+        for (long remaining = untilNanos - System.nanoTime(); remaining > 0; remaining =
+                untilNanos - System.nanoTime())
+        {
+            checkAborted(request);
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(WAIT_SLICE_MILLIS)));
+        }
+        checkAborted(request);
+    }
+
+    private static void checkAborted(HttpUriRequest request) throws InterruptedIOException
+    {
+        if (request.isAborted())
+        {
+            throw new InterruptedIOException("Request aborted while waiting to be sent");
+        }
+    }
+
+    /**
+     * Permission to send one request, which must be released once when the request has completed.
+     */
+    public static class Permit
+    {
+        private final HostState state;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private long queuedNanos;
+
+        Permit(HostState state)
+        {
+            this.state = state;
+        }
+
+        /**
+         * @return The time in nanoseconds the request waited for the permit.
+         */
+        public long getQueuedNanos()
+        {
+            return queuedNanos;
+        }
+
+        public void release()
+        {
+            if (released.compareAndSet(false, true))
+            {
+                state.slots.release();
+            }
+        }
+    }
+
+    /**
+     * The concurrency slots, token bucket and back off of a single host.
+     */
+    private class HostState
+    {
+        private final Semaphore slots = new Semaphore(maxConcurrentPerHost, true);
+        private final TokenBucket bucket = new TokenBucket(requestsPerSecond, System.nanoTime());
+        private long blockedUntilNanos = System.nanoTime();
+        private long backOffMillis;
+
+        synchronized long getBlockedUntilNanos()
+        {
+            return blockedUntilNanos;
+        }
+
+        long reserveToken()
+        {
+            return bucket.reserve(System.nanoTime());
+        }
+
+        synchronized void backOff(Long retryAfterMillis)
+        {
+            long millis;
+            if (retryAfterMillis != null)
+            {
+                millis = retryAfterMillis;
+            }
+            else
+            {
+                backOffMillis = backOffMillis == 0 ? INITIAL_BACKOFF_MILLIS
+                        : Math.min(backOffMillis * 2, MAX_BACKOFF_MILLIS);
+                millis = backOffMillis;
+            }
+            blockedUntilNanos = Math.max(blockedUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        synchronized void resetBackOff()
+        {
+            backOffMillis = 0;
+        }
+    }
+
+    /**
+     * A token bucket which refills at the request rate and holds up to one second of tokens, so that a host can
+     * receive a short burst of requests before they are spaced out.
+     */
+    static class TokenBucket
+    {
+        private final double ratePerSecond;
+        private double tokens;
+        private long refilledNanos;
+
+        /**
+         * Create a new, full TokenBucket instance.
+         *
+         * @param ratePerSecond
+         *            The rate at which the bucket refills, or 0 for no limit.
+         * @param nowNanos
+         *            The current time in nanoseconds.
+         */
+        TokenBucket(double ratePerSecond, long nowNanos)
+        {
+            this.ratePerSecond = ratePerSecond;
+            this.tokens = Math.max(1.0, ratePerSecond);
+            this.refilledNanos = nowNanos;
+        }
+
+        /**
+         * Take a token from the bucket. The bucket may go into debt, so that waiting requests are queued in turn.
+         *
+         * @param nowNanos
+         *            The current time in nanoseconds.
+         * @return The time at which the token becomes available.
+         */
+        synchronized long reserve(long nowNanos)
+        {
+            if (ratePerSecond <= 0)
+            {
+                return nowNanos;
+            }
+            double capacity = Math.max(1.0, ratePerSecond);
+            tokens = Math.min(capacity, tokens + (nowNanos - refilledNanos) * ratePerSecond / NANOS_PER_SECOND);
+            refilledNanos = nowNanos;
+            tokens -= 1;
+            return tokens >= 0 ? nowNanos : nowNanos + (long) (-tokens / ratePerSecond * NANOS_PER_SECOND);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package au.csiro.casda.sodalint;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Sends requests over HTTP/2 where the server supports it. This is the Java 8 implementation, which has no HTTP/2
+ * client, so the {@link SodaHttpClient} always uses its HTTP/1.1 connection pool. The multi-release jar contains a
+ * Java 21 version of this class which uses the JDK http client.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public final class Http2Transport implements Closeable
+{
+    /**
+     * Create a new Http2Transport instance.
+     *
+     * @param connectTimeoutMillis
+     *            The time in milliseconds allowed to establish a connection.
+     * @param readTimeoutMillis
+     *            The time in milliseconds allowed to wait for the response headers.
+     * @param userAgent
+     *            The User-Agent header sent with each request.
+     */
+    public Http2Transport(int connectTimeoutMillis, int readTimeoutMillis, String userAgent)
+    {
+        throw new UnsupportedOperationException("HTTP/2 is not supported by this JVM");
+    }
+
+    /**
+     * @return True if this JVM can send requests over HTTP/2.
+     */
+    public static boolean isSupported()
+    {
+        return false;
+    }
+
+    /**
+     * Send a request and wait for the response headers. Aborting the request cancels the exchange.
+     *
+     * @param request
+     *            The request to be sent.
+     * @param followRedirects
+     *            True if redirects should be followed.
+     * @return The response, whose body is read as a stream. The caller must close the response.
+     * @throws IOException
+     *             If the request could not be completed.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, boolean followRedirects) throws IOException
+    {
+        throw new UnsupportedOperationException("HTTP/2 is not supported by this JVM");
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
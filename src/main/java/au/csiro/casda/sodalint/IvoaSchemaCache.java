@@ -0,0 +1,189 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The IVOA schemas used to validate VOSI documents, compiled once per JVM. The schemas are those shipped in the
+ * taplint package of the STILTS ttools library, which is already on the classpath. Imports between the schemas are
+ * resolved from the same copies by namespace, and access to external schemas is disabled, so the schemas can be
+ * compiled on a host with no network access. The compiled schema is thread safe and is shared by all
+ * stages and services; each validation creates its own cheap validator from it.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public final class IvoaSchemaCache
+{
+    /** The namespace of the VOSI capabilities document. */
+    public static final String CAPABILITIES_NAMESPACE = "http://www.ivoa.net/xml/VOSICapabilities/v1.0";
+
+    /** The namespace of the VOSI availability document. */
+    public static final String AVAILABILITY_NAMESPACE = "http://www.ivoa.net/xml/VOSIAvailability/v1.0";
+
+    private static final String SCHEMA_DIRECTORY = "/uk/ac/starlink/ttools/taplint/";
+
+    /** The taplint schema for each namespace, in the order they are compiled. */
+    private static final Map<String, String> SCHEMA_FILES;
+
+    static
+    {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("http://www.w3.org/1999/xlink", "xlink.xsd");
+        files.put("http://www.ivoa.net/xml/STC/stc-v1.30.xsd", "stc-v1.30.xsd");
+        files.put("http://www.ivoa.net/xml/VOResource/v1.0", "VOResource-v1.0.xsd");
+        files.put("http://www.ivoa.net/xml/VODataService/v1.0", "VODataService-v1.0.xsd");
+        files.put("http://www.ivoa.net/xml/VODataService/v1.1", "VODataService-v1.1.xsd");
+        files.put("http://www.ivoa.net/xml/TAPRegExt/v1.0", "TAPRegExt-v1.0-Erratum1.xsd");
+        files.put(CAPABILITIES_NAMESPACE, "VOSICapabilities-v1.0.xsd");
+        files.put(AVAILABILITY_NAMESPACE, "VOSIAvailability-v1.0.xsd");
+        SCHEMA_FILES = Collections.unmodifiableMap(files);
+    }
+
+    private static volatile Schema schema;
+
+    private IvoaSchemaCache()
+    {
+    }
+
+    /**
+     * Get the compiled schema, compiling it on first use.
+     *
+     * @return The schema covering all the namespaces.
+     * @throws SAXException
+     *             If the schemas cannot be found or compiled.
+     */
+    public static Schema getSchema() throws SAXException
+    {
+        Schema result = schema;
+        if (result == null)
+        {
+            synchronized (IvoaSchemaCache.class)
+            {
+                result = schema;
+                if (result == null)
+                {
+                    result = compile();
+                    schema = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Schema compile() throws SAXException
+    {
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        setPropertyIfSupported(factory, XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        setPropertyIfSupported(factory, XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar");
+        factory.setResourceResolver(new ClasspathSchemaResolver());
+
+        List<Source> sources = new ArrayList<>();
+        for (String file : SCHEMA_FILES.values())
+        {
+            URL url = getSchemaUrl(file);
+            sources.add(new StreamSource(url.toExternalForm()));
+        }
+        return factory.newSchema(sources.toArray(new Source[sources.size()]));
+    }
+
+    private static URL getSchemaUrl(String file) throws SAXException
+    {
+        URL url = IvoaSchemaCache.class.getResource(SCHEMA_DIRECTORY + file);
+        if (url == null)
+        {
+            throw new SAXException("Schema " + SCHEMA_DIRECTORY + file + " is missing from the classpath");
+        }
+        return url;
+    }
+
+    private static void setPropertyIfSupported(SchemaFactory factory, String name, String value)
+    {
+        try
+        {
+            factory.setProperty(name, value);
+        }
+        catch (SAXNotRecognizedException | SAXNotSupportedException e)
+        {
+            // Older schema factories do not restrict external access, but the resolver still serves the imports
+        }
+    }
+
+    /**
+     * Resolves schema imports to the taplint copy of the schema for the imported namespace.
+     */
+    private static class ClasspathSchemaResolver implements LSResourceResolver
+    {
+        private final DOMImplementationLS domImplementation;
+
+        ClasspathSchemaResolver() throws SAXException
+        {
+            try
+            {
+                domImplementation = (DOMImplementationLS) DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .getDOMImplementation();
+            }
+            catch (ParserConfigurationException | ClassCastException e)
+            {
+                throw new SAXException("Unable to create schema resolver", e);
+            }
+        }
+
+        @Override
+        public LSInput resolveResource(String type, String namespaceUri, String publicId, String systemId,
+                String baseUri)
+        {
+            String file = namespaceUri == null ? null : SCHEMA_FILES.get(namespaceUri);
+            if (file == null)
+            {
+                return null;
+            }
+            URL url = IvoaSchemaCache.class.getResource(SCHEMA_DIRECTORY + file);
+            try
+            {
+                InputStream in = url.openStream();
+                LSInput input = domImplementation.createLSInput();
+                input.setByteStream(in);
+                input.setSystemId(url.toExternalForm());
+                input.setPublicId(publicId);
+                return input;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                return null;
+            }
+        }
+    }
+}
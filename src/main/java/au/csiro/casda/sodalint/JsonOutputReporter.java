@@ -0,0 +1,307 @@
+package au.csiro.casda.sodalint;
+
+import java.io.PrintStream;
+import java.net.URL;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.ac.starlink.ttools.taplint.OutputReporter;
+import uk.ac.starlink.ttools.taplint.ReportCode;
+import uk.ac.starlink.ttools.taplint.ReportType;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Writes validation messages as newline delimited JSON, one record per message, as each message is reported. Each
+ * record holds the time it was reported, the service url, the code of the current stage, the message type, the
+ * message code and the message text, and the error if there is one. For example:
+ *
+ * <pre>
+ * {"timestamp":"2016-08-01T01:02:03.456Z","service":"https://example.com/soda","stage":"CAP","type":"ERROR",
+ *  "code":"E-CAP-CPRS","label":"CPRS","message":"Capabilities response contains no content"}
+ * </pre>
+ *
+ * As with the text reporter, once a code has been reported maxRepeat times in a stage further messages with that
+ * code are counted, and a SUMMARY record with the count is written at the end of the stage.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class JsonOutputReporter implements StreamingOutputReporter
+{
+    private final PrintStream out;
+    private final String serviceUrl;
+    private final Collection<ReportType> types;
+    private final int maxRepeat;
+    private final Map<String, Integer> reportCounts = new LinkedHashMap<>();
+    private String sectionCode;
+
+    /**
+     * Create a new JsonOutputReporter instance.
+     *
+     * @param out
+     *            The destination for the records.
+     * @param serviceUrl
+     *            The url of the service being validated.
+     * @param types
+     *            The message types which will be written.
+     * @param maxRepeat
+     *            The maximum number of a particular message that will be written in each stage.
+     */
+    public JsonOutputReporter(PrintStream out, URL serviceUrl, ReportType[] types, int maxRepeat)
+    {
+        this.out = out;
+        this.serviceUrl = serviceUrl == null ? null : serviceUrl.toString();
+        this.types = new HashSet<>(Arrays.asList(types));
+        this.maxRepeat = maxRepeat;
+    }
+
+    @Override
+    public synchronized void start(String[] announcements)
+    {
+        // Announcements are not messages, so are not written
+    }
+
+    @Override
+    public synchronized void end()
+    {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void startSection(String code, String description)
+    {
+        sectionCode = code;
+    }
+
+    @Override
+    public synchronized String getSectionCode()
+    {
+        return sectionCode;
+    }
+
+    @Override
+    public synchronized void summariseUnreportedMessages(String code)
+    {
+        writeSummaries(reportCounts, sectionCode);
+    }
+
+    /**
+     * Open a section whose records are written as soon as they are reported. Records are written to the output a
+     * whole line at a time, so sections of this and other reporters may share the output.
+     *
+     * @param code
+     *            The code of the section, e.g. the stage code.
+     * @param description
+     *            The description of the section.
+     * @return The reporter for the section.
+     */
+    @Override
+    public OutputReporter openSection(String code, String description)
+    {
+        return new SectionReporter(code);
+    }
+
+    @Override
+    public synchronized void endSection()
+    {
+        sectionCode = null;
+        out.flush();
+    }
+
+    @Override
+    public void report(ReportCode code, String message)
+    {
+        report(code, message, null);
+    }
+
+    @Override
+    public synchronized void report(ReportCode code, String message, Throwable err)
+    {
+        ReportType type = code.getType();
+        if (!types.contains(type))
+        {
+            return;
+        }
+
+        countAndWrite(reportCounts, sectionCode, code, message, err);
+    }
+
+    private void countAndWrite(Map<String, Integer> counts, String section, ReportCode code, String message,
+            Throwable err)
+    {
+        ReportType type = code.getType();
+        String fullCode = type.getChar() + "-" + (section == null ? "" : section) + "-" + code.getLabel();
+        Integer count = counts.get(fullCode);
+        int newCount = count == null ? 1 : count + 1;
+        counts.put(fullCode, newCount);
+        if (newCount <= maxRepeat)
+        {
+            writeRecord(type, section, fullCode, code.getLabel(), message, err);
+        }
+    }
+
+    private void writeSummaries(Map<String, Integer> counts, String section)
+    {
+        for (Map.Entry<String, Integer> entry : counts.entrySet())
+        {
+            int unreported = entry.getValue() - maxRepeat;
+            if (unreported > 0)
+            {
+                writeRecord(ReportType.SUMMARY, section, entry.getKey(), null,
+                        "Not reported " + unreported + " more " + entry.getKey() + " messages", null);
+            }
+        }
+        counts.clear();
+    }
+
+    private void writeRecord(ReportType type, String section, String fullCode, String label, String message,
+            Throwable err)
+    {
+        StringBuilder record = new StringBuilder();
+        record.append('{');
+        appendField(record, "timestamp", Instant.now().toString());
+        appendField(record, "service", serviceUrl);
+        appendField(record, "stage", section);
+        appendField(record, "type", type.name());
+        appendField(record, "code", fullCode);
+        appendField(record, "label", label);
+        appendField(record, "message", message);
+        appendField(record, "error", err == null ? null : err.toString());
+        record.append('}');
+        out.println(record);
+        out.flush();
+    }
+
+    static void appendField(StringBuilder record, String name, String value)
+    {
+        if (value == null)
+        {
+            return;
+        }
+        if (record.length() > 1)
+        {
+            record.append(',');
+        }
+        appendString(record, name);
+        record.append(':');
+        appendString(record, value);
+    }
+
+    static void appendString(StringBuilder record, String value)
+    {
+        final char lastControlChar = 0x1f;
+        record.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+            case '"':
+                record.append("\\\"");
+                break;
+            case '\\':
+                record.append("\\\\");
+                break;
+            case '\n':
+                record.append("\\n");
+                break;
+            case '\r':
+                record.append("\\r");
+                break;
+            case '\t':
+                record.append("\\t");
+                break;
+            default:
+                if (c <= lastControlChar)
+                {
+                    record.append(String.format("\\u%04x", (int) c));
+                }
+                else
+                {
+                    record.append(c);
+                }
+            }
+        }
+        record.append('"');
+    }
+
+    /**
+     * The reporter for a section which is written at the same time as other sections. It has its own repeat counts,
+     * and each of its records names the section.
+     */
+    private final class SectionReporter implements OutputReporter
+    {
+        private final String code;
+        private final Map<String, Integer> counts = new LinkedHashMap<>();
+
+        SectionReporter(String code)
+        {
+            this.code = code;
+        }
+
+        @Override
+        public void start(String[] announcements)
+        {
+            // The run has already been started by the enclosing reporter
+        }
+
+        @Override
+        public void end()
+        {
+            out.flush();
+        }
+
+        @Override
+        public void startSection(String sectionCode, String description)
+        {
+            // The section was started when it was opened
+        }
+
+        @Override
+        public String getSectionCode()
+        {
+            return code;
+        }
+
+        @Override
+        public synchronized void summariseUnreportedMessages(String sectionCode)
+        {
+            writeSummaries(counts, code);
+        }
+
+        @Override
+        public void endSection()
+        {
+            out.flush();
+        }
+
+        @Override
+        public void report(ReportCode reportCode, String message)
+        {
+            report(reportCode, message, null);
+        }
+
+        @Override
+        public synchronized void report(ReportCode reportCode, String message, Throwable err)
+        {
+            if (types.contains(reportCode.getType()))
+            {
+                countAndWrite(counts, code, reportCode, message, err);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package au.csiro.casda.sodalint;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A fixed size histogram of latencies in microseconds. Values below 128 are counted exactly, and larger values are
+ * counted in 64 buckets per power of two, so any recorded value is reported to within 1.6% of its true value while
+ * the histogram stays the same size however many values are recorded. The histogram is not thread safe; each thread
+ * should record into its own histogram and the histograms are then merged.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_COUNT = SUB_BUCKET_COUNT * 2;
+    private static final int MAX_SHIFT = Long.SIZE - 1 - SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = EXACT_COUNT + MAX_SHIFT * SUB_BUCKET_COUNT;
+    private static final double PERCENT = 100.0;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxValue;
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos
+     *            The latency in nanoseconds.
+     */
+    public void recordNanos(long nanos)
+    {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts[getIndex(micros)]++;
+        totalCount++;
+        maxValue = Math.max(maxValue, micros);
+    }
+
+    /**
+     * Add the values recorded in another histogram to this histogram.
+     *
+     * @param other
+     *            The histogram to be added.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * @return The largest latency recorded in microseconds.
+     */
+    public long getMaxMicros()
+    {
+        return maxValue;
+    }
+
+    /**
+     * Find the latency at or below which a percentage of the recorded latencies fall.
+     *
+     * @param percentile
+     *            The percentage, from 0 to 100.
+     * @return The latency in microseconds, or 0 if no values have been recorded.
+     */
+    public long getPercentileMicros(double percentile)
+    {
+        if (totalCount == 0)
+        {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / PERCENT * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts[i];
+            if (seen >= target)
+            {
+                return Math.min(getHighestValue(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * @param value
+     *            A latency in microseconds.
+     * @return The index of the bucket which counts the value.
+     */
+    static int getIndex(long value)
+    {
+        if (value < EXACT_COUNT)
+        {
+            return (int) value;
+        }
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - 1 - SUB_BUCKET_BITS;
+        return EXACT_COUNT + (shift - 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * @param index
+     *            The index of a bucket.
+     * @return The largest value counted by the bucket.
+     */
+    static long getHighestValue(int index)
+    {
+        if (index < EXACT_COUNT)
+        {
+            return index;
+        }
+        int shift = (index - EXACT_COUNT) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - EXACT_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,65 @@
+package au.csiro.casda.sodalint;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The settings of the sync endpoint load test. The test runs until either the request count or the duration is
+ * reached.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class LoadTestSettings
+{
+    /** The default number of concurrent clients. */
+    public static final int DEFAULT_CLIENTS = 4;
+
+    /** The default duration of the test in seconds. */
+    public static final int DEFAULT_DURATION_SECONDS = 30;
+
+    private int clients = DEFAULT_CLIENTS;
+    private int durationSeconds = DEFAULT_DURATION_SECONDS;
+    private int requestCount;
+
+    public int getClients()
+    {
+        return clients;
+    }
+
+    public void setClients(int clients)
+    {
+        this.clients = clients;
+    }
+
+    public int getDurationSeconds()
+    {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(int durationSeconds)
+    {
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * @return The number of requests to be made, or 0 if the test is only limited by its duration.
+     */
+    public int getRequestCount()
+    {
+        return requestCount;
+    }
+
+    public void setRequestCount(int requestCount)
+    {
+        this.requestCount = requestCount;
+    }
+}
@@ -0,0 +1,282 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Load test the sync endpoint. A number of clients repeatedly request a cutout of the test data product, or the
+ * service descriptor if no product id is supplied, until the request count or duration of the load test settings is
+ * reached. The latency of each request, including reading the body, is recorded and the throughput, latency
+ * percentiles and errors are reported. The latencies of successful and failed requests are reported separately, so
+ * fast failures such as throttled requests do not make the service look faster than it is.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class LoadTestSync implements SodaValidationTask
+{
+    private static final int BUFFER_SIZE = 65536;
+    private static final double MICROS_PER_MILLI = 1000.0;
+    private static final double NANOS_PER_SECOND = 1.0e9;
+    private static final double P50 = 50;
+    private static final double P90 = 90;
+    private static final double P99 = 99;
+
+    /** {@inheritDoc} */
+    @Override
+    public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
+    {
+        SodaCapability syncCapability = sodaService.getSyncCapability();
+        if (syncCapability == null)
+        {
+            reporter.report(SodaCode.I_SYNO, "No sync SODA endpoint to load test.");
+            return;
+        }
+
+        String address;
+        try
+        {
+            URL syncUrl = syncCapability.getAccessUrl();
+            if (StringUtils.isBlank(testDataProductId))
+            {
+                reporter.report(SodaCode.I_LOAD,
+                        "No test data product id supplied, so the service descriptor will be requested.");
+                address = syncUrl.toString();
+            }
+            else
+            {
+                address = ValidateSync.getCutoutAddress(sodaService, syncUrl, testDataProductId);
+            }
+        }
+        catch (MalformedURLException | URISyntaxException e)
+        {
+            reporter.report(SodaCode.E_SYUR, "Invalid sync interface access URL: ", e);
+            return;
+        }
+
+        LoadTestSettings settings = sodaService.getLoadTestSettings();
+        String limit = settings.getRequestCount() > 0 ? settings.getRequestCount() + " requests or " : "";
+        int maxPerHost = sodaService.getHttpClient().getGovernor().getMaxConcurrentPerHost();
+        String concurrency =
+                maxPerHost < settings.getClients() ? " (limited by maxperhost to " + maxPerHost + " at once)" : "";
+        reporter.report(SodaCode.I_VURL, "Load testing " + address + " with " + settings.getClients() + " clients"
+                + concurrency + " for " + limit + settings.getDurationSeconds() + " seconds");
+
+        runLoadTest(reporter, sodaService, address, settings);
+    }
+
+    private void runLoadTest(Reporter reporter, SodaService sodaService, String address, LoadTestSettings settings)
+    {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(settings.getDurationSeconds());
+        AtomicLong remaining =
+                new AtomicLong(settings.getRequestCount() > 0 ? settings.getRequestCount() : Long.MAX_VALUE);
+
+        ExecutorService executor =
+                ThreadFactories.newExecutor("sodalint-load-", settings.getClients(), sodaService.isVirtualThreads());
+        LoadClient total = new LoadClient(sodaService.getHttpClient(), address, deadline, remaining);
+        // The clients join the stage's scope so that cancelling the stage also aborts their requests
+        final CancellationScope scope = CancellationScope.current();
+        try
+        {
+            List<Future<LoadClient>> clients = new ArrayList<>();
+            for (int i = 0; i < settings.getClients(); i++)
+            {
+                LoadClient client = new LoadClient(sodaService.getHttpClient(), address, deadline, remaining);
+                clients.add(executor.submit(() -> client.callInScope(scope)));
+            }
+            for (Future<LoadClient> client : clients)
+            {
+                total.add(client.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            reporter.report(SodaCode.E_LDER, "Load test interrupted");
+            return;
+        }
+        catch (ExecutionException e)
+        {
+            reporter.report(SodaCode.F_CODE, "Load test failed: ", e.getCause());
+            return;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        reportResults(reporter, total, System.nanoTime() - start);
+    }
+
+    private void reportResults(Reporter reporter, LoadClient total, long elapsedNanos)
+    {
+        LatencyHistogram histogram = total.histogram;
+        long requests = histogram.getTotalCount() + total.failureHistogram.getTotalCount();
+        double seconds = elapsedNanos / NANOS_PER_SECOND;
+        reporter.report(SodaCode.I_LOAD,
+                String.format("%d requests in %.1f s, %.1f requests/s, %d bytes read%s", requests, seconds,
+                        requests / seconds, total.bytes,
+                        total.protocols.isEmpty() ? "" : " over " + StringUtils.join(total.protocols, ", ")));
+        if (histogram.getTotalCount() > 0)
+        {
+            reporter.report(SodaCode.I_LOAD, "Latency ms of " + histogram.getTotalCount() + " successful requests: "
+                    + formatLatency(histogram));
+        }
+        if (total.failureHistogram.getTotalCount() > 0)
+        {
+            reporter.report(SodaCode.I_LOAD, "Latency ms of " + total.failureHistogram.getTotalCount()
+                    + " failed requests: " + formatLatency(total.failureHistogram));
+        }
+        for (Map.Entry<String, Long> error : total.errors.entrySet())
+        {
+            reporter.report(SodaCode.E_LDER,
+                    error.getValue() + " of " + requests + " requests failed with " + error.getKey());
+        }
+    }
+
+    private static String formatLatency(LatencyHistogram histogram)
+    {
+        return String.format("p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+                histogram.getPercentileMicros(P50) / MICROS_PER_MILLI,
+                histogram.getPercentileMicros(P90) / MICROS_PER_MILLI,
+                histogram.getPercentileMicros(P99) / MICROS_PER_MILLI, histogram.getMaxMicros() / MICROS_PER_MILLI);
+    }
+
+    /**
+     * A client which makes requests one after the other until the test ends, recording its own results so that no
+     * state is shared with the other clients apart from the remaining request count.
+     */
+    private static class LoadClient
+    {
+        private final SodaHttpClient httpClient;
+        private final String address;
+        private final long deadline;
+        private final AtomicLong remaining;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LatencyHistogram failureHistogram = new LatencyHistogram();
+        private final Map<String, Long> errors = new TreeMap<>();
+        private final Set<String> protocols = new TreeSet<>();
+        private long bytes;
+
+        LoadClient(SodaHttpClient httpClient, String address, long deadline, AtomicLong remaining)
+        {
+            this.httpClient = httpClient;
+            this.address = address;
+            this.deadline = deadline;
+            this.remaining = remaining;
+        }
+
+        LoadClient callInScope(CancellationScope scope)
+        {
+            if (scope == null)
+            {
+                return call();
+            }
+            scope.enter();
+            try
+            {
+                return call();
+            }
+            finally
+            {
+                scope.exit();
+            }
+        }
+
+        LoadClient call()
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (System.nanoTime() < deadline && remaining.getAndDecrement() > 0
+                    && !Thread.currentThread().isInterrupted())
+            {
+                long start = System.nanoTime();
+                String error = request(buffer);
+                if (error == null)
+                {
+                    histogram.recordNanos(System.nanoTime() - start);
+                }
+                else
+                {
+                    // Failures such as throttled requests are often answered straight away, so they are kept out
+                    // of the latencies of the successful requests
+                    failureHistogram.recordNanos(System.nanoTime() - start);
+                    Long count = errors.get(error);
+                    errors.put(error, count == null ? 1 : count + 1);
+                }
+            }
+            return this;
+        }
+
+        private String request(byte[] buffer)
+        {
+            final int statusCodeOk = 200;
+            try (CloseableHttpResponse response = httpClient.execute(new HttpGet(address)))
+            {
+                protocols.add(SodaHttpClient.getProtocol(response));
+                HttpEntity entity = response.getEntity();
+                if (entity != null)
+                {
+                    try (InputStream content = entity.getContent())
+                    {
+                        for (int count = content.read(buffer); count >= 0; count = content.read(buffer))
+                        {
+                            bytes += count;
+                        }
+                    }
+                }
+                int statusCode = response.getStatusLine().getStatusCode();
+                return statusCode == statusCodeOk ? null : "http status " + statusCode;
+            }
+            catch (IOException e)
+            {
+                return e.getClass().getSimpleName();
+            }
+        }
+
+        void add(LoadClient other)
+        {
+            histogram.add(other.histogram);
+            failureHistogram.add(other.failureHistogram);
+            bytes += other.bytes;
+            protocols.addAll(other.protocols);
+            for (Map.Entry<String, Long> error : other.errors.entrySet())
+            {
+                Long count = errors.get(error.getKey());
+                errors.put(error.getKey(), count == null ? error.getValue() : count + error.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package au.csiro.casda.sodalint;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Counts the messages reported across a fleet of services in a fixed amount of memory, so that the most common
+ * problems can be listed once the fleet has been validated. Messages are counted by their full code, e.g.
+ * E-CAP-CPRS, and their text with the urls and numbers replaced, so the same problem on different services is
+ * counted together. A few exemplar services are kept for each message.
+ * <p>
+ * The counts are held in a space saving sketch with a fixed number of counters. When every counter is in use, a new
+ * message takes over the counter with the lowest count and adds one to it. The count of a message may therefore be
+ * over estimated by at most the count it took over, which is reported with it, but any message reported more often
+ * than the total number of messages divided by the number of counters is always kept.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class MessageAggregator
+{
+    /** The default number of distinct messages counted. */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /** The default number of exemplar services kept for each message. */
+    public static final int DEFAULT_EXEMPLARS = 3;
+
+    private static final int MAX_MESSAGE_LENGTH = 200;
+
+    private static final Pattern URL_PATTERN = Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]*://[^\\s\"'<>]+");
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("[-+]?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+
+    private static final Pattern SPACE_PATTERN = Pattern.compile("\\s+");
+
+    private static final Comparator<MessageCount> BY_COUNT =
+            Comparator.comparingLong(MessageCount::getCount).thenComparingLong(counter -> counter.sequence);
+
+    private final int capacity;
+    private final int maxExemplars;
+    private final Map<String, MessageCount> counters = new HashMap<>();
+    private final TreeSet<MessageCount> countOrder = new TreeSet<>(BY_COUNT);
+    private long sequence;
+    private long totalMessages;
+    private long serviceCount;
+
+    /**
+     * Create a new MessageAggregator instance with the default capacity.
+     */
+    public MessageAggregator()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_EXEMPLARS);
+    }
+
+    /**
+     * Create a new MessageAggregator instance.
+     *
+     * @param capacity
+     *            The number of distinct messages which can be counted.
+     * @param maxExemplars
+     *            The number of exemplar services kept for each message.
+     */
+    public MessageAggregator(int capacity, int maxExemplars)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.maxExemplars = Math.max(0, maxExemplars);
+    }
+
+    /**
+     * Normalise a message so that the same problem reported by different services has the same text. Urls are
+     * replaced with &lt;url&gt;, numbers with #, runs of white space with a single space, and long messages are
+     * truncated.
+     *
+     * @param message
+     *            The message text.
+     * @return The normalised message.
+     */
+    public static String normalise(String message)
+    {
+        if (message == null)
+        {
+            return "";
+        }
+        String text = URL_PATTERN.matcher(message).replaceAll("<url>");
+        text = NUMBER_PATTERN.matcher(text).replaceAll("#");
+        text = SPACE_PATTERN.matcher(text).replaceAll(" ").trim();
+        return text.length() > MAX_MESSAGE_LENGTH ? text.substring(0, MAX_MESSAGE_LENGTH) + "..." : text;
+    }
+
+    /**
+     * Record that a service has been validated.
+     */
+    public synchronized void serviceCompleted()
+    {
+        serviceCount++;
+    }
+
+    /**
+     * Count a message reported for a service.
+     *
+     * @param code
+     *            The full code of the message, e.g. E-CAP-CPRS.
+     * @param message
+     *            The text of the message.
+     * @param serviceUrl
+     *            The url of the service which reported it.
+     */
+    public synchronized void add(String code, String message, String serviceUrl)
+    {
+        totalMessages++;
+        String normalised = normalise(message);
+        String key = code + ' ' + normalised;
+        MessageCount counter = counters.get(key);
+        if (counter == null)
+        {
+            long overcount = 0;
+            if (counters.size() >= capacity)
+            {
+                MessageCount smallest = countOrder.pollFirst();
+                counters.remove(smallest.key);
+                overcount = smallest.count;
+            }
+            counter = new MessageCount(key, code, normalised, overcount);
+            counters.put(key, counter);
+        }
+        else
+        {
+            countOrder.remove(counter);
+        }
+        counter.count++;
+        counter.sequence = sequence++;
+        if (serviceUrl != null && counter.exemplars.size() < maxExemplars)
+        {
+            counter.exemplars.add(serviceUrl);
+        }
+        countOrder.add(counter);
+    }
+
+    public synchronized long getServiceCount()
+    {
+        return serviceCount;
+    }
+
+    /**
+     * @return The number of messages counted, including those whose counters have since been taken over.
+     */
+    public synchronized long getTotalMessages()
+    {
+        return totalMessages;
+    }
+
+    /**
+     * @param limit
+     *            The maximum number of messages to be returned.
+     * @return Copies of the counts of the most common messages, most common first.
+     */
+    public synchronized List<MessageCount> getTopMessages(int limit)
+    {
+        List<MessageCount> top = new ArrayList<>();
+        for (MessageCount counter : countOrder.descendingSet())
+        {
+            if (top.size() >= limit)
+            {
+                break;
+            }
+            top.add(counter.copy());
+        }
+        return top;
+    }
+
+    /**
+     * Write the most common messages in a report format. Text is written as a section listing each message with its
+     * count and exemplar services. JSON is written as one SUMMARY record per message.
+     *
+     * @param out
+     *            The destination for the summary.
+     * @param format
+     *            The format of the report.
+     * @param limit
+     *            The maximum number of messages to be written.
+     */
+    public void writeSummary(PrintStream out, ReportFormat format, int limit)
+    {
+        List<MessageCount> top = getTopMessages(limit);
+        if (format == ReportFormat.JSON)
+        {
+            String timestamp = Instant.now().toString();
+            for (MessageCount counter : top)
+            {
+                StringBuilder record = new StringBuilder();
+                record.append('{');
+                JsonOutputReporter.appendField(record, "timestamp", timestamp);
+                JsonOutputReporter.appendField(record, "type", "SUMMARY");
+                JsonOutputReporter.appendField(record, "code", counter.getCode());
+                JsonOutputReporter.appendField(record, "message", counter.getMessage());
+                record.append(",\"count\":").append(counter.getCount());
+                record.append(",\"overcount\":").append(counter.getMaxOvercount());
+                record.append(",\"services\":[");
+                for (int i = 0; i < counter.getExemplars().size(); i++)
+                {
+                    record.append(i > 0 ? "," : "");
+                    JsonOutputReporter.appendString(record, counter.getExemplars().get(i));
+                }
+                record.append("]}");
+                out.println(record);
+            }
+        }
+        else
+        {
+            out.println("Most common messages across " + getServiceCount() + " services (" + getTotalMessages()
+                    + " messages):");
+            for (MessageCount counter : top)
+            {
+                out.println(String.format("%8d %s %s", counter.getCount(), counter.getCode(), counter.getMessage())
+                        + (counter.getMaxOvercount() > 0 ? " (may be over by " + counter.getMaxOvercount() + ")" : ""));
+                if (!counter.getExemplars().isEmpty())
+                {
+                    out.println("         e.g. " + String.join(", ", counter.getExemplars()));
+                }
+            }
+            out.println();
+        }
+        out.flush();
+    }
+
+    /**
+     * The count of a single normalised message.
+     */
+    public static final class MessageCount
+    {
+        private final String key;
+        private final String code;
+        private final String message;
+        private final long maxOvercount;
+        private final Set<String> exemplars = new LinkedHashSet<>();
+        private long count;
+        private long sequence;
+
+        MessageCount(String key, String code, String message, long maxOvercount)
+        {
+            this.key = key;
+            this.code = code;
+            this.message = message;
+            this.maxOvercount = maxOvercount;
+            this.count = maxOvercount;
+        }
+
+        MessageCount copy()
+        {
+            MessageCount copy = new MessageCount(key, code, message, maxOvercount);
+            copy.exemplars.addAll(exemplars);
+            copy.count = count;
+            copy.sequence = sequence;
+            return copy;
+        }
+
+        /**
+         * @return The full code of the message, e.g. E-CAP-CPRS.
+         */
+        public String getCode()
+        {
+            return code;
+        }
+
+        /**
+         * @return The normalised text of the message.
+         */
+        public String getMessage()
+        {
+            return message;
+        }
+
+        /**
+         * @return The number of times the message was reported, which may be over estimated by up to the max
+         *         overcount.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return The count taken over from another message when this message was first counted, which is the most
+         *         its count may be over estimated by.
+         */
+        public long getMaxOvercount()
+        {
+            return maxOvercount;
+        }
+
+        /**
+         * @return The first services to report the message since it was last counted from scratch.
+         */
+        public List<String> getExemplars()
+        {
+            return Collections.unmodifiableList(new ArrayList<>(exemplars));
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package au.csiro.casda.sodalint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Monitors a fleet of SODA services from a single long running JVM. Each service is validated on its own interval,
+ * with the first runs of the services spread evenly across their intervals so that the load on the linter and the
+ * services stays level. Each run is moved by a random jitter, which is not carried into the schedule so the runs do
+ * not drift. A service is never validated twice at once: if a run takes longer than the interval, the runs it
+ * overlapped are skipped and the service is next validated at its following slot.
+ * <p>
+ * Each JSON record is written to the output as soon as it is reported, while the text report of a run is written as
+ * a single block once the run has completed.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class MonitorDaemon
+{
+    /** The default number of seconds between runs for a service. */
+    public static final int DEFAULT_INTERVAL_SECONDS = 300;
+
+    /** The default jitter, as a percentage of the interval. */
+    public static final int DEFAULT_JITTER_PERCENT = 10;
+
+    private static final double PERCENT = 100.0;
+
+    private static final String CHARSET_UTF_8 = "UTF-8";
+
+    private final FleetRunner fleetRunner;
+    private final int defaultIntervalSeconds;
+    private final double jitterFraction;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Destination for the report of each run.
+     */
+    public interface Output
+    {
+        /**
+         * Write the report of a run.
+         *
+         * @param block
+         *            The report.
+         * @throws IOException
+         *             If the report cannot be written.
+         */
+        void write(String block) throws IOException;
+    }
+
+    /**
+     * Create a new MonitorDaemon instance.
+     *
+     * @param fleetRunner
+     *            The runner used to validate each service, which also sets the report format and the maximum number
+     *            of services validated at once.
+     * @param defaultIntervalSeconds
+     *            The number of seconds between runs for services which do not have their own interval.
+     * @param jitterPercent
+     *            The largest amount each run may be moved earlier or later, as a percentage of the interval.
+     */
+    public MonitorDaemon(FleetRunner fleetRunner, int defaultIntervalSeconds, int jitterPercent)
+    {
+        this.fleetRunner = fleetRunner;
+        this.defaultIntervalSeconds = defaultIntervalSeconds;
+        this.jitterFraction = jitterPercent / PERCENT;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactories.newThreadFactory("sodalint-monitor-schedule-", false));
+        this.workers = fleetRunner.createExecutor("sodalint-monitor-");
+    }
+
+    /**
+     * Start monitoring the services. Runs continue until {@link #stop()} is called.
+     *
+     * @param services
+     *            The services to be monitored.
+     * @param defaultStageCodes
+     *            The codes of the stages to be run for services which do not list their own stages.
+     * @param output
+     *            The destination for the report of each run.
+     */
+    public void start(List<FleetEntry> services, Set<String> defaultStageCodes, Output output)
+    {
+        long now = System.nanoTime();
+        int count = services.size();
+        for (int i = 0; i < count; i++)
+        {
+            FleetEntry service = services.get(i);
+            int intervalSeconds =
+                    service.getIntervalSeconds() > 0 ? service.getIntervalSeconds() : defaultIntervalSeconds;
+            Set<String> stageCodes = service.getStageCodes() != null ? service.getStageCodes() : defaultStageCodes;
+            MonitoredService monitored = new MonitoredService(service, stageCodes,
+                    TimeUnit.SECONDS.toNanos(intervalSeconds), output);
+            monitored.schedule(now + (long) ((double) monitored.intervalNanos * i / count));
+        }
+    }
+
+    /**
+     * Wait until the monitor is stopped.
+     *
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting.
+     */
+    public void awaitStop() throws InterruptedException
+    {
+        stopped.await();
+    }
+
+    /**
+     * Stop monitoring, abandoning any runs in progress.
+     */
+    public void stop()
+    {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        stopped.countDown();
+    }
+
+    /**
+     * A service being monitored, which reschedules itself at the end of each run.
+     */
+    private class MonitoredService
+    {
+        private final FleetEntry service;
+        private final Set<String> stageCodes;
+        private final long intervalNanos;
+        private final Output output;
+        private long slot;
+
+        MonitoredService(FleetEntry service, Set<String> stageCodes, long intervalNanos, Output output)
+        {
+            this.service = service;
+            this.stageCodes = stageCodes;
+            this.intervalNanos = intervalNanos;
+            this.output = output;
+        }
+
+        void schedule(long nextSlot)
+        {
+            slot = nextSlot;
+            long jitter = (long) (ThreadLocalRandom.current().nextDouble(-1, 1) * jitterFraction * intervalNanos);
+            long delay = Math.max(0, slot + jitter - System.nanoTime());
+            try
+            {
+                scheduler.schedule(() -> workers.execute(this::run), delay, TimeUnit.NANOSECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // The monitor has been stopped
+            }
+        }
+
+        private void run()
+        {
+            try
+            {
+                if (fleetRunner.getFormat() == ReportFormat.TEXT)
+                {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream ps = new PrintStream(buffer, false, CHARSET_UTF_8);
+                    ps.println("Run started: " + Instant.now());
+                    fleetRunner.validateService(service, stageCodes, ps, null);
+                    output.write(buffer.toString(CHARSET_UTF_8));
+                }
+                else
+                {
+                    PrintStream ps = new PrintStream(new RecordOutputStream(output), false, CHARSET_UTF_8);
+                    fleetRunner.validateService(service, stageCodes, ps, null);
+                    if (ps.checkError())
+                    {
+                        throw new IOException("Some records could not be written");
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                System.err.println("Unable to write the report for " + service.getServiceUrl() + ": " + e);
+            }
+
+            schedule(getNextSlot(slot, intervalNanos, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Find the slot for the next run of a service, skipping any slots which passed while the last run was in progress
+     * so that a slow run does not cause a burst of runs to catch up.
+     *
+     * @param slot
+     *            The slot of the last run, in nanoseconds.
+     * @param intervalNanos
+     *            The interval between runs in nanoseconds.
+     * @param now
+     *            The current time in nanoseconds.
+     * @return The first slot after the last one which has not yet passed.
+     */
+    static long getNextSlot(long slot, long intervalNanos, long now)
+    {
+        long nextSlot = slot + intervalNanos;
+        if (nextSlot < now)
+        {
+            nextSlot += (now - nextSlot) / intervalNanos * intervalNanos + intervalNanos;
+        }
+        return nextSlot;
+    }
+
+    /**
+     * Passes each record written by a JSON reporter to the output as soon as it has been written. The reporter
+     * flushes after each record, so everything written since the last flush is one record. The print stream writing
+     * to it must not flush automatically, as that would pass on the record and its line end separately.
+     */
+    private static final class RecordOutputStream extends OutputStream
+    {
+        private final Output output;
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+        RecordOutputStream(Output output)
+        {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            record.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            record.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (record.size() > 0)
+            {
+                output.write(record.toString(CHARSET_UTF_8));
+                record.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package au.csiro.casda.sodalint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.starlink.ttools.taplint.ReportCode;
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A reporter which passes messages on to another reporter while recording them, so that they can be stored as the
+ * verdict of a stage. Request timings are passed on but not recorded, as they only apply to the current run.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class RecordingReporter implements Reporter
+{
+    private final Reporter reporter;
+    private final List<String[]> reports = new ArrayList<>();
+
+    /**
+     * Create a new RecordingReporter instance.
+     *
+     * @param reporter
+     *            The reporter to pass messages on to.
+     */
+    public RecordingReporter(Reporter reporter)
+    {
+        this.reporter = reporter;
+    }
+
+    @Override
+    public void report(ReportCode code, String message)
+    {
+        report(code, message, null);
+    }
+
+    @Override
+    public synchronized void report(ReportCode code, String message, Throwable err)
+    {
+        reporter.report(code, message, err);
+        if (code == SodaCode.I_HTTP)
+        {
+            return;
+        }
+        String text = err == null ? message : message + " " + err;
+        reports.add(new String[] { String.valueOf(code.getType().getChar()), code.getLabel(), text });
+    }
+
+    /**
+     * Build a verdict from the messages recorded so far.
+     *
+     * @param facts
+     *            The facts derived by the stage.
+     * @return The verdict.
+     */
+    public synchronized StageVerdict getVerdict(Map<String, String> facts)
+    {
+        return new StageVerdict(reports, facts);
+    }
+}
@@ -0,0 +1,72 @@
+package au.csiro.casda.sodalint;
+
+import java.io.PrintStream;
+import java.net.URL;
+
+import uk.ac.starlink.ttools.taplint.OutputReporter;
+import uk.ac.starlink.ttools.taplint.ReportType;
+import uk.ac.starlink.ttools.taplint.TextOutputReporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The formats in which validation reports can be written.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public enum ReportFormat
+{
+    /** Human readable text, as written by taplint. */
+    TEXT,
+    /** Newline delimited JSON, one record per message. */
+    JSON;
+
+    /**
+     * Create a reporter which writes all message types in this format.
+     *
+     * @param out
+     *            The destination for the report.
+     * @param serviceUrl
+     *            The url of the service being validated.
+     * @param maxRepeat
+     *            The maximum number of a particular message that will be output.
+     * @param maxLineLen
+     *            The maximum line length that will be output, only used for text reports.
+     * @return The new reporter.
+     */
+    public OutputReporter createReporter(PrintStream out, URL serviceUrl, int maxRepeat, int maxLineLen)
+    {
+        if (this == JSON)
+        {
+            return new JsonOutputReporter(out, serviceUrl, ReportType.values(), maxRepeat);
+        }
+        return new TextOutputReporter(out, ReportType.values(), maxRepeat, false, maxLineLen);
+    }
+
+    /**
+     * @param name
+     *            The name of a format, in any case.
+     * @return The matching format, or null if the name is not a known format.
+     */
+    public static ReportFormat forName(String name)
+    {
+        for (ReportFormat format : values())
+        {
+            if (format.name().equalsIgnoreCase(name))
+            {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,317 @@
+package au.csiro.casda.sodalint;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The timing of a single http request. The phases are recorded by the thread making the request, and the timing is
+ * only read by other threads once the request has completed.
+ * <p>
+ * The queued time is the time spent waiting for the {@link HostGovernor} to allow the request to be sent. The DNS and
+ * connect times are zero when a pooled connection was reused. The connect time includes any TLS handshake. The time
+ * to first byte is the time spent waiting for the response headers once connected, and the download time is the time
+ * spent reading the response body. Requests sent over the HTTP/2 transport do not expose the DNS and connect phases,
+ * so for them the time to first byte includes any connection setup. The body size is the size after any
+ * decompression, with the number of bytes actually transferred recorded separately for a compressed body.
+ * <p>
+ * A request which fails, for example because it timed out, is timed up to the failure, and the error is recorded
+ * with the phases it reached.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class RequestTiming
+{
+    private final String method;
+    private final String address;
+    private final long startNanos;
+    private long queuedNanos;
+    private long dnsNanos;
+    private long connectNanos;
+    private long headersNanos;
+    private long endNanos;
+    private long bytes;
+    private String contentEncoding;
+    private long encodedBytes;
+    private int statusCode;
+    private String protocol;
+    private boolean connectionTimed = true;
+    private String error;
+
+    /**
+     * Create a new RequestTiming instance for a GET request, starting the timer.
+     *
+     * @param address
+     *            The address being requested.
+     */
+    public RequestTiming(String address)
+    {
+        this("GET", address);
+    }
+
+    /**
+     * Create a new RequestTiming instance, starting the timer.
+     *
+     * @param method
+     *            The http method of the request, e.g. POST.
+     * @param address
+     *            The address being requested.
+     */
+    public RequestTiming(String method, String address)
+    {
+        this.method = method;
+        this.address = address;
+        this.startNanos = System.nanoTime();
+    }
+
+    void addQueuedNanos(long nanos)
+    {
+        queuedNanos += nanos;
+    }
+
+    void addDnsNanos(long nanos)
+    {
+        dnsNanos += nanos;
+    }
+
+    void addConnectNanos(long nanos)
+    {
+        connectNanos += nanos;
+    }
+
+    void contentEncoded(String encoding)
+    {
+        contentEncoding = encoding;
+    }
+
+    void addEncodedBytes(long count)
+    {
+        encodedBytes += count;
+    }
+
+    void connectionNotTimed()
+    {
+        connectionTimed = false;
+    }
+
+    void headersReceived(int statusCode, String protocol)
+    {
+        this.statusCode = statusCode;
+        this.protocol = protocol;
+        headersNanos = System.nanoTime();
+    }
+
+    void bodyRead(long bytes)
+    {
+        this.bytes = bytes;
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Record that the request failed, stopping the timer.
+     *
+     * @param cause
+     *            The reason the request failed.
+     */
+    void failed(Exception cause)
+    {
+        error = cause.getMessage() == null ? cause.getClass().getSimpleName()
+                : cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        endNanos = System.nanoTime();
+    }
+
+    public String getAddress()
+    {
+        return address;
+    }
+
+    /**
+     * @return The status code of the response, or 0 if the request failed before the response headers were received.
+     */
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    /**
+     * @return A description of the reason the request failed, or null if it completed.
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    public boolean isFailed()
+    {
+        return error != null;
+    }
+
+    /**
+     * @return The protocol the response was received over, e.g. HTTP/1.1 or HTTP/2.
+     */
+    public String getProtocol()
+    {
+        return protocol;
+    }
+
+    /**
+     * @return The number of body bytes received.
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * @return The content coding the body was compressed with in transfer, e.g. gzip, or null if it was not
+     *         compressed.
+     */
+    public String getContentEncoding()
+    {
+        return contentEncoding;
+    }
+
+    /**
+     * @return The number of body bytes transferred, which is less than the number received if the body was
+     *         compressed.
+     */
+    public long getTransferredBytes()
+    {
+        return contentEncoding == null ? bytes : encodedBytes;
+    }
+
+    /**
+     * @return The number of body bytes received for each byte transferred, which is 1 if the body was not compressed.
+     */
+    public double getCompressionRatio()
+    {
+        long transferred = getTransferredBytes();
+        return transferred == 0 ? 1.0 : (double) bytes / transferred;
+    }
+
+    /**
+     * @return The time in milliseconds the request waited before it could be sent to the host.
+     */
+    public long getQueuedMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(queuedNanos);
+    }
+
+    public long getDnsMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(dnsNanos);
+    }
+
+    public long getConnectMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(connectNanos);
+    }
+
+    /**
+     * @return True if the DNS and connect times were measured. If not, they are included in the time to first byte.
+     */
+    public boolean isConnectionTimed()
+    {
+        return connectionTimed;
+    }
+
+    /**
+     * @return True if the request was sent over a pooled connection which was already open.
+     */
+    public boolean isConnectionReused()
+    {
+        return connectionTimed && dnsNanos == 0 && connectNanos == 0;
+    }
+
+    /**
+     * @return The time in milliseconds from being connected to receiving the response headers.
+     */
+    public long getTimeToFirstByteMillis()
+    {
+        if (headersNanos == 0)
+        {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS
+                .toMillis(Math.max(0, headersNanos - startNanos - queuedNanos - dnsNanos - connectNanos));
+    }
+
+    public long getDownloadMillis()
+    {
+        if (headersNanos == 0)
+        {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, endNanos - headersNanos));
+    }
+
+    /**
+     * @return The total time in milliseconds taken by the request.
+     */
+    public long getTotalMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, endNanos - startNanos));
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(' ').append(address);
+        if (headersNanos == 0 && error != null)
+        {
+            sb.append(" failed");
+        }
+        else
+        {
+            sb.append(" returned ").append(statusCode);
+        }
+        if (protocol != null)
+        {
+            sb.append(" over ").append(protocol);
+        }
+        sb.append(" in ").append(getTotalMillis()).append(" ms: ");
+        if (getQueuedMillis() > 0)
+        {
+            sb.append("queued ").append(getQueuedMillis()).append(" ms, ");
+        }
+        if (!connectionTimed)
+        {
+            sb.append("connection not timed");
+        }
+        else if (isConnectionReused())
+        {
+            sb.append("reused connection");
+        }
+        else
+        {
+            sb.append("dns ").append(getDnsMillis()).append(" ms, connect ").append(getConnectMillis()).append(" ms");
+        }
+        if (headersNanos == 0)
+        {
+            sb.append(", no response: ").append(error);
+            return sb.toString();
+        }
+        sb.append(", ttfb ").append(getTimeToFirstByteMillis()).append(" ms, download ").append(getDownloadMillis())
+                .append(" ms, ").append(bytes).append(" bytes");
+        if (contentEncoding != null)
+        {
+            sb.append(" (").append(encodedBytes).append(" bytes ").append(contentEncoding).append(')');
+        }
+        if (error != null)
+        {
+            sb.append(", then failed: ").append(error);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,324 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A cache of the responses to GET requests made during a single validation run. Each distinct address is requested
+ * once, and stages asking for the same address at the same time wait for the one request to finish. Failures to
+ * read a response are cached as well, so every stage sees the same result, except for a request abandoned because
+ * the stage making it was cancelled, which is left for the next stage to make again.
+ * <p>
+ * Each request is timed and recorded in the service timings, and its timing is reported to the stage which made it.
+ * Requests which fail or time out are timed and reported too, along with the error.
+ * Documents are requested with gzip or deflate compression, and the stage is told whether the endpoint compressed
+ * the document and how much the transfer was reduced by.
+ * <p>
+ * If a revalidation cache is supplied, documents seen in earlier runs are requested conditionally. A not modified
+ * response is served from the cached copy, and the verdicts stages recorded for that copy can be replayed.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ResponseCache
+{
+    private final ConcurrentMap<String, CompletableFuture<CachedResponse>> responses = new ConcurrentHashMap<>();
+    private final SodaHttpClient httpClient;
+    private final ServiceTimings timings;
+    private final RevalidationCache revalidationCache;
+    private final ConcurrentMap<String, RevalidationEntry> revalidationEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new ResponseCache instance.
+     *
+     * @param httpClient
+     *            The client used to request addresses which are not yet cached.
+     * @param timings
+     *            The destination for the timings of the requests made.
+     */
+    public ResponseCache(SodaHttpClient httpClient, ServiceTimings timings)
+    {
+        this(httpClient, timings, null);
+    }
+
+    /**
+     * Create a new ResponseCache instance.
+     *
+     * @param httpClient
+     *            The client used to request addresses which are not yet cached.
+     * @param timings
+     *            The destination for the timings of the requests made.
+     * @param revalidationCache
+     *            The cache of documents from earlier runs, or null if documents are always requested in full.
+     */
+    public ResponseCache(SodaHttpClient httpClient, ServiceTimings timings, RevalidationCache revalidationCache)
+    {
+        this.httpClient = httpClient;
+        this.timings = timings;
+        this.revalidationCache = revalidationCache;
+    }
+
+    /**
+     * Retrieve the response for an address, requesting it if this is the first time it has been asked for.
+     *
+     * @param address
+     *            The address to be retrieved.
+     * @param reporter
+     *            The destination for the timing of the request if this call makes it, may be null.
+     * @return The response, which may have any status code.
+     * @throws IOException
+     *             If the response could not be read.
+     */
+    public CachedResponse getResponse(String address, Reporter reporter) throws IOException
+    {
+        while (true)
+        {
+            CompletableFuture<CachedResponse> newEntry = new CompletableFuture<>();
+            CompletableFuture<CachedResponse> entry = responses.putIfAbsent(address, newEntry);
+            if (entry == null)
+            {
+                entry = newEntry;
+                try
+                {
+                    newEntry.complete(fetch(address, reporter));
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    if (isCallerCancelled())
+                    {
+                        // The failure belongs to this caller, not the service, so the next caller fetches again
+                        responses.remove(address, newEntry);
+                    }
+                    newEntry.completeExceptionally(e);
+                }
+            }
+
+            try
+            {
+                return entry.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + address);
+            }
+            catch (ExecutionException e)
+            {
+                if (entry != newEntry && responses.get(address) != entry && !isCallerCancelled())
+                {
+                    // The stage fetching the address was cancelled, so fetch it for this stage instead
+                    continue;
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+                throw (RuntimeException) cause;
+            }
+        }
+    }
+
+    /**
+     * Retrieve the verdict a stage recorded for a document in an earlier run, if the document has not changed since.
+     * The document is requested if it has not already been requested in this run.
+     *
+     * @param address
+     *            The address of the document.
+     * @param stageCode
+     *            The code of the stage.
+     * @param reporter
+     *            The destination for the timing of the request if this call makes it.
+     * @return The verdict to be replayed, or null if the stage needs to check the document.
+     */
+    public StageVerdict getCachedVerdict(String address, String stageCode, Reporter reporter)
+    {
+        if (revalidationCache == null)
+        {
+            return null;
+        }
+        try
+        {
+            getResponse(address, reporter);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        RevalidationEntry entry = revalidationEntries.get(address);
+        StageVerdict verdict = entry == null ? null : entry.getVerdict(stageCode);
+        if (verdict != null)
+        {
+            String validator = entry.getEtag() != null ? "ETag " + entry.getEtag()
+                    : "Last-Modified " + entry.getLastModified();
+            reporter.report(SodaCode.I_CACH, address + " is unchanged (" + validator
+                    + "), replaying the results of the previous check");
+        }
+        return verdict;
+    }
+
+    /**
+     * Record the verdict of a stage for the document at an address, so it can be replayed by later runs if the
+     * document does not change. Nothing is recorded if the document cannot be revalidated.
+     *
+     * @param address
+     *            The address of the document.
+     * @param stageCode
+     *            The code of the stage.
+     * @param verdict
+     *            The verdict of the stage.
+     */
+    public void storeVerdict(String address, String stageCode, StageVerdict verdict)
+    {
+        RevalidationEntry entry = revalidationEntries.get(address);
+        if (entry != null)
+        {
+            entry.putVerdict(stageCode, verdict);
+            revalidationCache.store(entry);
+        }
+    }
+
+    private CachedResponse fetch(String address, Reporter reporter) throws IOException
+    {
+        RevalidationEntry previous = revalidationCache == null ? null : revalidationCache.load(address);
+        HttpGet request = new HttpGet(address);
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, SodaHttpClient.ACCEPT_ENCODING);
+        if (previous != null)
+        {
+            if (previous.getEtag() != null)
+            {
+                request.addHeader("If-None-Match", previous.getEtag());
+            }
+            if (previous.getLastModified() != null)
+            {
+                request.addHeader("If-Modified-Since", previous.getLastModified());
+            }
+        }
+
+        RequestTiming timing = new RequestTiming(address);
+        boolean recorded = false;
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request, timing))
+        {
+            StatusLine statusLine = httpResponse.getStatusLine();
+            HttpEntity entity = httpResponse.getEntity();
+            ContentType contentType = null;
+            byte[] body = null;
+            if (entity != null)
+            {
+                contentType = ContentType.getOrDefault(entity);
+                body = EntityUtils.toByteArray(entity);
+            }
+            timing.bodyRead(body == null ? 0 : body.length);
+            recordTiming(reporter, timing);
+            recorded = true;
+
+            final int statusCodeOk = 200;
+            final int statusCodeNotModified = 304;
+            if (reporter != null && statusLine.getStatusCode() == statusCodeOk && body != null && body.length > 0)
+            {
+                reportCompression(reporter, timing);
+            }
+            if (previous != null && statusLine.getStatusCode() == statusCodeNotModified)
+            {
+                revalidationEntries.put(address, previous);
+                ContentType cachedType =
+                        previous.getContentType() == null ? null : ContentType.parse(previous.getContentType());
+                return new CachedResponse(statusCodeOk, "OK", httpResponse.getAllHeaders(), cachedType,
+                        previous.getBody());
+            }
+            if (revalidationCache != null)
+            {
+                updateRevalidationCache(address, httpResponse, contentType, body, previous != null);
+            }
+            return new CachedResponse(statusLine.getStatusCode(), statusLine.getReasonPhrase(),
+                    httpResponse.getAllHeaders(), contentType, body);
+        }
+        catch (IOException e)
+        {
+            if (!recorded)
+            {
+                timing.failed(e);
+                recordTiming(reporter, timing);
+            }
+            throw e;
+        }
+    }
+
+    private void recordTiming(Reporter reporter, RequestTiming timing)
+    {
+        timings.recordRequest(timing);
+        if (reporter != null)
+        {
+            reporter.report(SodaCode.I_HTTP, timing.toString());
+        }
+    }
+
+    private static void reportCompression(Reporter reporter, RequestTiming timing)
+    {
+        if (timing.getContentEncoding() == null)
+        {
+            reporter.report(SodaCode.I_CMPR, timing.getAddress() + " does not support compressed transfer, "
+                    + timing.getBytes() + " bytes were sent uncompressed");
+        }
+        else
+        {
+            reporter.report(SodaCode.I_CMPR,
+                    String.format("%s supports %s compressed transfer, %d bytes were sent as %d (ratio %.1f)",
+                            timing.getAddress(), timing.getContentEncoding(), timing.getBytes(),
+                            timing.getTransferredBytes(), timing.getCompressionRatio()));
+        }
+    }
+
+    private void updateRevalidationCache(String address, CloseableHttpResponse httpResponse, ContentType contentType,
+            byte[] body, boolean wasCached)
+    {
+        final int statusCodeOk = 200;
+        Header etag = httpResponse.getFirstHeader("ETag");
+        Header lastModified = httpResponse.getFirstHeader("Last-Modified");
+        if (httpResponse.getStatusLine().getStatusCode() == statusCodeOk && body != null
+                && (etag != null || lastModified != null))
+        {
+            RevalidationEntry entry = new RevalidationEntry(address, etag == null ? null : etag.getValue(),
+                    lastModified == null ? null : lastModified.getValue(),
+                    contentType == null ? null : contentType.toString(), body);
+            revalidationEntries.put(address, entry);
+            revalidationCache.store(entry);
+        }
+        else if (wasCached)
+        {
+            revalidationCache.remove(address);
+        }
+    }
+
+    private static boolean isCallerCancelled()
+    {
+        CancellationScope scope = CancellationScope.current();
+        return scope != null && scope.isCancelled();
+    }
+}
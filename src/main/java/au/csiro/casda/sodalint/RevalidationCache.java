@@ -0,0 +1,248 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * An on disk cache of documents which had an ETag or Last-Modified header, along with the verdicts of the stages
+ * which checked them. Later runs send conditional requests for the cached documents, and when a document has not
+ * changed the stages replay their verdicts instead of checking it again.
+ * <p>
+ * Each document is held in a single properties file named after a hash of its address, holding the validators, the
+ * verdicts, the content and the version of the linter which wrote it. The file is replaced atomically, so a cache
+ * directory can be shared by concurrent runs. Entries written by another version of the linter are treated as a
+ * cache miss, as its checks may differ, as are problems reading or writing the cache.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class RevalidationCache
+{
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String VERDICT_PREFIX = "verdict.";
+
+    private final Path directory;
+    private final String linterVersion;
+
+    /**
+     * Create a new RevalidationCache instance.
+     *
+     * @param directory
+     *            The directory holding the cache, which is created if needed.
+     * @throws IOException
+     *             If the directory cannot be created.
+     */
+    public RevalidationCache(Path directory) throws IOException
+    {
+        this(directory, SodaLinter.getSodaLintVersion());
+    }
+
+    /**
+     * Create a new RevalidationCache instance for a particular version of the linter.
+     *
+     * @param directory
+     *            The directory holding the cache, which is created if needed.
+     * @param linterVersion
+     *            The version of the linter whose verdicts are cached.
+     * @throws IOException
+     *             If the directory cannot be created.
+     */
+    RevalidationCache(Path directory, String linterVersion) throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+        this.linterVersion = linterVersion;
+    }
+
+    /**
+     * Read the cached entry for an address.
+     *
+     * @param address
+     *            The address of the document.
+     * @return The entry, or null if the address is not cached or the entry cannot be read.
+     */
+    public synchronized RevalidationEntry load(String address)
+    {
+        Path entryFile = directory.resolve(getFileName(address) + ENTRY_SUFFIX);
+        if (!Files.isRegularFile(entryFile))
+        {
+            return null;
+        }
+
+        try
+        {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(entryFile))
+            {
+                props.load(in);
+            }
+            if (!address.equals(props.getProperty("address"))
+                    || !linterVersion.equals(props.getProperty("linterVersion")))
+            {
+                return null;
+            }
+            RevalidationEntry entry = new RevalidationEntry(address, props.getProperty("etag"),
+                    props.getProperty("lastModified"), props.getProperty("contentType"),
+                    Base64.getDecoder().decode(props.getProperty("body", "")));
+            for (String stageCode : props.getProperty("stages", "").split(","))
+            {
+                if (!stageCode.isEmpty())
+                {
+                    entry.putVerdict(stageCode, readVerdict(props, VERDICT_PREFIX + stageCode + "."));
+                }
+            }
+            return entry;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Write an entry to the cache, replacing any previous entry for its address.
+     *
+     * @param entry
+     *            The entry to be written.
+     */
+    public synchronized void store(RevalidationEntry entry)
+    {
+        Properties props = new Properties();
+        props.setProperty("address", entry.getAddress());
+        props.setProperty("linterVersion", linterVersion);
+        setIfPresent(props, "etag", entry.getEtag());
+        setIfPresent(props, "lastModified", entry.getLastModified());
+        setIfPresent(props, "contentType", entry.getContentType());
+        StringBuilder stages = new StringBuilder();
+        for (Map.Entry<String, StageVerdict> verdict : entry.getVerdicts().entrySet())
+        {
+            stages.append(stages.length() > 0 ? "," : "").append(verdict.getKey());
+            writeVerdict(props, VERDICT_PREFIX + verdict.getKey() + ".", verdict.getValue());
+        }
+        props.setProperty("stages", stages.toString());
+        props.setProperty("body", Base64.getEncoder().encodeToString(entry.getBody()));
+
+        String name = getFileName(entry.getAddress());
+        try
+        {
+            Path tempFile = Files.createTempFile(directory, name, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile))
+            {
+                props.store(out, entry.getAddress());
+            }
+            Files.move(tempFile, directory.resolve(name + ENTRY_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write revalidation cache entry for " + entry.getAddress() + ": " + e);
+        }
+    }
+
+    /**
+     * Remove the entry for an address, used when a document no longer has validators.
+     *
+     * @param address
+     *            The address of the document.
+     */
+    public synchronized void remove(String address)
+    {
+        try
+        {
+            Files.deleteIfExists(directory.resolve(getFileName(address) + ENTRY_SUFFIX));
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to remove revalidation cache entry for " + address + ": " + e);
+        }
+    }
+
+    private static StageVerdict readVerdict(Properties props, String prefix)
+    {
+        List<String[]> reports = new ArrayList<>();
+        int count = Integer.parseInt(props.getProperty(prefix + "count", "0"));
+        for (int i = 0; i < count; i++)
+        {
+            String reportPrefix = prefix + "report." + i + ".";
+            reports.add(new String[] { props.getProperty(reportPrefix + "type"),
+                    props.getProperty(reportPrefix + "label"), props.getProperty(reportPrefix + "message") });
+        }
+        Map<String, String> facts = new LinkedHashMap<>();
+        String factPrefix = prefix + "fact.";
+        for (String key : props.stringPropertyNames())
+        {
+            if (key.startsWith(factPrefix))
+            {
+                facts.put(key.substring(factPrefix.length()), props.getProperty(key));
+            }
+        }
+        return new StageVerdict(reports, facts);
+    }
+
+    private static void writeVerdict(Properties props, String prefix, StageVerdict verdict)
+    {
+        List<String[]> reports = verdict.getReports();
+        props.setProperty(prefix + "count", String.valueOf(reports.size()));
+        for (int i = 0; i < reports.size(); i++)
+        {
+            String reportPrefix = prefix + "report." + i + ".";
+            props.setProperty(reportPrefix + "type", reports.get(i)[0]);
+            props.setProperty(reportPrefix + "label", reports.get(i)[1]);
+            props.setProperty(reportPrefix + "message", reports.get(i)[2]);
+        }
+        for (Map.Entry<String, String> fact : verdict.getFacts().entrySet())
+        {
+            props.setProperty(prefix + "fact." + fact.getKey(), fact.getValue());
+        }
+    }
+
+    private static void setIfPresent(Properties props, String key, String value)
+    {
+        if (value != null)
+        {
+            props.setProperty(key, value);
+        }
+    }
+
+    private static String getFileName(String address)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(address.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest)
+            {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // SHA-256 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package au.csiro.casda.sodalint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A document held in the revalidation cache, with the validators used to check whether it has changed and the
+ * verdicts of the stages which checked it.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class RevalidationEntry
+{
+    private final String address;
+    private final String etag;
+    private final String lastModified;
+    private final String contentType;
+    private final byte[] body;
+    private final Map<String, StageVerdict> verdicts = new LinkedHashMap<>();
+
+    /**
+     * Create a new RevalidationEntry instance.
+     *
+     * @param address
+     *            The address of the document.
+     * @param etag
+     *            The ETag of the document, may be null.
+     * @param lastModified
+     *            The Last-Modified date of the document, may be null.
+     * @param contentType
+     *            The content type of the document, may be null.
+     * @param body
+     *            The content of the document.
+     */
+    public RevalidationEntry(String address, String etag, String lastModified, String contentType, byte[] body)
+    {
+        this.address = address;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    public String getAddress()
+    {
+        return address;
+    }
+
+    public String getEtag()
+    {
+        return etag;
+    }
+
+    public String getLastModified()
+    {
+        return lastModified;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public byte[] getBody()
+    {
+        return body;
+    }
+
+    /**
+     * @param stageCode
+     *            The code of the stage.
+     * @return The verdict of the stage, or null if the stage has not checked this version of the document.
+     */
+    public synchronized StageVerdict getVerdict(String stageCode)
+    {
+        return verdicts.get(stageCode);
+    }
+
+    /**
+     * @param stageCode
+     *            The code of the stage.
+     * @param verdict
+     *            The verdict of the stage for this version of the document.
+     */
+    public synchronized void putVerdict(String stageCode, StageVerdict verdict)
+    {
+        verdicts.put(stageCode, verdict);
+    }
+
+    /**
+     * @return A copy of the verdicts, keyed by stage code.
+     */
+    public synchronized Map<String, StageVerdict> getVerdicts()
+    {
+        return new LinkedHashMap<>(verdicts);
+    }
+}
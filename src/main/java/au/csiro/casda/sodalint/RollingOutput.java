@@ -0,0 +1,127 @@
+package au.csiro.casda.sodalint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A log file which is rolled over when it reaches a size limit, so a long running monitor uses a bounded amount of
+ * disk. When the file is full it is renamed with a .1 suffix, older files move up one suffix and the oldest is
+ * deleted. Each block of output is written whole, so a report is never split across files.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class RollingOutput implements Closeable
+{
+    /** The default size in bytes at which the file is rolled over. */
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+
+    /** The default number of rolled over files which are kept. */
+    public static final int DEFAULT_MAX_BACKUPS = 5;
+
+    private final Path file;
+    private final long maxBytes;
+    private final int maxBackups;
+    private OutputStream out;
+    private long size;
+
+    /**
+     * Create a new RollingOutput instance, appending to the file if it already exists.
+     *
+     * @param file
+     *            The file to be written.
+     * @param maxBytes
+     *            The size at which the file is rolled over.
+     * @param maxBackups
+     *            The number of rolled over files to keep.
+     * @throws IOException
+     *             If the file cannot be opened.
+     */
+    public RollingOutput(Path file, long maxBytes, int maxBackups) throws IOException
+    {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxBackups = maxBackups;
+        open();
+    }
+
+    /**
+     * Write a block of output, rolling the file over first if the block would take it past the size limit.
+     *
+     * @param block
+     *            The text to be written.
+     * @throws IOException
+     *             If the file cannot be written or rolled over.
+     */
+    public synchronized void write(String block) throws IOException
+    {
+        byte[] bytes = block.getBytes(StandardCharsets.UTF_8);
+        if (size > 0 && size + bytes.length > maxBytes)
+        {
+            roll();
+        }
+        out.write(bytes);
+        out.flush();
+        size += bytes.length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        out.close();
+    }
+
+    private void open() throws IOException
+    {
+        out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(file);
+    }
+
+    private void roll() throws IOException
+    {
+        out.close();
+        Files.deleteIfExists(getBackup(maxBackups));
+        for (int i = maxBackups - 1; i >= 1; i--)
+        {
+            Path backup = getBackup(i);
+            if (Files.exists(backup))
+            {
+                Files.move(backup, getBackup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxBackups > 0)
+        {
+            Files.move(file, getBackup(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        else
+        {
+            Files.delete(file);
+        }
+        open();
+    }
+
+    private Path getBackup(int index)
+    {
+        Path parent = file.toAbsolutePath().getParent();
+        String name = file.getFileName() + "." + index;
+        return parent == null ? Paths.get(name) : parent.resolve(name);
+    }
+}
@@ -0,0 +1,182 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.validation.Validator;
+
+import org.apache.http.HttpStatus;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import uk.ac.starlink.ttools.taplint.FixedCode;
+import uk.ac.starlink.ttools.taplint.Reporter;
+import uk.ac.starlink.ttools.taplint.ReporterErrorHandler;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates a VOSI document against the schemas held by the {@link IvoaSchemaCache}. The document is read through the
+ * service's {@link ResponseCache}, so it is shared with the other stages, and it is checked to have the expected
+ * top-level element. The reports follow those of the taplint XsdStage.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class SchemaDocumentValidator
+{
+    private final String topElementNamespace;
+    private final String topElementName;
+    private final boolean mandatory;
+
+    /**
+     * Create a new SchemaDocumentValidator instance.
+     *
+     * @param topElementNamespace
+     *            The namespace of the required top-level element.
+     * @param topElementName
+     *            The local name of the required top-level element.
+     * @param mandatory
+     *            True if the document must be present.
+     */
+    public SchemaDocumentValidator(String topElementNamespace, String topElementName, boolean mandatory)
+    {
+        this.topElementNamespace = topElementNamespace;
+        this.topElementName = topElementName;
+        this.mandatory = mandatory;
+    }
+
+    /**
+     * Retrieve the document and validate it, reporting any problems found.
+     *
+     * @param reporter
+     *            The destination for the results of the validation.
+     * @param responseCache
+     *            The cache of the service's responses.
+     * @param address
+     *            The address of the document.
+     */
+    public void validate(Reporter reporter, ResponseCache responseCache, String address)
+    {
+        reporter.report(FixedCode.I_VURL, "Validating " + address + " as " + topElementName + " ("
+                + topElementNamespace + ")");
+
+        CachedResponse response;
+        try
+        {
+            response = responseCache.getResponse(address, reporter);
+        }
+        catch (IOException e)
+        {
+            reporter.report(FixedCode.E_DCER, "Error reading document", e);
+            return;
+        }
+        if (response.getStatusCode() == HttpStatus.SC_NOT_FOUND || response.getEntity() == null)
+        {
+            if (mandatory)
+            {
+                reporter.report(FixedCode.E_GONM, "Mandatory resource " + address + " not present");
+            }
+            else
+            {
+                reporter.report(FixedCode.W_GONO, "Optional resource " + address + " not present");
+            }
+            return;
+        }
+        if (response.getStatusCode() != HttpStatus.SC_OK)
+        {
+            reporter.report(FixedCode.E_DCER, "Error reading document: " + response.getStatusCode() + " "
+                    + response.getReasonPhrase());
+            return;
+        }
+
+        Validator validator;
+        try
+        {
+            validator = IvoaSchemaCache.getSchema().newValidator();
+        }
+        catch (SAXException e)
+        {
+            reporter.report(FixedCode.F_XVAL, "Can't prepare validator", e);
+            return;
+        }
+        setPropertyIfSupported(validator, XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        setPropertyIfSupported(validator, XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        ReporterErrorHandler errorHandler = new ReporterErrorHandler(reporter);
+        validator.setErrorHandler(errorHandler);
+        TopElementHandler topHandler = new TopElementHandler();
+
+        try (InputStream in = response.getEntity().getContent())
+        {
+            InputSource inputSource = new InputSource(in);
+            inputSource.setSystemId(address);
+            validator.validate(new SAXSource(inputSource), new SAXResult(topHandler));
+            if (topHandler.namespace != null && !(topElementNamespace.equals(topHandler.namespace)
+                    && topElementName.equals(topHandler.localName)))
+            {
+                reporter.report(FixedCode.E_ELDF, "Wrong top-level element: {" + topHandler.namespace + "}"
+                        + topHandler.localName + " != {" + topElementNamespace + "}" + topElementName);
+            }
+            reporter.report(FixedCode.S_VALI, errorHandler.getSummary());
+        }
+        catch (IOException e)
+        {
+            reporter.report(FixedCode.E_IOER, "Error reading document to parse", e);
+        }
+        catch (SAXException e)
+        {
+            // Fatal parse errors have already been reported by the error handler
+            if (errorHandler.getFatalCount() == 0)
+            {
+                reporter.report(FixedCode.F_SXER, "Unexpected document parse error", e);
+            }
+        }
+    }
+
+    private static void setPropertyIfSupported(Validator validator, String name, String value)
+    {
+        try
+        {
+            validator.setProperty(name, value);
+        }
+        catch (SAXNotRecognizedException | SAXNotSupportedException e)
+        {
+            // Older validators do not restrict external access
+        }
+    }
+
+    /**
+     * Records the name of the top-level element of a document.
+     */
+    private static class TopElementHandler extends DefaultHandler
+    {
+        private String namespace;
+        private String localName;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts)
+        {
+            if (namespace == null)
+            {
+                this.namespace = uri == null ? "" : uri;
+                this.localName = localName;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package au.csiro.casda.sodalint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The timings recorded while validating a SODA service: the wall time of each stage and the timing of each http
+ * request made. Stages record their timings from their own threads.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ServiceTimings
+{
+    private final Map<Stage, Long> stageMillis = new EnumMap<>(Stage.class);
+    private final List<RequestTiming> requestTimings = new ArrayList<>();
+
+    /**
+     * Record the wall time of a stage.
+     *
+     * @param stage
+     *            The stage which was run.
+     * @param millis
+     *            The time in milliseconds the stage took.
+     */
+    public synchronized void recordStage(Stage stage, long millis)
+    {
+        stageMillis.put(stage, millis);
+    }
+
+    /**
+     * Record the timing of a completed http request.
+     *
+     * @param timing
+     *            The request timing.
+     */
+    public synchronized void recordRequest(RequestTiming timing)
+    {
+        requestTimings.add(timing);
+    }
+
+    /**
+     * @return A copy of the wall time in milliseconds of each stage which has been run, in stage order.
+     */
+    public synchronized Map<Stage, Long> getStageMillis()
+    {
+        return Collections.unmodifiableMap(new EnumMap<>(stageMillis));
+    }
+
+    /**
+     * @return A copy of the timings of the requests made, in the order they completed.
+     */
+    public synchronized List<RequestTiming> getRequestTimings()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(requestTimings));
+    }
+}
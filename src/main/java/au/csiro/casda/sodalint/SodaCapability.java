@@ -0,0 +1,80 @@
+package au.csiro.casda.sodalint;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The facts about a single capability element of a capabilities document which are needed by the validation stages.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class SodaCapability
+{
+    private final String standardId;
+    private final int interfaceCount;
+    private final String accessUrl;
+
+    /**
+     * Create a new SodaCapability instance.
+     *
+     * @param standardId
+     *            The standardID attribute of the capability, may be null.
+     * @param interfaceCount
+     *            The number of interface elements in the capability.
+     * @param accessUrl
+     *            The text of the first interface accessURL in the capability, or null if there is none.
+     */
+    public SodaCapability(String standardId, int interfaceCount, String accessUrl)
+    {
+        this.standardId = standardId;
+        this.interfaceCount = interfaceCount;
+        this.accessUrl = accessUrl;
+    }
+
+    public String getStandardId()
+    {
+        return standardId;
+    }
+
+    public int getInterfaceCount()
+    {
+        return interfaceCount;
+    }
+
+    /**
+     * @return The text of the first interface accessURL in the capability, or null if there is none.
+     */
+    public String getAccessUrlText()
+    {
+        return accessUrl;
+    }
+
+    /**
+     * Retrieve the interface access url for the capability. If the capability has multiple interface access URLs then
+     * only the first will be returned.
+     *
+     * @return The interface access URL.
+     * @throws MalformedURLException
+     *             If the interface access url is missing or is not a valid URL
+     */
+    public URL getAccessUrl() throws MalformedURLException
+    {
+        if (accessUrl == null)
+        {
+            throw new MalformedURLException("No interface accessURL listed for " + standardId);
+        }
+        return new URL(accessUrl);
+    }
+}
@@ -28,9 +28,35 @@ public enum SodaCode implements ReportCode
     I_ASNO,
     /** Report the URL being tested */
     I_VURL,
+    /** Report the wall time of a stage */
+    I_TIME,
+    /** Report the timing of a http request */
+    I_HTTP,
+    /** Report whether a document was compressed in transfer */
+    I_CMPR,
+    /** Report that the results of a previous check are being replayed */
+    I_CACH,
+    /** No test data product to request a sync cutout of */
+    I_SYNI,
+    /** Report the sync cutout which was read */
+    I_SYCU,
+    /** Report the results of the sync load test */
+    I_LOAD,
+    /** No test data product to run an async job with */
+    I_ASNI,
+    /** Report the progress of an async job */
+    I_ASJB,
+    /** No parameter values from which to build cutout requests */
+    I_CXNO,
+    /** Report the results of the cutout parameter exercise */
+    I_CXSM,
+    /** Report one of the slowest cutouts of the parameter exercise */
+    I_CXSL,
 
     /** Unsupported standard filter parameter. */
     W_SDSP,
+    /** Async job could not be deleted */
+    W_ASJD,
     
     /** No SODA endpoint found */
     E_CPEP(),
@@ -42,10 +68,26 @@ public enum SodaCode implements ReportCode
     E_SYUR,
     /** Invalid sync content */
     E_SYCO,
+    /** Sync cutout request failed */
+    E_SYCU,
+    /** Sync cutout has an unexpected content type */
+    E_SYCT,
+    /** Sync cutout is not a valid FITS file */
+    E_SYFH,
     /** Invalid async URL */
     E_ASUR,
     /** Invalid async content */
     E_ASCO, 
+    /** Async job could not be created */
+    E_ASJC,
+    /** Async job could not be read or was in an unexpected phase */
+    E_ASJP,
+    /** Async job did not finish in time */
+    E_ASJT,
+    /** Async job did not complete successfully */
+    E_ASJE,
+    /** Async job results could not be read */
+    E_ASJR,
     /** No service descriptor resource */
     E_SDNO, 
     /** Invalid  service descriptor */
@@ -55,6 +97,13 @@ public enum SodaCode implements ReportCode
     /** Invalid param */
     E_SDIP,
     
+    /** A cutout request failed during the parameter exercise */
+    E_CXFL,
+    /** Requests failed during the sync load test */
+    E_LDER,
+    /** A stage was cancelled or not run because a deadline was reached */
+    E_DDLN,
+    
     /** A fatal error indicating a problem in the validator code. */
     F_CODE;
 
@@ -0,0 +1,896 @@
+package au.csiro.casda.sodalint;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.ProtocolException;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.RedirectException;
+import org.apache.http.client.RedirectStrategy;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.RedirectLocations;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The http client used for all requests made while validating SODA services. Connections are pooled and kept alive
+ * per host, and TLS sessions are reused, so validating many endpoints on the same archive host does not repeat the
+ * connection handshakes. One instance should be shared for the life of the application and closed at the end.
+ * <p>
+ * Name resolution and connection setup are timed, so that a request made with a {@link RequestTiming} can report
+ * where its time was spent. As both happen on the thread executing the request, the timing of the current request
+ * is held in a thread local while it is executed.
+ * <p>
+ * Each request has a deadline for the whole exchange, including reading the body, after which it is aborted. This
+ * catches servers which trickle a response slowly enough to never trip the read timeout. Requests are also registered
+ * with the {@link CancellationScope} of the calling thread, so that cancelling a stage aborts its requests.
+ * <p>
+ * Before it is sent, each request waits for a permit from the {@link HostGovernor}, which limits the concurrency and
+ * rate of requests to each host and backs off when a host throttles. The permit is held until the response body has
+ * been read or the response closed, and the time spent waiting counts towards the request's deadline. Redirects are
+ * followed one hop at a time, so each hop waits for a permit to its own host and stays guarded until its response is
+ * done with.
+ * <p>
+ * Bodies sent with gzip or deflate content coding are decompressed as they are read, and the compressed bytes
+ * received are counted in the request's timing. Requests only ask for compression by adding an Accept-Encoding
+ * header, such as {@link #ACCEPT_ENCODING}, as compressing large binary cutouts gains little.
+ * <p>
+ * Requests can optionally be sent through an {@link Http2Transport} instead of the HTTP/1.1 connection pool, so that
+ * concurrent requests to a host which supports HTTP/2 share one multiplexed connection. This needs Java 21 or later.
+ * The transport does not expose name resolution and connection setup, so those requests are not split into phases.
+ * The protocol of each response is recorded in its timing.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class SodaHttpClient implements Closeable
+{
+    /** The default maximum number of pooled connections. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    /** The default maximum number of pooled connections to a single host. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+
+    /** The default time in milliseconds allowed to establish a connection. */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+    /** The default time in milliseconds allowed between packets when reading a response. */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+    /** The default time in milliseconds allowed for a whole request, including reading the response. */
+    public static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 300000;
+
+    /** The content codings which can be decompressed, for use in an Accept-Encoding header. */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final long IDLE_CONNECTION_SECONDS = 30;
+    private static final String USER_AGENT = "sodalint";
+    private static final String GUARD_ATTRIBUTE = "sodalint.request-guard";
+
+    private static final RedirectStrategy REDIRECT_STRATEGY = DefaultRedirectStrategy.INSTANCE;
+
+    private static final ThreadLocal<RequestTiming> CURRENT_TIMING = new ThreadLocal<>();
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final RequestConfig requestConfig;
+    private final CloseableHttpClient httpClient;
+    private final int requestTimeoutMillis;
+    private final ScheduledThreadPoolExecutor deadlineTimer;
+    private final HostGovernor governor;
+    private final Http2Transport http2Transport;
+    private final ContentDecodingInterceptor contentDecoder = new ContentDecodingInterceptor();
+    private final GuardEntityInterceptor guardInterceptor = new GuardEntityInterceptor();
+
+    /**
+     * Create a new SodaHttpClient instance with the default pool size and timeouts.
+     */
+    public SodaHttpClient()
+    {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a new SodaHttpClient instance.
+     *
+     * @param maxConnections
+     *            The maximum number of pooled connections.
+     * @param maxConnectionsPerHost
+     *            The maximum number of pooled connections to a single host.
+     * @param connectTimeoutMillis
+     *            The time in milliseconds allowed to establish a connection.
+     * @param readTimeoutMillis
+     *            The time in milliseconds allowed between packets when reading a response.
+     */
+    public SodaHttpClient(int maxConnections, int maxConnectionsPerHost, int connectTimeoutMillis,
+            int readTimeoutMillis)
+    {
+        this(maxConnections, maxConnectionsPerHost, connectTimeoutMillis, readTimeoutMillis,
+                DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a new SodaHttpClient instance.
+     *
+     * @param maxConnections
+     *            The maximum number of pooled connections.
+     * @param maxConnectionsPerHost
+     *            The maximum number of pooled connections to a single host.
+     * @param connectTimeoutMillis
+     *            The time in milliseconds allowed to establish a connection.
+     * @param readTimeoutMillis
+     *            The time in milliseconds allowed between packets when reading a response.
+     * @param requestTimeoutMillis
+     *            The time in milliseconds allowed for a whole request including reading the response, or 0 for no
+     *            limit.
+     */
+    public SodaHttpClient(int maxConnections, int maxConnectionsPerHost, int connectTimeoutMillis,
+            int readTimeoutMillis, int requestTimeoutMillis)
+    {
+        this(maxConnections, maxConnectionsPerHost, connectTimeoutMillis, readTimeoutMillis, requestTimeoutMillis,
+                new HostGovernor(Math.min(maxConnections, maxConnectionsPerHost), 0));
+    }
+
+    /**
+     * Create a new SodaHttpClient instance.
+     *
+     * @param maxConnections
+     *            The maximum number of pooled connections.
+     * @param maxConnectionsPerHost
+     *            The maximum number of pooled connections to a single host.
+     * @param connectTimeoutMillis
+     *            The time in milliseconds allowed to establish a connection.
+     * @param readTimeoutMillis
+     *            The time in milliseconds allowed between packets when reading a response.
+     * @param requestTimeoutMillis
+     *            The time in milliseconds allowed for a whole request including reading the response, or 0 for no
+     *            limit.
+     * @param governor
+     *            The governor of the requests sent to each host.
+     */
+    public SodaHttpClient(int maxConnections, int maxConnectionsPerHost, int connectTimeoutMillis,
+            int readTimeoutMillis, int requestTimeoutMillis, HostGovernor governor)
+    {
+        this(maxConnections, maxConnectionsPerHost, connectTimeoutMillis, readTimeoutMillis, requestTimeoutMillis,
+                governor, false);
+    }
+
+    /**
+     * Create a new SodaHttpClient instance.
+     *
+     * @param maxConnections
+     *            The maximum number of pooled connections.
+     * @param maxConnectionsPerHost
+     *            The maximum number of pooled connections to a single host.
+     * @param connectTimeoutMillis
+     *            The time in milliseconds allowed to establish a connection.
+     * @param readTimeoutMillis
+     *            The time in milliseconds allowed between packets when reading a response. Over HTTP/2 this is the
+     *            time allowed to wait for the response headers.
+     * @param requestTimeoutMillis
+     *            The time in milliseconds allowed for a whole request including reading the response, or 0 for no
+     *            limit.
+     * @param governor
+     *            The governor of the requests sent to each host.
+     * @param http2
+     *            True to send requests over HTTP/2 where the JVM and server support it. Ignored if the JVM does not.
+     */
+    public SodaHttpClient(int maxConnections, int maxConnectionsPerHost, int connectTimeoutMillis,
+            int readTimeoutMillis, int requestTimeoutMillis, HostGovernor governor, boolean http2)
+    {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.governor = governor;
+        http2Transport = http2 && Http2Transport.isSupported()
+                ? new Http2Transport(connectTimeoutMillis, readTimeoutMillis, USER_AGENT) : null;
+        deadlineTimer =
+                new ScheduledThreadPoolExecutor(1, ThreadFactories.newThreadFactory("sodalint-deadline-", false));
+        deadlineTimer.setRemoveOnCancelPolicy(true);
+
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+                .register("http", new TimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+                .register("https", new TimedLayeredSocketFactory(SSLConnectionSocketFactory.getSocketFactory()))
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry, new TimedDnsResolver());
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(Math.min(maxConnections, maxConnectionsPerHost));
+
+        requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis).setConnectionRequestTimeout(readTimeoutMillis).build();
+
+        // Connection state is disabled so that pooled TLS connections can be reused by any stage. The built in
+        // content compression is replaced so that compression is only requested where it is wanted, and so that
+        // the compressed size can be recorded before the body is decoded. Redirects are followed by execute, so
+        // that each hop is governed and guarded until its own response has been read.
+        httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig).disableConnectionState().disableContentCompression()
+                .disableRedirectHandling()
+                .evictIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS).setUserAgent(USER_AGENT)
+                .addInterceptorLast(contentDecoder).addInterceptorLast(guardInterceptor).build();
+    }
+
+    /**
+     * @return The default configuration of requests, including the timeouts, which can be copied by requests which
+     *         need a different configuration.
+     */
+    public RequestConfig getRequestConfig()
+    {
+        return requestConfig;
+    }
+
+    /**
+     * @return The governor of the requests sent to each host.
+     */
+    public HostGovernor getGovernor()
+    {
+        return governor;
+    }
+
+    /**
+     * @return True if requests are sent over HTTP/2 where the server supports it.
+     */
+    public boolean isHttp2Enabled()
+    {
+        return http2Transport != null;
+    }
+
+    /**
+     * Describe the protocol of a response, e.g. HTTP/1.1 or HTTP/2.
+     *
+     * @param response
+     *            The response.
+     * @return The protocol name and version.
+     */
+    public static String getProtocol(HttpResponse response)
+    {
+        ProtocolVersion version = response.getProtocolVersion();
+        return version.getMajor() >= 2 ? version.getProtocol() + "/" + version.getMajor() : version.toString();
+    }
+
+    /**
+     * Execute a request using a pooled connection, once the governor allows it to be sent to its host. Redirects are
+     * followed unless the request's configuration disables them, with each hop waiting for its own permit and
+     * guarded until its response has been read, within the deadline of the whole request. Each hop is sent with the
+     * request's configuration, and a redirect back to an address already requested is rejected unless the
+     * configuration allows circular redirects. The caller must close the response to release the connection.
+     *
+     * @param request
+     *            The request to be sent.
+     * @return The response to the request.
+     * @throws IOException
+     *             If the request could not be completed.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException
+    {
+        long deadlineNanos =
+                requestTimeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis) : 0;
+        HttpClientContext context = HttpClientContext.create();
+        RequestConfig config = request instanceof Configurable ? ((Configurable) request).getConfig() : null;
+        if (config == null)
+        {
+            config = requestConfig;
+        }
+        // The redirect strategy reads the configuration and the addresses visited so far from the context
+        context.setRequestConfig(config);
+        RedirectLocations visited = new RedirectLocations();
+        visited.add(request.getURI());
+        context.setAttribute(HttpClientContext.REDIRECT_LOCATIONS, visited);
+        HttpUriRequest hop = request;
+        for (int redirects = 0;; redirects++)
+        {
+            CloseableHttpResponse response = executeHop(hop, context, deadlineNanos);
+            HttpUriRequest redirect;
+            try
+            {
+                // The HTTP/2 transport follows redirects itself, under the guard of the first hop
+                if (http2Transport != null || !config.isRedirectsEnabled()
+                        || !REDIRECT_STRATEGY.isRedirected(hop, response, context))
+                {
+                    return response;
+                }
+                if (redirects >= config.getMaxRedirects())
+                {
+                    throw new RedirectException("Maximum redirects (" + config.getMaxRedirects() + ") exceeded");
+                }
+                redirect = REDIRECT_STRATEGY.getRedirect(hop, response, context);
+            }
+            catch (ProtocolException e)
+            {
+                closeHop(response);
+                throw new ClientProtocolException(e);
+            }
+            closeHop(response);
+            hop = redirect;
+            if (!hop.headerIterator().hasNext())
+            {
+                hop.setHeaders(request.getAllHeaders());
+            }
+            if (hop instanceof HttpRequestBase)
+            {
+                ((HttpRequestBase) hop).setConfig(config);
+            }
+            if (request instanceof HttpExecutionAware)
+            {
+                // Aborting the original request, as callers do to stop reading a body, aborts the current hop
+                HttpUriRequest currentHop = hop;
+                ((HttpExecutionAware) request).setCancellable(() -> {
+                    currentHop.abort();
+                    return true;
+                });
+            }
+        }
+    }
+
+    /**
+     * Read and close the response to a redirect, which releases the connection and the guard of its hop.
+     */
+    private static void closeHop(CloseableHttpResponse response) throws IOException
+    {
+        try
+        {
+            EntityUtils.consume(response.getEntity());
+        }
+        finally
+        {
+            response.close();
+        }
+    }
+
+    private CloseableHttpResponse executeHop(HttpUriRequest request, HttpClientContext context, long deadlineNanos)
+            throws IOException
+    {
+        RequestGuard guard = new RequestGuard(request, deadlineNanos);
+        context.setAttribute(GUARD_ATTRIBUTE, guard);
+        try
+        {
+            guard.setPermit(governor.acquire(request));
+            RequestTiming timing = CURRENT_TIMING.get();
+            if (timing != null)
+            {
+                timing.addQueuedNanos(guard.permit.getQueuedNanos());
+            }
+            CloseableHttpResponse response =
+                    http2Transport == null ? httpClient.execute(request, context) : executeOverHttp2(request, context);
+            Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            governor.observe(request, response.getStatusLine().getStatusCode(),
+                    retryAfter == null ? null : retryAfter.getValue());
+            if (response.getEntity() == null)
+            {
+                guard.release();
+            }
+            return new GuardedResponse(response, guard);
+        }
+        catch (IOException e)
+        {
+            guard.release();
+            throw guard.translate(e);
+        }
+        catch (RuntimeException e)
+        {
+            guard.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Execute a request using a pooled connection, recording the time taken to resolve the host, connect and receive
+     * the response headers. The caller must close the response to release the connection, and should record the
+     * reading of the body in the timing.
+     *
+     * @param request
+     *            The request to be sent.
+     * @param timing
+     *            The timing of the request, which has been started by the caller.
+     * @return The response to the request.
+     * @throws IOException
+     *             If the request could not be completed.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, RequestTiming timing) throws IOException
+    {
+        CURRENT_TIMING.set(timing);
+        try
+        {
+            CloseableHttpResponse response = execute(request);
+            timing.headersReceived(response.getStatusLine().getStatusCode(), getProtocol(response));
+            return response;
+        }
+        finally
+        {
+            CURRENT_TIMING.remove();
+        }
+    }
+
+    /**
+     * Send a request through the HTTP/2 transport, applying the same response processing as the connection pool.
+     */
+    private CloseableHttpResponse executeOverHttp2(HttpUriRequest request, HttpContext context) throws IOException
+    {
+        RequestTiming timing = CURRENT_TIMING.get();
+        if (timing != null)
+        {
+            timing.connectionNotTimed();
+        }
+        RequestConfig config = request instanceof Configurable ? ((Configurable) request).getConfig() : null;
+        boolean followRedirects = (config == null ? requestConfig : config).isRedirectsEnabled();
+        CloseableHttpResponse response = http2Transport.execute(request, followRedirects);
+        contentDecoder.process(response, context);
+        guardInterceptor.process(response, context);
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        httpClient.close();
+        connectionManager.close();
+        if (http2Transport != null)
+        {
+            http2Transport.close();
+        }
+        deadlineTimer.shutdownNow();
+    }
+
+    /**
+     * Enforces the deadline of a single request and its registration with the caller's cancellation scope, until
+     * the response body has been read or closed.
+     */
+    private class RequestGuard
+    {
+        private final HttpUriRequest request;
+        private final CancellationScope scope;
+        private final ScheduledFuture<?> timer;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean expired;
+        private volatile HostGovernor.Permit permit;
+
+        RequestGuard(HttpUriRequest request, long deadlineNanos)
+        {
+            this.request = request;
+            this.scope = CancellationScope.current();
+            if (scope != null)
+            {
+                scope.register(request);
+            }
+            timer = requestTimeoutMillis > 0 ? deadlineTimer.schedule(this::expire,
+                    Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS) : null;
+        }
+
+        void setPermit(HostGovernor.Permit permit)
+        {
+            this.permit = permit;
+        }
+
+        private void expire()
+        {
+            expired = true;
+            request.abort();
+        }
+
+        void release()
+        {
+            if (released.compareAndSet(false, true))
+            {
+                if (timer != null)
+                {
+                    timer.cancel(false);
+                }
+                if (scope != null)
+                {
+                    scope.unregister(request);
+                }
+                if (permit != null)
+                {
+                    permit.release();
+                }
+            }
+        }
+
+        /**
+         * Replace the error from an aborted request with one which says why it was aborted.
+         */
+        IOException translate(IOException e)
+        {
+            String reason = null;
+            if (expired)
+            {
+                reason = "Request exceeded its deadline of " + requestTimeoutMillis + " ms";
+            }
+            else if (scope != null && scope.isCancelled())
+            {
+                reason = scope.getCancelReason();
+            }
+            if (reason == null)
+            {
+                return e;
+            }
+            InterruptedIOException cancelled = new InterruptedIOException(reason);
+            cancelled.initCause(e);
+            return cancelled;
+        }
+    }
+
+    /**
+     * Decompresses response bodies sent with gzip or deflate content coding as they are read. The content headers
+     * describing the compressed body are removed, and the compressed bytes read are counted in the timing of the
+     * current request. Bodies with any other content coding are left as they are.
+     */
+    private static class ContentDecodingInterceptor implements HttpResponseInterceptor
+    {
+        @Override
+        public void process(HttpResponse response, HttpContext context)
+        {
+            HttpEntity entity = response.getEntity();
+            if (entity == null || entity.getContentLength() == 0 || entity.getContentEncoding() == null)
+            {
+                return;
+            }
+            String encoding = entity.getContentEncoding().getValue().trim().toLowerCase(Locale.ROOT);
+            RequestTiming timing = CURRENT_TIMING.get();
+            HttpEntity countedEntity = timing == null ? entity : new CountingEntity(entity, timing);
+            if ("gzip".equals(encoding) || "x-gzip".equals(encoding))
+            {
+                response.setEntity(new GzipDecompressingEntity(countedEntity));
+            }
+            else if ("deflate".equals(encoding))
+            {
+                response.setEntity(new DeflateDecompressingEntity(countedEntity));
+            }
+            else
+            {
+                return;
+            }
+            if (timing != null)
+            {
+                timing.contentEncoded(encoding);
+            }
+            response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+            response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+            response.removeHeaders(HttpHeaders.CONTENT_MD5);
+        }
+    }
+
+    /**
+     * A compressed response body which counts the bytes read from it in the timing of its request.
+     */
+    private static class CountingEntity extends HttpEntityWrapper
+    {
+        private final RequestTiming timing;
+
+        CountingEntity(HttpEntity entity, RequestTiming timing)
+        {
+            super(entity);
+            this.timing = timing;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            return new FilterInputStream(super.getContent())
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    int value = super.read();
+                    if (value >= 0)
+                    {
+                        timing.addEncodedBytes(1);
+                    }
+                    return value;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    int count = super.read(b, off, len);
+                    if (count > 0)
+                    {
+                        timing.addEncodedBytes(count);
+                    }
+                    return count;
+                }
+            };
+        }
+    }
+
+    /**
+     * Wraps each response body so that its request guard is released once the body has been read or closed.
+     */
+    private static class GuardEntityInterceptor implements HttpResponseInterceptor
+    {
+        @Override
+        public void process(HttpResponse response, HttpContext context)
+        {
+            Object guard = context.getAttribute(GUARD_ATTRIBUTE);
+            if (guard instanceof RequestGuard && response.getEntity() != null)
+            {
+                response.setEntity(new GuardedEntity(response.getEntity(), (RequestGuard) guard));
+            }
+        }
+    }
+
+    /**
+     * A response which releases its request guard when it is closed, so that a response whose body is not read, or
+     * is empty, still returns its permit.
+     */
+    private static class GuardedResponse extends BasicHttpResponse implements CloseableHttpResponse
+    {
+        private final CloseableHttpResponse response;
+        private final RequestGuard guard;
+
+        GuardedResponse(CloseableHttpResponse response, RequestGuard guard)
+        {
+            super(response.getStatusLine());
+            setHeaders(response.getAllHeaders());
+            setEntity(response.getEntity());
+            if (response.getLocale() != null)
+            {
+                setLocale(response.getLocale());
+            }
+            this.response = response;
+            this.guard = guard;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                response.close();
+            }
+            finally
+            {
+                guard.release();
+            }
+        }
+    }
+
+    /**
+     * A response body which releases its request guard when it has been read or closed.
+     */
+    private static class GuardedEntity extends HttpEntityWrapper
+    {
+        private final RequestGuard guard;
+
+        GuardedEntity(HttpEntity entity, RequestGuard guard)
+        {
+            super(entity);
+            this.guard = guard;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            try
+            {
+                return new GuardedInputStream(super.getContent(), guard);
+            }
+            catch (IOException e)
+            {
+                guard.release();
+                throw guard.translate(e);
+            }
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException
+        {
+            final int bufferSize = 8192;
+            byte[] buffer = new byte[bufferSize];
+            try (InputStream in = getContent())
+            {
+                for (int count = in.read(buffer); count >= 0; count = in.read(buffer))
+                {
+                    out.write(buffer, 0, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * A response stream which releases its request guard at the end of the stream or when closed, and reports why
+     * the request was aborted if it fails.
+     */
+    private static class GuardedInputStream extends FilterInputStream
+    {
+        private final RequestGuard guard;
+
+        GuardedInputStream(InputStream in, RequestGuard guard)
+        {
+            super(in);
+            this.guard = guard;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            try
+            {
+                int value = super.read();
+                if (value < 0)
+                {
+                    guard.release();
+                }
+                return value;
+            }
+            catch (IOException e)
+            {
+                guard.release();
+                throw guard.translate(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            try
+            {
+                int count = super.read(b, off, len);
+                if (count < 0)
+                {
+                    guard.release();
+                }
+                return count;
+            }
+            catch (IOException e)
+            {
+                guard.release();
+                throw guard.translate(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            catch (IOException e)
+            {
+                throw guard.translate(e);
+            }
+            finally
+            {
+                guard.release();
+            }
+        }
+    }
+
+    /**
+     * Resolves host names using the system resolver, adding the time taken to the current request's timing.
+     */
+    private static class TimedDnsResolver implements DnsResolver
+    {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException
+        {
+            long start = System.nanoTime();
+            try
+            {
+                return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+            }
+            finally
+            {
+                RequestTiming timing = CURRENT_TIMING.get();
+                if (timing != null)
+                {
+                    timing.addDnsNanos(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps a socket factory, adding the time taken to connect, including any TLS handshake, to the current
+     * request's timing.
+     */
+    private static class TimedSocketFactory implements ConnectionSocketFactory
+    {
+        private final ConnectionSocketFactory socketFactory;
+
+        TimedSocketFactory(ConnectionSocketFactory socketFactory)
+        {
+            this.socketFactory = socketFactory;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException
+        {
+            return socketFactory.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                InetSocketAddress localAddress, HttpContext context) throws IOException
+        {
+            long start = System.nanoTime();
+            try
+            {
+                return socketFactory.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+            }
+            finally
+            {
+                RequestTiming timing = CURRENT_TIMING.get();
+                if (timing != null)
+                {
+                    timing.addConnectNanos(System.nanoTime() - start);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Wraps a layered socket factory, such as the TLS factory, adding the time taken to connect, including the TLS
+     * handshake, to the current request's timing.
+     */
+    private static class TimedLayeredSocketFactory extends TimedSocketFactory implements LayeredConnectionSocketFactory
+    {
+        private final LayeredConnectionSocketFactory socketFactory;
+
+        TimedLayeredSocketFactory(LayeredConnectionSocketFactory socketFactory)
+        {
+            super(socketFactory);
+            this.socketFactory = socketFactory;
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException
+        {
+            return socketFactory.createLayeredSocket(socket, target, port, context);
+        }
+    }
+}
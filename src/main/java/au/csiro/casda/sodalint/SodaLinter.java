@@ -1,8 +1,12 @@
 package au.csiro.casda.sodalint;
 
+import java.io.Closeable;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -17,8 +21,8 @@ import org.apache.commons.lang3.StringUtils;
 
 import uk.ac.starlink.task.Executable;
 import uk.ac.starlink.task.TaskException;
+import uk.ac.starlink.ttools.taplint.OutputReporter;
 import uk.ac.starlink.ttools.taplint.ReportType;
-import uk.ac.starlink.ttools.taplint.TextOutputReporter;
 
 /*
  * #%L
@@ -35,15 +39,185 @@ import uk.ac.starlink.ttools.taplint.TextOutputReporter;
 /**
  * Main gateway for SODA validation - based on TAPLint.
  * <p>
+ * A linter created with its own http client closes that client when the linter is closed. A client passed in by the
+ * caller is left open, as it may be shared with other linters.
+ * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
-public class SodaLinter
+public class SodaLinter implements Closeable
 {
 
     private static final String SODA_VERSION = "Rec-SODA-1.0-20170517";
-    
+
+    private final SodaHttpClient httpClient;
+    private final boolean ownsHttpClient;
+    private boolean virtualThreads;
+    private String cutoutCircle;
+    private String cutoutBand;
+    private LoadTestSettings loadTestSettings = new LoadTestSettings();
+    private CutoutExerciseSettings cutoutExerciseSettings = new CutoutExerciseSettings();
+    private RevalidationCache revalidationCache;
+    private DeadlineSettings deadlineSettings = new DeadlineSettings();
+
     /**
-     * Creates and returns an executable for TAP validation.
+     * Create a new SodaLinter instance using an http client with the default pool size and timeouts. The linter owns
+     * the client, so it must be closed once it is no longer needed.
+     */
+    public SodaLinter()
+    {
+        this(new SodaHttpClient(), true);
+    }
+
+    /**
+     * Create a new SodaLinter instance.
+     * 
+     * @param httpClient
+     *            The client to be used for all requests made by the validation runs of this linter.
+     */
+    public SodaLinter(SodaHttpClient httpClient)
+    {
+        this(httpClient, false);
+    }
+
+    private SodaLinter(SodaHttpClient httpClient, boolean ownsHttpClient)
+    {
+        this.httpClient = httpClient;
+        this.ownsHttpClient = ownsHttpClient;
+    }
+
+    /**
+     * Close the http client created by this linter, releasing its connection pool and the threads which evict idle
+     * connections and enforce request deadlines. A client passed in by the caller is not closed.
+     * 
+     * @throws IOException
+     *             If the client could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (ownsHttpClient)
+        {
+            httpClient.close();
+        }
+    }
+
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    /**
+     * Set whether stages and services are run on virtual threads. This only has an effect when running on a JVM
+     * which supports virtual threads, otherwise platform threads are used.
+     * 
+     * @param virtualThreads
+     *            True if virtual threads should be used where available.
+     */
+    public void setVirtualThreads(boolean virtualThreads)
+    {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public String getCutoutCircle()
+    {
+        return cutoutCircle;
+    }
+
+    /**
+     * Set the CIRCLE parameter sent with the test cutout request by the sync stage.
+     * 
+     * @param cutoutCircle
+     *            The circle, as longitude, latitude and radius in degrees, or null for no spatial cutout.
+     */
+    public void setCutoutCircle(String cutoutCircle)
+    {
+        this.cutoutCircle = cutoutCircle;
+    }
+
+    public String getCutoutBand()
+    {
+        return cutoutBand;
+    }
+
+    /**
+     * Set the BAND parameter sent with the test cutout request by the sync stage.
+     * 
+     * @param cutoutBand
+     *            The wavelength interval in metres, or null for no spectral cutout.
+     */
+    public void setCutoutBand(String cutoutBand)
+    {
+        this.cutoutBand = cutoutBand;
+    }
+
+    public LoadTestSettings getLoadTestSettings()
+    {
+        return loadTestSettings;
+    }
+
+    /**
+     * Set the number of clients and the limits of the sync load test stage.
+     * 
+     * @param loadTestSettings
+     *            The load test settings.
+     */
+    public void setLoadTestSettings(LoadTestSettings loadTestSettings)
+    {
+        this.loadTestSettings = loadTestSettings;
+    }
+
+    public CutoutExerciseSettings getCutoutExerciseSettings()
+    {
+        return cutoutExerciseSettings;
+    }
+
+    /**
+     * Set the number of clients and combinations of the cutout parameter exercise stage.
+     * 
+     * @param cutoutExerciseSettings
+     *            The cutout exercise settings.
+     */
+    public void setCutoutExerciseSettings(CutoutExerciseSettings cutoutExerciseSettings)
+    {
+        this.cutoutExerciseSettings = cutoutExerciseSettings;
+    }
+
+    public RevalidationCache getRevalidationCache()
+    {
+        return revalidationCache;
+    }
+
+    /**
+     * Set the cache of documents and verdicts from previous runs. Documents in the cache are requested conditionally
+     * and the stages which checked a document replay their verdicts if it has not changed.
+     * 
+     * @param revalidationCache
+     *            The cache, or null to check every document in full.
+     */
+    public void setRevalidationCache(RevalidationCache revalidationCache)
+    {
+        this.revalidationCache = revalidationCache;
+    }
+
+    public DeadlineSettings getDeadlineSettings()
+    {
+        return deadlineSettings;
+    }
+
+    /**
+     * Set the time limits of each stage and of all the stages of a service.
+     * 
+     * @param deadlineSettings
+     *            The deadline settings.
+     */
+    public void setDeadlineSettings(DeadlineSettings deadlineSettings)
+    {
+        this.deadlineSettings = deadlineSettings;
+    }
+
+    /**
+     * Creates and returns an executable for TAP validation. Stages are run concurrently where their prerequisites
+     * allow, but are reported in stage order.
      *
      * @param reporter
      *            validation message destination
@@ -56,9 +230,32 @@ public class SodaLinter
      * @return SODA validator executable
      * @throws TaskException if the stage code is not recognised.
      */
-    public Executable createExecutable(final TextOutputReporter reporter, final URL serviceUrl, Set<String> stageCodeSet,
+    public Executable createExecutable(final OutputReporter reporter, final URL serviceUrl, Set<String> stageCodeSet,
             final String testDataProductId) throws TaskException
     {
+        return createExecutable(reporter, serviceUrl, stageCodeSet, testDataProductId, new ServiceTimings());
+    }
+
+    /**
+     * Creates and returns an executable for TAP validation which records the wall time of each stage and the timing
+     * of each http request in the supplied timings, so that they can be read once the executable has completed.
+     *
+     * @param reporter
+     *            validation message destination
+     * @param serviceUrl
+     *            SODA service URL
+     * @param stageCodeSet
+     *            unordered collection of code strings indicating which stages should be run
+     * @param testDataProductId
+     *            id of a valid data product which can be tested
+     * @param timings
+     *            The destination for the timings of the validation run.
+     * @return SODA validator executable
+     * @throws TaskException if the stage code is not recognised.
+     */
+    public Executable createExecutable(final OutputReporter reporter, final URL serviceUrl, Set<String> stageCodeSet,
+            final String testDataProductId, final ServiceTimings timings) throws TaskException
+    {
 
          // Prepare a checked and ordered sequence of codes determining which stages will be executed. Note the order is
          //that defined by the list of known codes, not that defined by the input set.
@@ -83,17 +280,17 @@ public class SodaLinter
         {
             public void execute()
             {
-                SodaService sodaService = new SodaService(serviceUrl);
+                SodaService sodaService = new SodaService(serviceUrl, httpClient, timings, revalidationCache);
+                sodaService.setCutoutCircle(cutoutCircle);
+                sodaService.setCutoutBand(cutoutBand);
+                sodaService.setLoadTestSettings(loadTestSettings);
+                sodaService.setCutoutExerciseSettings(cutoutExerciseSettings);
+                sodaService.setVirtualThreads(virtualThreads);
                 List<String> announcements = getAnnouncements();
                 announcements.add("Running stages: " + stages);
                 reporter.start(announcements.toArray(new String[0]));
-                for (Stage stage : stages)
-                {
-                    reporter.startSection(stage.getCode(), stage.toString());
-                    stage.run(reporter, sodaService, testDataProductId);
-                    reporter.summariseUnreportedMessages(stage.getCode());
-                    reporter.endSection();
-                }
+                StageScheduler scheduler = new StageScheduler(stages.size(), virtualThreads, deadlineSettings);
+                scheduler.runStages(reporter, stages, sodaService, testDataProductId);
                 reporter.end();
             }
         };
@@ -137,7 +334,10 @@ public class SodaLinter
         return announcements;
     }
 
-    private static String getSodaLintVersion()
+    /**
+     * @return The build number of the linter, or an empty string if it is not known.
+     */
+    static String getSodaLintVersion()
     {
         Properties props = new Properties();
 		try (InputStream resourceAsStream = SodaLinter.class.getResourceAsStream("/version.properties"))
@@ -162,12 +362,35 @@ public class SodaLinter
      */
     public static void main(String[] args) throws Exception
     {
-        SodaLinter linter = new SodaLinter();
         String[] stages = null;
         final int defaultMaxRepeat = 9;
         final int defaultMaxLineLen = 1024;
+        final int millisPerSecond = 1000;
         int maxRepeat = defaultMaxRepeat;
         int maxLineLen = defaultMaxLineLen;
+        int poolSize = SodaHttpClient.DEFAULT_MAX_CONNECTIONS;
+        int maxPerHost = SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        int hostRate = 0;
+        int connectTimeout = SodaHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS / millisPerSecond;
+        int readTimeout = SodaHttpClient.DEFAULT_READ_TIMEOUT_MILLIS / millisPerSecond;
+        int requestTimeout = SodaHttpClient.DEFAULT_REQUEST_TIMEOUT_MILLIS / millisPerSecond;
+        DeadlineSettings deadlineSettings = new DeadlineSettings();
+        int fleetThreads = 0;
+        int summarySize = 0;
+        String fleetFile = null;
+        String monitorFile = null;
+        int interval = MonitorDaemon.DEFAULT_INTERVAL_SECONDS;
+        int jitter = MonitorDaemon.DEFAULT_JITTER_PERCENT;
+        String logFile = null;
+        boolean virtualThreads = false;
+        boolean http2 = false;
+        ReportFormat format = ReportFormat.TEXT;
+        String testDataProductId = null;
+        String cutoutCircle = null;
+        String cutoutBand = null;
+        LoadTestSettings loadTestSettings = new LoadTestSettings();
+        CutoutExerciseSettings cutoutExerciseSettings = new CutoutExerciseSettings();
+        String cacheDir = null;
         String sodaUrl = null;
         boolean error = false;
 
@@ -201,26 +424,281 @@ public class SodaLinter
                     error = true;
                 }
             }
+            else if (arg.startsWith("poolsize="))
+            {
+                poolSize = getPositiveInt(arg.substring("poolsize=".length()));
+                error |= poolSize < 1;
+            }
+            else if (arg.startsWith("maxperhost="))
+            {
+                maxPerHost = getPositiveInt(arg.substring("maxperhost=".length()));
+                error |= maxPerHost < 1;
+            }
+            else if (arg.startsWith("hostrate="))
+            {
+                hostRate = getPositiveInt(arg.substring("hostrate=".length()));
+                error |= hostRate < 1;
+            }
+            else if (arg.startsWith("connecttimeout="))
+            {
+                connectTimeout = getPositiveInt(arg.substring("connecttimeout=".length()));
+                error |= connectTimeout < 1;
+            }
+            else if (arg.startsWith("readtimeout="))
+            {
+                readTimeout = getPositiveInt(arg.substring("readtimeout=".length()));
+                error |= readTimeout < 1;
+            }
+            else if (arg.startsWith("requesttimeout="))
+            {
+                requestTimeout = getPositiveInt(arg.substring("requesttimeout=".length()));
+                error |= requestTimeout < 1;
+            }
+            else if (arg.startsWith("stagetimeout="))
+            {
+                deadlineSettings.setStageSeconds(getPositiveInt(arg.substring("stagetimeout=".length())));
+                error |= deadlineSettings.getStageSeconds() < 1;
+            }
+            else if (arg.startsWith("servicetimeout="))
+            {
+                deadlineSettings.setServiceSeconds(getPositiveInt(arg.substring("servicetimeout=".length())));
+                error |= deadlineSettings.getServiceSeconds() < 1;
+            }
+            else if (arg.startsWith("executor="))
+            {
+                String value = arg.substring("executor=".length());
+                virtualThreads = "virtual".equalsIgnoreCase(value);
+                error |= !virtualThreads && !"platform".equalsIgnoreCase(value);
+            }
+            else if (arg.startsWith("transport="))
+            {
+                String value = arg.substring("transport=".length());
+                http2 = "http2".equalsIgnoreCase(value);
+                error |= !http2 && !"http1".equalsIgnoreCase(value);
+            }
+            else if (arg.startsWith("format="))
+            {
+                format = ReportFormat.forName(arg.substring("format=".length()));
+                error |= format == null;
+            }
+            else if (arg.startsWith("productid="))
+            {
+                testDataProductId = arg.substring("productid=".length());
+            }
+            else if (arg.startsWith("circle="))
+            {
+                cutoutCircle = arg.substring("circle=".length());
+            }
+            else if (arg.startsWith("band="))
+            {
+                cutoutBand = arg.substring("band=".length());
+            }
+            else if (arg.startsWith("loadclients="))
+            {
+                loadTestSettings.setClients(getPositiveInt(arg.substring("loadclients=".length())));
+                error |= loadTestSettings.getClients() < 1;
+            }
+            else if (arg.startsWith("loadduration="))
+            {
+                loadTestSettings.setDurationSeconds(getPositiveInt(arg.substring("loadduration=".length())));
+                error |= loadTestSettings.getDurationSeconds() < 1;
+            }
+            else if (arg.startsWith("loadrequests="))
+            {
+                loadTestSettings.setRequestCount(getPositiveInt(arg.substring("loadrequests=".length())));
+                error |= loadTestSettings.getRequestCount() < 1;
+            }
+            else if (arg.startsWith("cutclients="))
+            {
+                cutoutExerciseSettings.setClients(getPositiveInt(arg.substring("cutclients=".length())));
+                error |= cutoutExerciseSettings.getClients() < 1;
+            }
+            else if (arg.startsWith("cutcombinations="))
+            {
+                cutoutExerciseSettings
+                        .setMaxCombinations(getPositiveInt(arg.substring("cutcombinations=".length())));
+                error |= cutoutExerciseSettings.getMaxCombinations() < 1;
+            }
+            else if (arg.startsWith("cachedir="))
+            {
+                cacheDir = arg.substring("cachedir=".length());
+            }
+            else if (arg.startsWith("fleet="))
+            {
+                fleetFile = arg.substring("fleet=".length());
+            }
+            else if (arg.startsWith("monitor="))
+            {
+                monitorFile = arg.substring("monitor=".length());
+            }
+            else if (arg.startsWith("interval="))
+            {
+                interval = getPositiveInt(arg.substring("interval=".length()));
+                error |= interval < 1;
+            }
+            else if (arg.startsWith("jitter="))
+            {
+                final int maxJitter = 50;
+                jitter = "0".equals(arg.substring("jitter=".length())) ? 0
+                        : getPositiveInt(arg.substring("jitter=".length()));
+                error |= jitter < 0 || jitter > maxJitter;
+            }
+            else if (arg.startsWith("logfile="))
+            {
+                logFile = arg.substring("logfile=".length());
+            }
+            else if (arg.startsWith("threads="))
+            {
+                fleetThreads = getPositiveInt(arg.substring("threads=".length()));
+                error |= fleetThreads < 1;
+            }
+            else if (arg.startsWith("summary="))
+            {
+                summarySize = getPositiveInt(arg.substring("summary=".length()));
+                error |= summarySize < 1;
+            }
             else
             {
                 sodaUrl = arg.startsWith("sodaurl=") ? arg.substring("sodaurl=".length()) : arg;
             }
         }
-        if (sodaUrl == null || error)
+        if ((sodaUrl == null && fleetFile == null && monitorFile == null) || error)
         {
-            System.out.println("Usage: java -jar sodalint-full.jar [stages=\"CPV|CAP|AVV|EXM|SVD|ERR|SYN|ASY[ ...]\"] "
-                    + "[maxrepeat=<int-value>] [truncate=<int-value>] [sodaurl=]<url-value>");
+            System.out.println("Usage: java -jar sodalint-full.jar [stages=\"CPV|CAP|AVV|EXM|SVD|ERR|SYN|ASY|CUT|LOD[ ...]\"] "
+                    + "[maxrepeat=<int-value>] [truncate=<int-value>] [poolsize=<int-value>] "
+                    + "[maxperhost=<int-value>] [hostrate=<int-value>] [connecttimeout=<secs>] [readtimeout=<secs>] "
+                    + "[requesttimeout=<secs>] [stagetimeout=<secs>] [servicetimeout=<secs>] "
+                    + "[threads=<int-value>] [summary=<int-value>] [executor=platform|virtual] "
+                    + "[transport=http1|http2] [format=text|json] "
+                    + "[productid=<id>] [circle=\"<ra> <dec> <radius>\"] [band=\"<min> <max>\"] "
+                    + "[loadclients=<int-value>] [loadduration=<secs>] [loadrequests=<int-value>] "
+                    + "[cutclients=<int-value>] [cutcombinations=<int-value>] "
+                    + "[cachedir=<dir>] [interval=<secs>] [jitter=<percent>] [logfile=<file>] "
+                    + "fleet=<file>|monitor=<file>|[sodaurl=]<url-value>");
             System.exit(1);
         }
-        TextOutputReporter reporter = new TextOutputReporter(System.out, ReportType.values(), maxRepeat, false, maxLineLen);
-        // URL serviceUrl = new URL("https://casda-dev-app.pawsey.org.au/casda_data_access/data/");
-        URL serviceUrl = new URL(sodaUrl);
+        if (virtualThreads && !ThreadFactories.isVirtualThreadSupported())
+        {
+            System.err.println("Virtual threads are not supported by this JVM, using platform threads.");
+        }
+        if (http2 && !Http2Transport.isSupported())
+        {
+            System.err.println("HTTP/2 is not supported by this JVM, using HTTP/1.1.");
+        }
         String[] defaultStages =
                 new String[] { Stage.CAP_XML.getCode(), Stage.AVAIL_XML.getCode(), Stage.CAPABILITIES.getCode(),
                         Stage.SYNC.getCode(), Stage.ASYNC.getCode(), Stage.SERVICE_DESC.getCode() };
         Set<String> codes = new HashSet<>(Arrays.asList(stages != null ? stages : defaultStages));
-        Executable executable = linter.createExecutable(reporter, serviceUrl, codes, null);
-        executable.execute();
+        HostGovernor governor = new HostGovernor(Math.min(poolSize, maxPerHost), hostRate);
+        try (SodaHttpClient httpClient = new SodaHttpClient(poolSize, maxPerHost, connectTimeout * millisPerSecond,
+                readTimeout * millisPerSecond, requestTimeout * millisPerSecond, governor, http2))
+        {
+            SodaLinter linter = new SodaLinter(httpClient);
+            linter.setVirtualThreads(virtualThreads);
+            linter.setCutoutCircle(cutoutCircle);
+            linter.setCutoutBand(cutoutBand);
+            linter.setLoadTestSettings(loadTestSettings);
+            linter.setCutoutExerciseSettings(cutoutExerciseSettings);
+            linter.setDeadlineSettings(deadlineSettings);
+            if (cacheDir != null)
+            {
+                linter.setRevalidationCache(new RevalidationCache(Paths.get(cacheDir)));
+            }
+            if (monitorFile != null)
+            {
+                List<FleetEntry> services =
+                        FleetEntry.readServiceList(new InputStreamReader(new FileInputStream(monitorFile), "UTF-8"));
+                FleetRunner fleetRunner = new FleetRunner(linter, fleetThreads, format, maxRepeat, maxLineLen);
+                runMonitor(new MonitorDaemon(fleetRunner, interval, jitter), services, codes, logFile);
+            }
+            else if (fleetFile != null)
+            {
+                List<FleetEntry> services =
+                        FleetEntry.readServiceList(new InputStreamReader(new FileInputStream(fleetFile), "UTF-8"));
+                FleetRunner fleetRunner = new FleetRunner(linter, fleetThreads, format, maxRepeat, maxLineLen);
+                fleetRunner.setSummarySize(summarySize);
+                fleetRunner.run(services, codes, System.out);
+            }
+            else
+            {
+                URL serviceUrl = new URL(sodaUrl);
+                OutputReporter reporter = format.createReporter(System.out, serviceUrl, maxRepeat, maxLineLen);
+                Executable executable = linter.createExecutable(reporter, serviceUrl, codes, testDataProductId);
+                executable.execute();
+            }
+        }
+    }
+
+    /**
+     * Run the monitor until the JVM is shut down, writing the reports to a rolling log file or to standard out.
+     * 
+     * @param monitor
+     *            The monitor to be run.
+     * @param services
+     *            The services to be monitored.
+     * @param codes
+     *            The codes of the stages to be run for services which do not list their own stages.
+     * @param logFile
+     *            The name of the log file, or null to write to standard out.
+     * @throws IOException
+     *             If the log file cannot be opened.
+     * @throws InterruptedException
+     *             If the main thread is interrupted.
+     */
+    private static void runMonitor(final MonitorDaemon monitor, List<FleetEntry> services, Set<String> codes,
+            String logFile) throws IOException, InterruptedException
+    {
+        final RollingOutput rollingOutput = logFile == null ? null
+                : new RollingOutput(Paths.get(logFile), RollingOutput.DEFAULT_MAX_BYTES,
+                        RollingOutput.DEFAULT_MAX_BACKUPS);
+        Runtime.getRuntime().addShutdownHook(new Thread(monitor::stop, "sodalint-monitor-shutdown"));
+        try
+        {
+            if (rollingOutput != null)
+            {
+                monitor.start(services, codes, rollingOutput::write);
+            }
+            else
+            {
+                monitor.start(services, codes, block -> {
+                    synchronized (System.out)
+                    {
+                        System.out.print(block);
+                        System.out.flush();
+                    }
+                });
+            }
+            monitor.awaitStop();
+        }
+        finally
+        {
+            if (rollingOutput != null)
+            {
+                rollingOutput.close();
+            }
+        }
+    }
 
+    /**
+     * Parse a positive integer command line value.
+     * 
+     * @param value
+     *            The text of the value.
+     * @return The integer value, or -1 if the value is not a positive integer.
+     */
+    private static int getPositiveInt(String value)
+    {
+        if (!StringUtils.isNumeric(value) || StringUtils.isEmpty(value))
+        {
+            return -1;
+        }
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
     }
 }
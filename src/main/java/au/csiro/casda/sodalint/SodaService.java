@@ -1,16 +1,7 @@
 package au.csiro.casda.sodalint;
 
-import java.net.MalformedURLException;
 import java.net.URL;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
 /*
  * #%L
  * CSIRO ASKAP Science Data Archive
@@ -24,23 +15,60 @@ import org.w3c.dom.NodeList;
  */
 
 /**
- * A container for data about a SODA service.
+ * A container for data about a SODA service. Stages may run on different threads, so the values set by one stage
+ * are visible to the stages which depend on it.
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
 public class SodaService
 {
-    private URL serviceUrl;
-    private Node syncServiceNode;
-    private Node asyncServiceNode;
+    private volatile URL serviceUrl;
+    private volatile SodaCapability syncCapability;
+    private volatile SodaCapability asyncCapability;
+    private volatile String cutoutCircle;
+    private volatile String cutoutBand;
+    private volatile LoadTestSettings loadTestSettings = new LoadTestSettings();
+    private volatile CutoutExerciseSettings cutoutExerciseSettings = new CutoutExerciseSettings();
+    private volatile boolean virtualThreads;
+    private final SodaHttpClient httpClient;
+    private final ResponseCache responseCache;
+    private final ServiceTimings timings;
+
+    /**
+     * Create a new SodaService instance.
+     * @param serviceUrl The base url of the SODA service to be validated.
+     * @param httpClient The client to be used for all requests to the service.
+     */
+    public SodaService(URL serviceUrl, SodaHttpClient httpClient)
+    {
+        this(serviceUrl, httpClient, new ServiceTimings());
+    }
+
+    /**
+     * Create a new SodaService instance.
+     * @param serviceUrl The base url of the SODA service to be validated.
+     * @param httpClient The client to be used for all requests to the service.
+     * @param timings The destination for the stage and request timings of the validation run.
+     */
+    public SodaService(URL serviceUrl, SodaHttpClient httpClient, ServiceTimings timings)
+    {
+        this(serviceUrl, httpClient, timings, null);
+    }
 
     /**
      * Create a new SodaService instance.
      * @param serviceUrl The base url of the SODA service to be validated.
+     * @param httpClient The client to be used for all requests to the service.
+     * @param timings The destination for the stage and request timings of the validation run.
+     * @param revalidationCache The cache of documents and verdicts from previous runs, or null to check everything.
      */
-    public SodaService(URL serviceUrl)
+    public SodaService(URL serviceUrl, SodaHttpClient httpClient, ServiceTimings timings,
+            RevalidationCache revalidationCache)
     {
         this.serviceUrl = serviceUrl;
+        this.httpClient = httpClient;
+        this.timings = timings;
+        this.responseCache = new ResponseCache(httpClient, timings, revalidationCache);
     }
 
     public URL getServiceUrl()
@@ -53,48 +81,105 @@ public class SodaService
         this.serviceUrl = serviceUrl;
     }
 
-    public Node getSyncServiceNode()
+    public SodaCapability getSyncCapability()
     {
-        return syncServiceNode;
+        return syncCapability;
     }
 
-    public void setSyncServiceNode(Node syncServiceNode)
+    public void setSyncCapability(SodaCapability syncCapability)
     {
-        this.syncServiceNode = syncServiceNode;
+        this.syncCapability = syncCapability;
     }
 
-    public Node getAsyncServiceNode()
+    public SodaCapability getAsyncCapability()
     {
-        return asyncServiceNode;
+        return asyncCapability;
     }
 
-    public void setAsyncServiceNode(Node asyncServiceNode)
+    public void setAsyncCapability(SodaCapability asyncCapability)
     {
-        this.asyncServiceNode = asyncServiceNode;
+        this.asyncCapability = asyncCapability;
+    }
+
+    public String getCutoutCircle()
+    {
+        return cutoutCircle;
     }
 
     /**
-     * Retrieve the interface access url for a specific capability. If node has multiple interface access URLs then only
-     * the first will be returned.
-     * 
-     * @param capNode
-     *            The node to be queried.
-     * @return The interface access URL, or null if none listed.
-     * @throws XPathExpressionException
-     *             If there is an xpath coding problem
-     * @throws MalformedURLException
-     *             If the interface access url is not a valid URL
+     * @param cutoutCircle The CIRCLE parameter to be sent with test cutout requests, may be null.
      */
-    public URL getUrlFromCapabilityNode(Node capNode) throws XPathExpressionException, MalformedURLException
-    {
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        NodeList interfaces = (NodeList) xpath.evaluate("interface/accessURL", capNode, XPathConstants.NODESET);
-        if (interfaces != null && interfaces.getLength() > 0)
-        {
-            Node urlNode = interfaces.item(0);
-            return new URL(urlNode.getTextContent());
-        }
-        return null;
+    public void setCutoutCircle(String cutoutCircle)
+    {
+        this.cutoutCircle = cutoutCircle;
+    }
+
+    public String getCutoutBand()
+    {
+        return cutoutBand;
+    }
+
+    /**
+     * @param cutoutBand The BAND parameter to be sent with test cutout requests, may be null.
+     */
+    public void setCutoutBand(String cutoutBand)
+    {
+        this.cutoutBand = cutoutBand;
+    }
+
+    public LoadTestSettings getLoadTestSettings()
+    {
+        return loadTestSettings;
+    }
+
+    public void setLoadTestSettings(LoadTestSettings loadTestSettings)
+    {
+        this.loadTestSettings = loadTestSettings;
+    }
+
+    public CutoutExerciseSettings getCutoutExerciseSettings()
+    {
+        return cutoutExerciseSettings;
+    }
+
+    public void setCutoutExerciseSettings(CutoutExerciseSettings cutoutExerciseSettings)
+    {
+        this.cutoutExerciseSettings = cutoutExerciseSettings;
+    }
+
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    /**
+     * @param virtualThreads True if stages which run their own clients should start each on a virtual thread where
+     *            the JVM supports them.
+     */
+    public void setVirtualThreads(boolean virtualThreads)
+    {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public SodaHttpClient getHttpClient()
+    {
+        return httpClient;
+    }
+
+    /**
+     * @return The cache of responses retrieved while validating this service.
+     */
+    public ResponseCache getResponseCache()
+    {
+        return responseCache;
+    }
+
+    /**
+     * @return The stage and request timings recorded while validating this service.
+     */
+    public ServiceTimings getTimings()
+    {
+        return timings;
     }
 
 }
@@ -1,5 +1,7 @@
 package au.csiro.casda.sodalint;
 
+import java.util.concurrent.CompletableFuture;
+
 import uk.ac.starlink.ttools.taplint.Reporter;
 
 /*
@@ -34,5 +36,25 @@ public interface SodaValidationTask
      *            id of a valid data product which can be tested
      */
     public void run(final Reporter reporter, final SodaService sodaService, final String testDataProductId);
+
+    /**
+     * Start a validation task which may carry on after this returns, such as a task which waits for a remote job.
+     * Tasks which only run on the calling thread do not need to override this, as by default the task is run before
+     * this returns.
+     * 
+     * @param reporter
+     *            validation message destination
+     * @param sodaService
+     *            SODA service description
+     * @param testDataProductId
+     *            id of a valid data product which can be tested
+     * @return A future completed when the task has finished.
+     */
+    public default CompletableFuture<Void> start(final Reporter reporter, final SodaService sodaService,
+            final String testDataProductId)
+    {
+        run(reporter, sodaService, testDataProductId);
+        return CompletableFuture.completedFuture(null);
+    }
     
 }
@@ -1,7 +1,12 @@
 package au.csiro.casda.sodalint;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import uk.ac.starlink.ttools.taplint.AdhocCode;
 import uk.ac.starlink.ttools.taplint.ReportType;
@@ -20,7 +25,8 @@ import uk.ac.starlink.ttools.taplint.Reporter;
  */
 
 /**
- * SODA Lint test stage. Each stage has a code which is how it is reported and requested by the caller.
+ * SODA Lint test stage. Each stage has a code which is how it is reported and requested by the caller. A stage may
+ * list prerequisite stages which must complete before it is run, as they populate the SodaService it relies on.
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
@@ -35,23 +41,29 @@ public enum Stage
     /** Validate the examples document (not yet supported) */
     EXAMPLES("EXM", null),
     /** Validate the service description in the capabilities document. */
-    SERVICE_DESC("SVD", new ValidateServiceDescriptor()),
+    SERVICE_DESC("SVD", new ValidateServiceDescriptor(), CAPABILITIES),
     /** Test an error response. */
     ERR_VAL("ERR", null),
     /** Validate the sync endpoint. */
-    SYNC("SYN", new ValidateSync()),
+    SYNC("SYN", new ValidateSync(), CAPABILITIES),
     /** Validate the async endpoint. */
-    ASYNC("ASY", new ValidateAsync());
+    ASYNC("ASY", new ValidateAsync(), CAPABILITIES),
+    /** Exercise the sync endpoint with cutouts across the parameter space declared by the service descriptor. */
+    CUTOUTS("CUT", new ExerciseCutouts(), CAP_XML, CAPABILITIES, AVAIL_XML, SERVICE_DESC, SYNC, ASYNC),
+    /** Load test the sync endpoint, once the other stages have completed so their timings are not affected. */
+    LOAD("LOD", new LoadTestSync(), CAP_XML, CAPABILITIES, AVAIL_XML, SERVICE_DESC, SYNC, ASYNC, CUTOUTS);
 
     private static Map<String, Stage> codeMap;
 
     private final String code;
     private final SodaValidationTask stageClass;
+    private final List<Stage> prerequisites;
 
-    private Stage(String code, SodaValidationTask stageClass)
+    private Stage(String code, SodaValidationTask stageClass, Stage... prerequisites)
     {
         this.code = code;
         this.stageClass = stageClass;
+        this.prerequisites = Collections.unmodifiableList(Arrays.asList(prerequisites));
     }
 
     public String getCode()
@@ -60,7 +72,16 @@ public enum Stage
     }
 
     /**
-     * Run the validation for this stage.
+     * @return The stages which must have completed before this stage is run, if they have been requested.
+     */
+    public List<Stage> getPrerequisites()
+    {
+        return prerequisites;
+    }
+
+    /**
+     * Start the validation for this stage. A stage which waits for a remote job carries on after this returns. The
+     * wall time of the stage is reported at the end of the stage and recorded in the service timings.
      * 
      * @param reporter
      *            validation message destination
@@ -68,17 +89,36 @@ public enum Stage
      *            SODA service description
      * @param testDataProductId
      *            id of a valid data product which can be tested
+     * @return A future completed when the stage has finished.
      */
-    public void run(final Reporter reporter, final SodaService sodaService, final String testDataProductId)
+    public CompletableFuture<Void> start(final Reporter reporter, final SodaService sodaService,
+            final String testDataProductId)
     {
-        if (stageClass != null)
+        if (stageClass == null)
         {
-            stageClass.run(reporter, sodaService, testDataProductId);
+            reporter.report(new AdhocCode(ReportType.FAILURE, "STAG"), "No validator implmented for stage " + code);
+            return CompletableFuture.completedFuture(null);
         }
-        else
+
+        final long start = System.nanoTime();
+        CompletableFuture<Void> completion;
+        try
         {
-            reporter.report(new AdhocCode(ReportType.FAILURE, "STAG"), "No validator implmented for stage " + code);
+            completion = stageClass.start(reporter, sodaService, testDataProductId);
+        }
+        catch (RuntimeException e)
+        {
+            recordTime(reporter, sodaService, start);
+            throw e;
         }
+        return completion.whenComplete((result, err) -> recordTime(reporter, sodaService, start));
+    }
+
+    private void recordTime(Reporter reporter, SodaService sodaService, long start)
+    {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        sodaService.getTimings().recordStage(this, millis);
+        reporter.report(SodaCode.I_TIME, "Stage " + code + " completed in " + millis + " ms");
     }
 
     /**
@@ -0,0 +1,338 @@
+package au.csiro.casda.sodalint;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.starlink.ttools.taplint.HoldReporter;
+import uk.ac.starlink.ttools.taplint.OutputReporter;
+import uk.ac.starlink.ttools.taplint.ReportCode;
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Runs a set of stages against a SODA service, running stages concurrently where their prerequisites allow. If the
+ * reporter is a {@link StreamingOutputReporter}, such as the JSON reporter, each message is written as soon as it is
+ * reported, in a section of its own stage. Otherwise the messages of each stage are held until it completes and are
+ * then written to the reporter in stage order, so the output is the same as if the stages had been run one after the
+ * other.
+ * <p>
+ * A stage which waits for a remote job, such as the async stage, returns its thread to the pool while it waits and
+ * is completed when the job has been dealt with, so waiting stages do not use up the threads of other stages.
+ * <p>
+ * Each stage runs in its own {@link CancellationScope}. When a stage reaches its deadline, or the service deadline
+ * is reached, the scope is cancelled, which aborts the stage's requests and interrupts it, and the remaining stages
+ * carry on. A stage which still has not finished a short time later is abandoned and its remaining results are
+ * discarded, so a stage stuck in code which cannot be interrupted does not hold up the stages which follow it.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class StageScheduler
+{
+    private static final long ABANDON_GRACE_SECONDS = 5;
+
+    private static final ScheduledExecutorService DEADLINE_TIMER = Executors
+            .newSingleThreadScheduledExecutor(ThreadFactories.newThreadFactory("sodalint-stage-deadline-", false));
+
+    private final int maxThreads;
+    private final boolean virtualThreads;
+    private final DeadlineSettings deadlines;
+
+    /**
+     * Create a new StageScheduler instance which runs stages on platform threads.
+     *
+     * @param maxThreads
+     *            The maximum number of stages which may be run at the same time.
+     */
+    public StageScheduler(int maxThreads)
+    {
+        this(maxThreads, false);
+    }
+
+    /**
+     * Create a new StageScheduler instance.
+     *
+     * @param maxThreads
+     *            The maximum number of stages which may be run at the same time on platform threads.
+     * @param virtualThreads
+     *            True if each stage should be started on its own virtual thread where the JVM supports them.
+     */
+    public StageScheduler(int maxThreads, boolean virtualThreads)
+    {
+        this(maxThreads, virtualThreads, new DeadlineSettings());
+    }
+
+    /**
+     * Create a new StageScheduler instance.
+     *
+     * @param maxThreads
+     *            The maximum number of stages which may be run at the same time on platform threads.
+     * @param virtualThreads
+     *            True if each stage should be started on its own virtual thread where the JVM supports them.
+     * @param deadlines
+     *            The time limits of each stage and of the whole service.
+     */
+    public StageScheduler(int maxThreads, boolean virtualThreads, DeadlineSettings deadlines)
+    {
+        this.maxThreads = Math.max(1, maxThreads);
+        this.virtualThreads = virtualThreads;
+        this.deadlines = deadlines;
+    }
+
+    /**
+     * Run the stages against the service and report the results of each stage in its own section. If the reporter
+     * can stream sections, each stage writes its messages as they are reported. Otherwise they are held until the
+     * stage completes and written in stage order.
+     *
+     * @param reporter
+     *            validation message destination
+     * @param stages
+     *            The stages to be run, in reporting order.
+     * @param sodaService
+     *            SODA service description
+     * @param testDataProductId
+     *            id of a valid data product which can be tested
+     */
+    public void runStages(OutputReporter reporter, Set<Stage> stages, final SodaService sodaService,
+            final String testDataProductId)
+    {
+        if (stages.isEmpty())
+        {
+            return;
+        }
+
+        final long serviceStart = System.nanoTime();
+        ExecutorService executor = ThreadFactories.newExecutor("sodalint-stage-", Math.min(maxThreads, stages.size()),
+                virtualThreads);
+        try
+        {
+            Map<Stage, StageRun> runs = new LinkedHashMap<>();
+            for (final Stage stage : stages)
+            {
+                List<CompletableFuture<HoldReporter>> prerequisites = new ArrayList<>();
+                for (Stage prerequisite : stage.getPrerequisites())
+                {
+                    if (runs.containsKey(prerequisite))
+                    {
+                        prerequisites.add(runs.get(prerequisite).completion);
+                    }
+                }
+                OutputReporter section = reporter instanceof StreamingOutputReporter
+                        ? ((StreamingOutputReporter) reporter).openSection(stage.getCode(), stage.toString()) : null;
+                final StageRun run = new StageRun(stage, section);
+                CompletableFuture.allOf(prerequisites.toArray(new CompletableFuture<?>[prerequisites.size()]))
+                        .thenRunAsync(() -> runStage(run, sodaService, testDataProductId, serviceStart), executor)
+                        .whenComplete((result, err) -> {
+                            if (err != null)
+                            {
+                                // Finish the run even if the stage could not be started, so the service is not held
+                                run.report(SodaCode.F_CODE, "Unexpected failure running stage " + stage.getCode()
+                                        + ": ", getCause(err));
+                                run.finish();
+                            }
+                        });
+                runs.put(stage, run);
+            }
+
+            for (StageRun run : runs.values())
+            {
+                HoldReporter stageReports = run.completion.join();
+                if (stageReports != null)
+                {
+                    Stage stage = run.stage;
+                    reporter.startSection(stage.getCode(), stage.toString());
+                    stageReports.dumpReports(reporter);
+                    reporter.summariseUnreportedMessages(stage.getCode());
+                    reporter.endSection();
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runStage(StageRun run, SodaService sodaService, String testDataProductId, long serviceStart)
+    {
+        Stage stage = run.stage;
+        long stageNanos = TimeUnit.SECONDS.toNanos(deadlines.getStageSeconds());
+        long serviceNanos = TimeUnit.SECONDS.toNanos(deadlines.getServiceSeconds());
+        long serviceRemaining = serviceNanos - (System.nanoTime() - serviceStart);
+        if (serviceNanos > 0 && serviceRemaining <= 0)
+        {
+            run.report(SodaCode.E_DDLN, "Stage " + stage.getCode() + " was not run as the service deadline of "
+                    + deadlines.getServiceSeconds() + " s had been reached");
+            run.finish();
+            return;
+        }
+
+        final CancellationScope scope = new CancellationScope();
+        List<ScheduledFuture<?>> timers = new ArrayList<>();
+        if (stageNanos > 0 || serviceNanos > 0)
+        {
+            boolean stageLimited = stageNanos > 0 && (serviceNanos <= 0 || stageNanos <= serviceRemaining);
+            long timeoutNanos = stageLimited ? stageNanos : serviceRemaining;
+            final String reason = stageLimited
+                    ? "Stage " + stage.getCode() + " was cancelled after reaching its deadline of "
+                            + deadlines.getStageSeconds() + " s"
+                    : "Stage " + stage.getCode() + " was cancelled as the service deadline of "
+                            + deadlines.getServiceSeconds() + " s was reached";
+            timers.add(DEADLINE_TIMER.schedule(() -> scope.cancel(reason), timeoutNanos, TimeUnit.NANOSECONDS));
+            timers.add(DEADLINE_TIMER.schedule(() -> run.abandon(reason),
+                    timeoutNanos + TimeUnit.SECONDS.toNanos(ABANDON_GRACE_SECONDS), TimeUnit.NANOSECONDS));
+        }
+
+        CompletableFuture<Void> completion;
+        scope.enter();
+        try
+        {
+            completion = stage.start(run, sodaService, testDataProductId);
+        }
+        catch (Throwable e)
+        {
+            completion = new CompletableFuture<>();
+            completion.completeExceptionally(e);
+        }
+        finally
+        {
+            scope.exit();
+            // Clear any interrupt from the cancellation so the pool thread can be reused
+            Thread.interrupted();
+        }
+
+        completion.whenComplete((result, err) -> {
+            for (ScheduledFuture<?> timer : timers)
+            {
+                timer.cancel(false);
+            }
+            if (err != null)
+            {
+                run.report(SodaCode.F_CODE, "Unexpected failure running stage " + stage.getCode() + ": ",
+                        getCause(err));
+            }
+            if (scope.isCancelled())
+            {
+                run.report(SodaCode.E_DDLN, scope.getCancelReason());
+            }
+            run.finish();
+        });
+    }
+
+    private static Throwable getCause(Throwable err)
+    {
+        return err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+    }
+
+    /**
+     * The messages of a stage which is being run. They are either written straight to a section of the output, or
+     * held until the stage completes. Once the stage has completed, or has been abandoned, any further messages from
+     * it are discarded.
+     */
+    private static final class StageRun implements Reporter
+    {
+        private final Stage stage;
+        private final OutputReporter section;
+        private final CompletableFuture<HoldReporter> completion = new CompletableFuture<>();
+        private HoldReporter held;
+        private boolean closed;
+
+        StageRun(Stage stage, OutputReporter section)
+        {
+            this.stage = stage;
+            this.section = section;
+            this.held = section == null ? new HoldReporter() : null;
+        }
+
+        @Override
+        public void report(ReportCode code, String message)
+        {
+            report(code, message, null);
+        }
+
+        @Override
+        public synchronized void report(ReportCode code, String message, Throwable err)
+        {
+            if (closed)
+            {
+                return;
+            }
+            if (section != null)
+            {
+                section.report(code, message, err);
+            }
+            else
+            {
+                held.report(code, message, err);
+            }
+        }
+
+        /**
+         * Complete the stage, ending its section or handing over its held messages.
+         */
+        synchronized void finish()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            endSection();
+            completion.complete(held);
+        }
+
+        /**
+         * Complete a stage which did not stop when it was cancelled. Held messages are discarded, as the stage may
+         * still be changing them, while messages which have already been written remain.
+         *
+         * @param reason
+         *            The reason the stage was cancelled.
+         */
+        synchronized void abandon(String reason)
+        {
+            if (closed)
+            {
+                return;
+            }
+            String message = reason + " and did not stop within " + ABANDON_GRACE_SECONDS + " s, so its "
+                    + (section == null ? "results have" : "remaining results have") + " been discarded";
+            if (section == null)
+            {
+                held = new HoldReporter();
+            }
+            report(SodaCode.E_DDLN, message);
+            closed = true;
+            endSection();
+            completion.complete(held);
+        }
+
+        private void endSection()
+        {
+            if (section != null)
+            {
+                section.summariseUnreportedMessages(stage.getCode());
+                section.endSection();
+            }
+        }
+    }
+}
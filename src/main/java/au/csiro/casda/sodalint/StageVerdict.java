@@ -0,0 +1,77 @@
+package au.csiro.casda.sodalint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.starlink.ttools.taplint.AdhocCode;
+import uk.ac.starlink.ttools.taplint.ReportType;
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The messages reported by a stage for a document, along with any facts the stage derived from the document which
+ * later stages rely on. A verdict can be replayed in a later run when the document has not changed.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class StageVerdict
+{
+    private final List<String[]> reports;
+    private final Map<String, String> facts;
+
+    /**
+     * Create a new StageVerdict instance.
+     *
+     * @param reports
+     *            The reports, each held as the type character, label and message.
+     * @param facts
+     *            The facts derived from the document.
+     */
+    public StageVerdict(List<String[]> reports, Map<String, String> facts)
+    {
+        this.reports = Collections.unmodifiableList(new ArrayList<>(reports));
+        this.facts = Collections.unmodifiableMap(new LinkedHashMap<>(facts));
+    }
+
+    /**
+     * @return The reports, each held as the type character, label and message.
+     */
+    public List<String[]> getReports()
+    {
+        return reports;
+    }
+
+    public Map<String, String> getFacts()
+    {
+        return facts;
+    }
+
+    /**
+     * Report each of the recorded messages again.
+     *
+     * @param reporter
+     *            validation message destination
+     */
+    public void replay(Reporter reporter)
+    {
+        for (String[] report : reports)
+        {
+            ReportType type = ReportType.forChar(report[0].charAt(0));
+            reporter.report(new AdhocCode(type, report[1]), report[2]);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package au.csiro.casda.sodalint;
+
+import uk.ac.starlink.ttools.taplint.OutputReporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * An output reporter whose messages each name their own section, so several sections can be written at the same time
+ * without holding their messages back to keep the sections in order.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public interface StreamingOutputReporter extends OutputReporter
+{
+    /**
+     * Open a section whose messages are written to the output as soon as they are reported. The section is ended by
+     * calling summariseUnreportedMessages and endSection on the returned reporter, and does not change the current
+     * section of this reporter.
+     *
+     * @param code
+     *            The code of the section, e.g. the stage code.
+     * @param description
+     *            The description of the section.
+     * @return The reporter for the section, or null if this reporter cannot write sections concurrently, in which
+     *         case the caller must hold the messages of each section and report them in order.
+     */
+    OutputReporter openSection(String code, String description);
+}
@@ -0,0 +1,300 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import uk.ac.starlink.ttools.taplint.Reporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A UWS job created on an async endpoint. Redirects are not followed for the requests which change the job, so
+ * that the redirect the UWS standard requires can be checked.
+ * <p>
+ * Each request about the job is timed and recorded in the service timings, and its timing is reported to the stage
+ * following the job. Requests which fail are timed and reported too, along with the error.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class UwsJob
+{
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_NO_CONTENT = 204;
+    private static final int STATUS_SEE_OTHER = 303;
+
+    private final SodaService sodaService;
+    private final Reporter reporter;
+    private final URL jobUrl;
+
+    /**
+     * Create a new UwsJob instance for an existing job.
+     *
+     * @param sodaService
+     *            The service the job belongs to, whose client makes the requests and whose timings record them.
+     * @param reporter
+     *            The destination for the timings of the requests.
+     * @param jobUrl
+     *            The url of the job.
+     */
+    public UwsJob(SodaService sodaService, Reporter reporter, URL jobUrl)
+    {
+        this.sodaService = sodaService;
+        this.reporter = reporter;
+        this.jobUrl = jobUrl;
+    }
+
+    /**
+     * Create a new job by posting the parameters to the async endpoint. The job is left in the PENDING phase.
+     *
+     * @param sodaService
+     *            The service the job belongs to, whose client makes the requests and whose timings record them.
+     * @param reporter
+     *            The destination for the timings of the requests.
+     * @param asyncUrl
+     *            The url of the async endpoint.
+     * @param params
+     *            The parameters of the job.
+     * @return The new job.
+     * @throws IOException
+     *             If the job could not be created, or the endpoint did not redirect to the new job.
+     */
+    public static UwsJob submit(SodaService sodaService, Reporter reporter, URL asyncUrl,
+            List<NameValuePair> params) throws IOException
+    {
+        HttpPost post = new HttpPost(asyncUrl.toString());
+        post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+        CachedResponse response = send(sodaService, reporter, post, false);
+        int statusCode = response.getStatusCode();
+        String location = response.getFirstHeader("Location");
+        if (statusCode != STATUS_SEE_OTHER || location == null)
+        {
+            throw new HttpResponseException(statusCode, "Expected a 303 redirect to the new job but received "
+                    + statusCode + " " + response.getReasonPhrase());
+        }
+        try
+        {
+            return new UwsJob(sodaService, reporter, new URL(asyncUrl, location));
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IOException("Invalid job location " + location, e);
+        }
+    }
+
+    public URL getJobUrl()
+    {
+        return jobUrl;
+    }
+
+    /**
+     * Read the current status of the job.
+     *
+     * @return The job status.
+     * @throws IOException
+     *             If the job document could not be read.
+     */
+    public UwsJobStatus getStatus() throws IOException
+    {
+        return readStatus(jobUrl.toString());
+    }
+
+    /**
+     * Read the status of the job once it has left a phase, using the UWS blocking behaviour. Services which do not
+     * support blocking return the current status straight away.
+     *
+     * @param phase
+     *            The phase the job is expected to leave.
+     * @param waitSeconds
+     *            The longest time the service should wait for the phase to change.
+     * @return The job status.
+     * @throws IOException
+     *             If the job document could not be read.
+     */
+    public UwsJobStatus waitForPhaseChange(String phase, int waitSeconds) throws IOException
+    {
+        String separator = jobUrl.getQuery() == null ? "?" : "&";
+        return readStatus(jobUrl.toString() + separator + "WAIT=" + waitSeconds + "&PHASE=" + phase);
+    }
+
+    /**
+     * Ask the service to run the job.
+     *
+     * @throws IOException
+     *             If the request was not accepted.
+     */
+    public void run() throws IOException
+    {
+        HttpPost post = new HttpPost(getJobPath("phase"));
+        post.setEntity(
+                new UrlEncodedFormEntity(Collections.singletonList(new BasicNameValuePair("PHASE", "RUN")), "UTF-8"));
+        checkStatus(send(sodaService, reporter, post, false), STATUS_SEE_OTHER, STATUS_OK);
+    }
+
+    /**
+     * Read a result of the job, discarding the content as it is read.
+     *
+     * @param resultUrl
+     *            The address of the result.
+     * @return The number of bytes in the result.
+     * @throws IOException
+     *             If the result could not be read.
+     */
+    public long readResult(String resultUrl) throws IOException
+    {
+        String address = new URL(jobUrl, resultUrl).toString();
+        RequestTiming timing = new RequestTiming(address);
+        long total = 0;
+        boolean recorded = false;
+        try (CloseableHttpResponse response = sodaService.getHttpClient().execute(new HttpGet(address), timing))
+        {
+            int statusCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (statusCode == STATUS_OK && entity != null)
+            {
+                final int bufferSize = 8192;
+                byte[] buffer = new byte[bufferSize];
+                try (InputStream content = entity.getContent())
+                {
+                    for (int count = content.read(buffer); count >= 0; count = content.read(buffer))
+                    {
+                        total += count;
+                    }
+                }
+            }
+            timing.bodyRead(total);
+            recordTiming(sodaService, reporter, timing);
+            recorded = true;
+            if (statusCode != STATUS_OK)
+            {
+                throw new HttpResponseException(statusCode, response.getStatusLine().getReasonPhrase());
+            }
+            return total;
+        }
+        catch (IOException e)
+        {
+            if (!recorded)
+            {
+                timing.failed(e);
+                recordTiming(sodaService, reporter, timing);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Delete the job from the service.
+     *
+     * @throws IOException
+     *             If the request was not accepted.
+     */
+    public void delete() throws IOException
+    {
+        checkStatus(send(sodaService, reporter, new HttpDelete(jobUrl.toString()), false), STATUS_SEE_OTHER,
+                STATUS_OK, STATUS_NO_CONTENT);
+    }
+
+    @Override
+    public String toString()
+    {
+        return jobUrl.toString();
+    }
+
+    private UwsJobStatus readStatus(String address) throws IOException
+    {
+        CachedResponse response = send(sodaService, reporter, new HttpGet(address), true);
+        checkStatus(response, STATUS_OK);
+        HttpEntity entity = response.getEntity();
+        if (entity == null)
+        {
+            throw new IOException("Job document has no content");
+        }
+        try (InputStream content = entity.getContent())
+        {
+            return UwsJobStatus.parse(content);
+        }
+    }
+
+    private String getJobPath(String child)
+    {
+        String address = jobUrl.toString();
+        return (address.endsWith("/") ? address : address + "/") + child;
+    }
+
+    /**
+     * Send a request about the job and read the whole response, which for these requests is at most a small job
+     * document. The request is timed whether or not it succeeds.
+     */
+    private static CachedResponse send(SodaService sodaService, Reporter reporter, HttpRequestBase request,
+            boolean followRedirects) throws IOException
+    {
+        SodaHttpClient httpClient = sodaService.getHttpClient();
+        if (!followRedirects)
+        {
+            request.setConfig(RequestConfig.copy(httpClient.getRequestConfig()).setRedirectsEnabled(false).build());
+        }
+        RequestTiming timing = new RequestTiming(request.getMethod(), request.getURI().toString());
+        try (CloseableHttpResponse response = httpClient.execute(request, timing))
+        {
+            HttpEntity entity = response.getEntity();
+            byte[] body = entity == null ? null : EntityUtils.toByteArray(entity);
+            timing.bodyRead(body == null ? 0 : body.length);
+            recordTiming(sodaService, reporter, timing);
+            return new CachedResponse(response.getStatusLine().getStatusCode(),
+                    response.getStatusLine().getReasonPhrase(), response.getAllHeaders(),
+                    entity == null ? null : ContentType.getOrDefault(entity), body);
+        }
+        catch (IOException e)
+        {
+            timing.failed(e);
+            recordTiming(sodaService, reporter, timing);
+            throw e;
+        }
+    }
+
+    private static void recordTiming(SodaService sodaService, Reporter reporter, RequestTiming timing)
+    {
+        sodaService.getTimings().recordRequest(timing);
+        reporter.report(SodaCode.I_HTTP, timing.toString());
+    }
+
+    private static void checkStatus(CachedResponse response, int... expectedCodes) throws HttpResponseException
+    {
+        int statusCode = response.getStatusCode();
+        for (int expected : expectedCodes)
+        {
+            if (statusCode == expected)
+            {
+                return;
+            }
+        }
+        throw new HttpResponseException(statusCode, response.getReasonPhrase());
+    }
+}
@@ -0,0 +1,186 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Follows UWS jobs until they finish. Each poll asks the service to block until the phase changes, using the UWS WAIT
+ * parameter. If a service answers straight away with the phase unchanged, as services without WAIT support do, the
+ * next poll is scheduled after a delay which grows up to a limit rather than sleeping. Polls run on threads which are
+ * only held while a request is in progress, so no stage thread waits for a job.
+ * <p>
+ * Where virtual threads are supported each poll runs on its own virtual thread, so any number of jobs across many
+ * services can be long polled at once. On earlier Java versions the polls share a fixed pool of
+ * {@value #POLLER_THREADS} platform threads, each held for up to {@value #WAIT_SECONDS} seconds by a long poll. Only
+ * {@value #MAX_LONG_POLLS} long polls are made at once, and while they are all in progress other jobs are polled
+ * without WAIT, so the pool is never filled by blocked requests and every job is still followed.
+ * <p>
+ * A job is followed in the {@link CancellationScope} of the code which started following it, so cancelling the
+ * scope aborts the poll in progress and stops following the job.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public final class UwsJobPoller
+{
+    /** The longest time in seconds a service is asked to block for a phase change. */
+    static final int WAIT_SECONDS = 10;
+
+    /** The number of platform threads polling jobs where virtual threads are not supported. */
+    static final int POLLER_THREADS = 16;
+
+    /** The most long polls in progress at once where virtual threads are not supported. */
+    static final int MAX_LONG_POLLS = 12;
+
+    private static final long MIN_DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 10000;
+
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(ThreadFactories.newThreadFactory("sodalint-uws-timer-", false));
+
+    private static final ExecutorService POLLERS = ThreadFactories.newExecutor("sodalint-uws-", POLLER_THREADS, true);
+
+    private static final Semaphore LONG_POLLS = ThreadFactories.isVirtualThreadSupported() ? null
+            : new Semaphore(MAX_LONG_POLLS);
+
+    private UwsJobPoller()
+    {
+    }
+
+    /**
+     * Follow a job until it reaches a final phase. The returned future is completed on a polling thread, so work
+     * which follows it does not hold up the polling of other jobs. Cancelling the returned future stops the polling.
+     *
+     * @param job
+     *            The job to be followed.
+     * @param phase
+     *            The last known phase of the job.
+     * @param timeoutSeconds
+     *            The longest time in seconds the job is followed.
+     * @return A future completed with the final status of the job, or with the error which stopped it being read. A
+     *         TimeoutException is given if the job did not finish in time, and a CancellationException if the scope
+     *         was cancelled.
+     */
+    public static CompletableFuture<UwsJobStatus> waitForCompletion(UwsJob job, String phase, final int timeoutSeconds)
+    {
+        final CompletableFuture<UwsJobStatus> result = new CompletableFuture<>();
+        final CancellationScope scope = CancellationScope.current();
+        final ScheduledFuture<?> timeout = SCHEDULER.schedule(
+                () -> complete(result, new TimeoutException("Job did not finish within " + timeoutSeconds + " s")),
+                timeoutSeconds, TimeUnit.SECONDS);
+        result.whenComplete((status, err) -> timeout.cancel(false));
+        if (scope != null)
+        {
+            scope.onCancel(() -> complete(result, new CancellationException(scope.getCancelReason())));
+        }
+        POLLERS.execute(new PollTask(job, phase, result, scope, 0));
+        return result;
+    }
+
+    private static void complete(final CompletableFuture<UwsJobStatus> result, final Throwable err)
+    {
+        POLLERS.execute(() -> result.completeExceptionally(err));
+    }
+
+    /**
+     * A single poll of a job, which schedules the next poll if the job has not finished.
+     */
+    private static class PollTask implements Runnable
+    {
+        private final UwsJob job;
+        private final String phase;
+        private final CompletableFuture<UwsJobStatus> result;
+        private final CancellationScope scope;
+        private final long delayMillis;
+
+        PollTask(UwsJob job, String phase, CompletableFuture<UwsJobStatus> result, CancellationScope scope,
+                long delayMillis)
+        {
+            this.job = job;
+            this.phase = phase;
+            this.result = result;
+            this.scope = scope;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void run()
+        {
+            if (result.isDone())
+            {
+                return;
+            }
+            CancellationScope.runIn(scope, this::poll);
+        }
+
+        private void poll()
+        {
+            try
+            {
+                long start = System.nanoTime();
+                UwsJobStatus status;
+                if (LONG_POLLS == null)
+                {
+                    status = job.waitForPhaseChange(phase, WAIT_SECONDS);
+                }
+                else if (LONG_POLLS.tryAcquire())
+                {
+                    try
+                    {
+                        status = job.waitForPhaseChange(phase, WAIT_SECONDS);
+                    }
+                    finally
+                    {
+                        LONG_POLLS.release();
+                    }
+                }
+                else
+                {
+                    // Every long poll is in use, so check the job now and back off as for a service without WAIT
+                    status = job.getStatus();
+                }
+                if (status.isFinished())
+                {
+                    result.complete(status);
+                    return;
+                }
+
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (!status.getPhase().equals(phase) || elapsedMillis >= MIN_DELAY_MILLIS)
+                {
+                    // The service blocked or the job moved on, so ask again straight away
+                    POLLERS.execute(new PollTask(job, status.getPhase(), result, scope, 0));
+                }
+                else
+                {
+                    long nextDelay = Math.min(MAX_DELAY_MILLIS, Math.max(MIN_DELAY_MILLIS, delayMillis * 2));
+                    final PollTask next = new PollTask(job, phase, result, scope, nextDelay);
+                    SCHEDULER.schedule(() -> POLLERS.execute(next), nextDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
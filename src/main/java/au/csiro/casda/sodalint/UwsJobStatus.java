@@ -0,0 +1,151 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The state of a UWS job, as read from its job document.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class UwsJobStatus
+{
+    /** The phase of a job which has been created but not yet run. */
+    public static final String PHASE_PENDING = "PENDING";
+
+    /** The phase of a job which has completed successfully. */
+    public static final String PHASE_COMPLETED = "COMPLETED";
+
+    private static final Set<String> FINAL_PHASES =
+            new HashSet<>(Arrays.asList(PHASE_COMPLETED, "ERROR", "ABORTED", "ARCHIVED"));
+
+    private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+    private final String phase;
+    private final List<String> resultUrls;
+    private final String errorMessage;
+
+    /**
+     * Create a new UwsJobStatus instance.
+     *
+     * @param phase
+     *            The phase of the job.
+     * @param resultUrls
+     *            The addresses of the job's results.
+     * @param errorMessage
+     *            The message of the job's error summary, may be null.
+     */
+    public UwsJobStatus(String phase, List<String> resultUrls, String errorMessage)
+    {
+        this.phase = phase;
+        this.resultUrls = Collections.unmodifiableList(new ArrayList<>(resultUrls));
+        this.errorMessage = errorMessage;
+    }
+
+    public String getPhase()
+    {
+        return phase;
+    }
+
+    public List<String> getResultUrls()
+    {
+        return resultUrls;
+    }
+
+    public String getErrorMessage()
+    {
+        return errorMessage;
+    }
+
+    /**
+     * @return True if the job has reached a phase it will not leave.
+     */
+    public boolean isFinished()
+    {
+        return FINAL_PHASES.contains(phase);
+    }
+
+    /**
+     * Read the status of a job from its job document. Elements are matched by local name so that documents from
+     * both UWS 1.0 and 1.1 services can be read.
+     *
+     * @param jobDocument
+     *            The job document stream.
+     * @return The status of the job.
+     * @throws IOException
+     *             If the document cannot be read, or has no phase.
+     */
+    public static UwsJobStatus parse(InputStream jobDocument) throws IOException
+    {
+        String phase = null;
+        String errorMessage = null;
+        List<String> resultUrls = new ArrayList<>();
+        try
+        {
+            XMLStreamReader reader = XmlRegistry.getXmlInputFactory().createXMLStreamReader(jobDocument);
+            try
+            {
+                while (reader.hasNext())
+                {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    {
+                        continue;
+                    }
+                    String name = reader.getLocalName();
+                    if ("phase".equals(name))
+                    {
+                        phase = reader.getElementText().trim();
+                    }
+                    else if ("result".equals(name))
+                    {
+                        String href = reader.getAttributeValue(XLINK_NAMESPACE, "href");
+                        if (href != null)
+                        {
+                            resultUrls.add(href.trim());
+                        }
+                    }
+                    else if ("message".equals(name))
+                    {
+                        errorMessage = reader.getElementText().trim();
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IOException("Unable to parse job document: " + e.getMessage(), e);
+        }
+
+        if (phase == null || phase.isEmpty())
+        {
+            throw new IOException("Job document has no phase");
+        }
+        return new UwsJobStatus(phase, resultUrls, errorMessage);
+    }
+}
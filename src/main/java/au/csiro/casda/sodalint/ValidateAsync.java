@@ -4,11 +4,17 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
-import javax.xml.xpath.XPathExpressionException;
-
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpResponseException;
-import org.w3c.dom.Node;
+import org.apache.http.message.BasicNameValuePair;
 
 import uk.ac.starlink.ttools.taplint.Reporter;
 
@@ -25,38 +31,56 @@ import uk.ac.starlink.ttools.taplint.Reporter;
  */
 
 /**
- * Validate the async endpoint.
+ * Validate the async endpoint. If a test data product id is supplied, a job to retrieve the product is created, run
+ * and followed through its UWS lifecycle until it finishes, its results are read and the job is then deleted. The
+ * stage does not hold a thread while the job runs, as the job is followed by the {@link UwsJobPoller}.
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
 public class ValidateAsync extends Validator implements SodaValidationTask
 {
+    /** The longest time in seconds a job is followed before it is reported as not finishing. */
+    static final int JOB_TIMEOUT_SECONDS = 300;
 
     /** {@inheritDoc} */
 
     @Override
     public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
     {
-        Node asyncNode = sodaService.getAsyncServiceNode();
+        start(reporter, sodaService, testDataProductId).join();
+    }
+
+    /**
+     * Start validating the async endpoint. The job is followed by the {@link UwsJobPoller}, so the calling thread is
+     * not held while the job runs, and its results are read and the job deleted once it has finished.
+     * 
+     * @param reporter
+     *            validation message destination
+     * @param sodaService
+     *            SODA service description
+     * @param testDataProductId
+     *            id of a valid data product which can be tested
+     * @return A future completed once the job has been deleted.
+     */
+    @Override
+    public CompletableFuture<Void> start(Reporter reporter, SodaService sodaService, String testDataProductId)
+    {
+        SodaCapability asyncCapability = sodaService.getAsyncCapability();
 
-        if (asyncNode == null)
+        if (asyncCapability == null)
         {
             reporter.report(SodaCode.I_ASNO, "No async SODA endpoint to test.");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         try
         {
-            URL asyncUrl = sodaService.getUrlFromCapabilityNode(asyncNode);
+            URL asyncUrl = asyncCapability.getAccessUrl();
             reporter.report(SodaCode.I_VURL, "Validating URL: " + asyncUrl);
             // Check endpoint exists
-            getAsyncContent(reporter, asyncUrl);
-        }
-        catch (XPathExpressionException e)
-        {
-            reporter.report(SodaCode.F_CODE, "Validate async coding error: ", e);
+            getAsyncContent(reporter, sodaService, asyncUrl);
 
-            e.printStackTrace();
+            return startJobLifecycle(reporter, sodaService, asyncUrl, testDataProductId);
         }
         catch (MalformedURLException e)
         {
@@ -64,13 +88,14 @@ public class ValidateAsync extends Validator implements SodaValidationTask
 
             e.printStackTrace();
         }
+        return CompletableFuture.completedFuture(null);
     }
 
-    private String getAsyncContent(final Reporter reporter, URL address)
+    private String getAsyncContent(final Reporter reporter, SodaService sodaService, URL address)
     {
         try
         {
-            String content = getXmlContentFromUrl(address.toString());
+            String content = getXmlContentFromUrl(reporter, sodaService, address.toString());
             if (content == null)
             {
                 reporter.report(SodaCode.E_ASCO, "Async response contains no content");
@@ -93,4 +118,133 @@ public class ValidateAsync extends Validator implements SodaValidationTask
 
         return null;
     }
+
+    private CompletableFuture<Void> startJobLifecycle(final Reporter reporter, SodaService sodaService, URL asyncUrl,
+            String testDataProductId)
+    {
+        if (StringUtils.isBlank(testDataProductId))
+        {
+            reporter.report(SodaCode.I_ASNI, "No test data product id supplied, so async jobs will not be tested.");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final UwsJob job;
+        try
+        {
+            List<NameValuePair> params = Collections.singletonList(new BasicNameValuePair("ID", testDataProductId));
+            job = UwsJob.submit(sodaService, reporter, asyncUrl, params);
+            reporter.report(SodaCode.I_ASJB, "Created async job " + job);
+        }
+        catch (IOException e)
+        {
+            reporter.report(SodaCode.E_ASJC, "Unable to create async job for " + testDataProductId + ": "
+                    + e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        UwsJobStatus status;
+        try
+        {
+            status = job.getStatus();
+            if (!UwsJobStatus.PHASE_PENDING.equals(status.getPhase()))
+            {
+                reporter.report(SodaCode.E_ASJP, "New async job should be in phase " + UwsJobStatus.PHASE_PENDING
+                        + " but is " + status.getPhase());
+            }
+
+            job.run();
+        }
+        catch (IOException e)
+        {
+            reporter.report(SodaCode.E_ASJP, "Unable to run async job " + job + ": " + e.getMessage());
+            deleteJob(reporter, job);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CancellationScope scope = CancellationScope.current();
+        return UwsJobPoller.waitForCompletion(job, status.getPhase(), JOB_TIMEOUT_SECONDS)
+                .handle((finalStatus, err) -> {
+                    CancellationScope.runIn(scope, () -> finishJob(reporter, job, finalStatus, err));
+                    return null;
+                });
+    }
+
+    private void finishJob(Reporter reporter, UwsJob job, UwsJobStatus status, Throwable err)
+    {
+        try
+        {
+            Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+            CancellationScope scope = CancellationScope.current();
+            if (cause == null)
+            {
+                reporter.report(SodaCode.I_ASJB, "Async job " + job + " finished in phase " + status.getPhase());
+                checkResults(reporter, job, status);
+            }
+            else if (scope != null && scope.isCancelled())
+            {
+                // The poll in progress may have been aborted before the cancellation reached the poller
+                reporter.report(SodaCode.E_ASJT,
+                        "Stopped waiting for async job " + job + ": " + scope.getCancelReason());
+            }
+            else if (cause instanceof TimeoutException)
+            {
+                reporter.report(SodaCode.E_ASJT,
+                        "Async job " + job + " did not finish within " + JOB_TIMEOUT_SECONDS + " seconds");
+            }
+            else if (cause instanceof CancellationException)
+            {
+                reporter.report(SodaCode.E_ASJT, "Stopped waiting for async job " + job + ": " + cause.getMessage());
+            }
+            else
+            {
+                reporter.report(SodaCode.E_ASJP, "Unable to read status of async job " + job + ": "
+                        + cause.getMessage());
+            }
+        }
+        finally
+        {
+            deleteJob(reporter, job);
+        }
+    }
+
+    private void checkResults(Reporter reporter, UwsJob job, UwsJobStatus status)
+    {
+        if (!UwsJobStatus.PHASE_COMPLETED.equals(status.getPhase()))
+        {
+            String message = status.getErrorMessage() == null ? "" : ": " + status.getErrorMessage();
+            reporter.report(SodaCode.E_ASJE, "Async job " + job + " ended in phase " + status.getPhase() + message);
+            return;
+        }
+        if (status.getResultUrls().isEmpty())
+        {
+            reporter.report(SodaCode.E_ASJR, "Completed async job " + job + " has no results");
+            return;
+        }
+
+        for (String resultUrl : status.getResultUrls())
+        {
+            try
+            {
+                long bytes = job.readResult(resultUrl);
+                reporter.report(SodaCode.I_ASJB, "Read async job result " + resultUrl + ": " + bytes + " bytes");
+            }
+            catch (IOException e)
+            {
+                reporter.report(SodaCode.E_ASJR, "Unable to read async job result " + resultUrl + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    private void deleteJob(Reporter reporter, UwsJob job)
+    {
+        try
+        {
+            job.delete();
+        }
+        catch (IOException e)
+        {
+            reporter.report(SodaCode.W_ASJD, "Unable to delete async job " + job + ": " + e.getMessage());
+        }
+    }
 }
@@ -1,11 +1,8 @@
 package au.csiro.casda.sodalint;
 
-import java.net.URL;
+import java.util.Collections;
 
-import uk.ac.starlink.ttools.taplint.IvoaSchemaResolver;
 import uk.ac.starlink.ttools.taplint.Reporter;
-import uk.ac.starlink.ttools.taplint.XsdStage;
-import uk.ac.starlink.vo.TapService;
 
 /*
  * #%L
@@ -20,7 +17,7 @@ import uk.ac.starlink.vo.TapService;
  */
 
 /**
- * Validate the SODA availability document against the XML schema.
+ * Validate the SODA availability document against the IVOA XML schemas shipped with taplint.
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
@@ -31,16 +28,22 @@ public class ValidateAvailabilityXsd implements SodaValidationTask
     @Override
     public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
     {
-        XsdStage tcapXsdStage = new XsdStage(IvoaSchemaResolver.AVAILABILITY_URI, "availability", true, "availability")
+        BaseEndpointSet endpointSet = new BaseEndpointSet(sodaService.getServiceUrl());
+        ResponseCache responseCache = sodaService.getResponseCache();
+        String address = endpointSet.getAvailabilityEndpoint().toString();
+        StageVerdict verdict = responseCache.getCachedVerdict(address, Stage.AVAIL_XML.getCode(), reporter);
+        if (verdict != null)
         {
-            public URL getDocumentUrl(TapService endpointSet)
-            {
-                return endpointSet.getAvailabilityEndpoint();
-            }
-        };
+            verdict.replay(reporter);
+            return;
+        }
 
-        BaseEndpointSet endpointSet = new BaseEndpointSet(sodaService.getServiceUrl());
-        tcapXsdStage.run(reporter, endpointSet);
+        RecordingReporter recorder = new RecordingReporter(reporter);
+        SchemaDocumentValidator validator =
+                new SchemaDocumentValidator(IvoaSchemaCache.AVAILABILITY_NAMESPACE, "availability", true);
+        validator.validate(recorder, responseCache, address);
+        responseCache.storeVerdict(address, Stage.AVAIL_XML.getCode(),
+                recorder.getVerdict(Collections.<String, String> emptyMap()));
     }
 
 }
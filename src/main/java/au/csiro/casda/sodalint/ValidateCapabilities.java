@@ -1,28 +1,25 @@
 package au.csiro.casda.sodalint;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpResponseException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import uk.ac.starlink.ttools.taplint.FixedCode;
 import uk.ac.starlink.ttools.taplint.Reporter;
-import uk.ac.starlink.ttools.taplint.TextOutputReporter;
 
 /*
  * #%L
@@ -37,46 +34,85 @@ import uk.ac.starlink.ttools.taplint.TextOutputReporter;
  */
 
 /**
- * Validate the capabilities end point.
+ * Validate the capabilities end point. The capabilities document is read in a single streaming pass which extracts
+ * only the capability, interface and accessURL details needed by the later stages.
  * 
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
 public class ValidateCapabilities extends Validator implements SodaValidationTask
 {
-
     /** {@inheritDoc} */
     @Override
     public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
     {
-        String xmlContent = getCapabilities(reporter, sodaService.getServiceUrl());
-        if (StringUtils.isNotBlank(xmlContent))
+        String address = new BaseEndpointSet(sodaService.getServiceUrl()).getCapabilitiesEndpoint().toString();
+        ResponseCache responseCache = sodaService.getResponseCache();
+        StageVerdict verdict = responseCache.getCachedVerdict(address, Stage.CAPABILITIES.getCode(), reporter);
+        if (verdict != null)
+        {
+            verdict.replay(reporter);
+            sodaService.setSyncCapability(readCapabilityFact(verdict.getFacts(), "sync"));
+            sodaService.setAsyncCapability(readCapabilityFact(verdict.getFacts(), "async"));
+            return;
+        }
+
+        RecordingReporter recorder = new RecordingReporter(reporter);
+        HttpEntity entity = getCapabilities(recorder, sodaService, address);
+        if (entity != null)
         {
-            validateCapabilities(reporter, xmlContent, sodaService);
+            try (InputStream is = entity.getContent())
+            {
+                validateCapabilities(recorder, is, sodaService);
+            }
+            catch (IOException e)
+            {
+                recorder.report(FixedCode.E_CPIO, "Error reading capabilities metadata", e);
+            }
         }
-        TextOutputReporter textOutputReporter = (TextOutputReporter)reporter;
-        textOutputReporter.summariseUnreportedMessages(textOutputReporter.getSectionCode());
+
+        Map<String, String> facts = new LinkedHashMap<>();
+        writeCapabilityFact(facts, "sync", sodaService.getSyncCapability());
+        writeCapabilityFact(facts, "async", sodaService.getAsyncCapability());
+        responseCache.storeVerdict(address, Stage.CAPABILITIES.getCode(), recorder.getVerdict(facts));
     }
 
-    private String getCapabilities(final Reporter reporter, URL serviceUrl)
+    private static void writeCapabilityFact(Map<String, String> facts, String prefix, SodaCapability capability)
     {
-        String baseUrl = serviceUrl.toString();
-        if (!baseUrl.endsWith("/"))
+        if (capability == null)
         {
-            baseUrl += "/";
+            return;
         }
+        facts.put(prefix + ".standardId", StringUtils.defaultString(capability.getStandardId()));
+        facts.put(prefix + ".interfaceCount", String.valueOf(capability.getInterfaceCount()));
+        if (capability.getAccessUrlText() != null)
+        {
+            facts.put(prefix + ".accessUrl", capability.getAccessUrlText());
+        }
+    }
 
-        String address = baseUrl + "capabilities";
+    private static SodaCapability readCapabilityFact(Map<String, String> facts, String prefix)
+    {
+        if (!facts.containsKey(prefix + ".interfaceCount"))
+        {
+            return null;
+        }
+        return new SodaCapability(facts.get(prefix + ".standardId"),
+                Integer.parseInt(facts.get(prefix + ".interfaceCount")), facts.get(prefix + ".accessUrl"));
+    }
+
+    private HttpEntity getCapabilities(final Reporter reporter, SodaService sodaService, String address)
+    {
         try
         {
             reporter.report(SodaCode.I_VURL, "Validating URL: " + address);
             
-            String content = getXmlContentFromUrl(address);
-            if (content == null)
+            HttpEntity entity = getXmlEntityFromUrl(reporter, sodaService, address);
+            if (entity == null)
             {
                 reporter.report(SodaCode.E_CPRS, "Capabilities response contains no content");
             }
-            return content;
+            return entity;
         }
         catch (HttpResponseException e)
         {
@@ -101,31 +137,24 @@ public class ValidateCapabilities extends Validator implements SodaValidationTas
      * @param reporter
      *            validation message destination
      * @param xmlContent
-     *            The capabilities XML text
+     *            The capabilities XML document stream
      * @param sodaService
      *            The service being tested.
      */
-    void validateCapabilities(Reporter reporter, String xmlContent, SodaService sodaService)
+    void validateCapabilities(Reporter reporter, InputStream xmlContent, SodaService sodaService)
     {
         try
         {
-            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-            builderFactory.setValidating(false);
-            builderFactory.setNamespaceAware(true);
-            builderFactory.setFeature("http://xml.org/sax/features/validation", false);
-            builderFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-            DocumentBuilder builder = builderFactory.newDocumentBuilder();
-            byte[] bytes = xmlContent.getBytes("UTF-8");
-            ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-            Document document = builder.parse(is);
-
-            checkForSyncAsync(reporter, document, sodaService);
-        }
-        catch (ParserConfigurationException | UnsupportedEncodingException | XPathExpressionException e)
-        {
-            reporter.report(SodaCode.E_CPRS, "Unexpected error processing capability", e);
+            BufferedInputStream content = new BufferedInputStream(xmlContent);
+            if (isBlank(content))
+            {
+                reporter.report(SodaCode.E_CPRS, "Capabilities response contains no content");
+                return;
+            }
+            List<SodaCapability> capabilities = readCapabilities(content);
+            checkForSyncAsync(reporter, capabilities, sodaService);
         }
-        catch (SAXException e)
+        catch (XMLStreamException e)
         {
             reporter.report(FixedCode.E_CPSX, "Error parsing capabilities metadata", e);
         }
@@ -133,7 +162,89 @@ public class ValidateCapabilities extends Validator implements SodaValidationTas
         {
             reporter.report(FixedCode.E_CPIO, "Error reading capabilities metadata", e);
         }
+    }
+
+    /**
+     * Read the capability elements of a capabilities document. Only the capability elements directly within the
+     * document element, and the interface and accessURL elements within them, are examined.
+     * 
+     * @param xmlContent
+     *            The capabilities XML document stream
+     * @return The list of capabilities in document order.
+     * @throws XMLStreamException
+     *             If the document is not well formed or cannot be read.
+     */
+    private List<SodaCapability> readCapabilities(InputStream xmlContent) throws XMLStreamException
+    {
+        final int capabilityDepth = 2;
+        final int interfaceDepth = 3;
+        final int accessUrlDepth = 4;
 
+        List<SodaCapability> capabilities = new ArrayList<>();
+        XMLStreamReader reader = XmlRegistry.getXmlInputFactory().createXMLStreamReader(xmlContent);
+        try
+        {
+            int depth = 0;
+            boolean inCapability = false;
+            boolean inInterface = false;
+            String standardId = null;
+            int interfaceCount = 0;
+            String accessUrl = null;
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    depth++;
+                    String name = isUnqualified(reader) ? reader.getLocalName() : null;
+                    if (depth == capabilityDepth && "capability".equals(name))
+                    {
+                        inCapability = true;
+                        standardId = reader.getAttributeValue(null, "standardID");
+                        interfaceCount = 0;
+                        accessUrl = null;
+                    }
+                    else if (inCapability && depth == interfaceDepth && "interface".equals(name))
+                    {
+                        inInterface = true;
+                        interfaceCount++;
+                    }
+                    else if (inInterface && depth == accessUrlDepth && "accessURL".equals(name))
+                    {
+                        String url = reader.getElementText();
+                        depth--;
+                        if (accessUrl == null)
+                        {
+                            accessUrl = url;
+                        }
+                    }
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    if (inInterface && depth == interfaceDepth)
+                    {
+                        inInterface = false;
+                    }
+                    else if (inCapability && depth == capabilityDepth)
+                    {
+                        inCapability = false;
+                        capabilities.add(new SodaCapability(standardId, interfaceCount, accessUrl));
+                    }
+                    depth--;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return capabilities;
+    }
+
+    private boolean isUnqualified(XMLStreamReader reader)
+    {
+        String namespace = reader.getNamespaceURI();
+        return namespace == null || XMLConstants.NULL_NS_URI.equals(namespace);
     }
 
     /**
@@ -141,15 +252,12 @@ public class ValidateCapabilities extends Validator implements SodaValidationTas
      * 
      * @param reporter
      *            validation message destination
-     * @param document
-     *            The capabilities XML document
+     * @param capabilities
+     *            The capabilities listed in the capabilities document
      * @param sodaService
      *            The service being tested.
-     * @throws XPathExpressionException
-     *             If ther eis acoding error in the xpath expression.
      */
-    private void checkForSyncAsync(Reporter reporter, Document document, SodaService sodaService)
-            throws XPathExpressionException
+    private void checkForSyncAsync(Reporter reporter, List<SodaCapability> capabilities, SodaService sodaService)
     {
         final String sodaStdIdPrefix = "ivo://ivoa.net/std/SODA";
         final String sodaStdIdSync = "ivo://ivoa.net/std/SODA#sync-1.0";
@@ -157,48 +265,42 @@ public class ValidateCapabilities extends Validator implements SodaValidationTas
         final String accessDataStdIdSync = "ivo://ivoa.net/std/AccessData#sync";
         final String accessDataStdIdAsync = "ivo://ivoa.net/std/AccessData#async";
 
-        XPath xpath = XPathFactory.newInstance().newXPath();
-
-        NodeList capNodeList =
-                (NodeList) xpath.evaluate("capability", document.getDocumentElement(), XPathConstants.NODESET);
         boolean hasSoda = false;
-        Node syncCapNode = null;
-        Node asyncCapNode = null;
+        SodaCapability syncCap = null;
+        SodaCapability asyncCap = null;
 
-        for (int i = 0; i < capNodeList.getLength(); i++)
+        for (SodaCapability capability : capabilities)
         {
-            Node capNode = capNodeList.item(i);
-            Node stdIdAttr = capNode.getAttributes().getNamedItem("standardID");
+            String stdId = capability.getStandardId();
 
-            if (stdIdAttr != null && StringUtils.isNotBlank(stdIdAttr.getNodeValue()))
+            if (StringUtils.isNotBlank(stdId))
             {
-                String stdId = stdIdAttr.getNodeValue();
                 if (stdId.startsWith(sodaStdIdPrefix))
                 {
                     hasSoda = true;
                 }
                 if (stdId.equals(sodaStdIdSync))
                 {
-                    syncCapNode = capNode;
+                    syncCap = capability;
                 }
                 else if (stdId.equals(sodaStdIdAsync))
                 {
-                    asyncCapNode = capNode;
+                    asyncCap = capability;
                 }
                 else if (stdId.equals(accessDataStdIdSync))
                 {
                     reporter.report(SodaCode.E_CPEP, "SODA endpoint uses outdated AccessData id: " + stdId);
-                    syncCapNode = capNode;
+                    syncCap = capability;
                 }
                 else if (stdId.equals(accessDataStdIdAsync))
                 {
                     reporter.report(SodaCode.E_CPEP, "SODA endpoint uses outdated AccessData id: " + stdId);
-                    asyncCapNode = capNode;
+                    asyncCap = capability;
                 }
             }
         }
 
-        if (syncCapNode == null && asyncCapNode == null)
+        if (syncCap == null && asyncCap == null)
         {
             if (hasSoda)
             {
@@ -210,26 +312,24 @@ public class ValidateCapabilities extends Validator implements SodaValidationTas
             }
         }
 
-        if (syncCapNode != null)
+        if (syncCap != null)
         {
-            NodeList interfaces = (NodeList) xpath.evaluate("interface", syncCapNode, XPathConstants.NODESET);
-            if (interfaces == null || interfaces.getLength() == 0)
+            if (syncCap.getInterfaceCount() == 0)
             {
                 reporter.report(SodaCode.E_CPIF, "SODA sync endpoint does not contain an interface");
             }
             else
             {
-                sodaService.setSyncServiceNode(syncCapNode);
+                sodaService.setSyncCapability(syncCap);
             }
         }
-        if (asyncCapNode != null)
+        if (asyncCap != null)
         {
-            NodeList interfaces = (NodeList) xpath.evaluate("interface", asyncCapNode, XPathConstants.NODESET);
-            if (interfaces == null || interfaces.getLength() == 0)
+            if (asyncCap.getInterfaceCount() == 0)
             {
                 reporter.report(SodaCode.E_CPIF, "SODA async endpoint does not contain an interface");
             }
-            sodaService.setAsyncServiceNode(asyncCapNode);
+            sodaService.setAsyncCapability(asyncCap);
         }
     }
 
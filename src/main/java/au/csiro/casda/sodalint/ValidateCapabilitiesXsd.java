@@ -1,11 +1,8 @@
 package au.csiro.casda.sodalint;
 
-import java.net.URL;
+import java.util.Collections;
 
-import uk.ac.starlink.ttools.taplint.IvoaSchemaResolver;
 import uk.ac.starlink.ttools.taplint.Reporter;
-import uk.ac.starlink.ttools.taplint.XsdStage;
-import uk.ac.starlink.vo.TapService;
 
 /*
  * #%L
@@ -20,7 +17,7 @@ import uk.ac.starlink.vo.TapService;
  */
 
 /**
- * Validate the SODA capabilities document against the XML schema.
+ * Validate the SODA capabilities document against the IVOA XML schemas shipped with taplint.
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
@@ -31,17 +28,22 @@ public class ValidateCapabilitiesXsd implements SodaValidationTask
     @Override
     public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
     {
-        XsdStage tcapXsdStage = new XsdStage(IvoaSchemaResolver.AVAILABILITY_URI, "capabilities", true, "capabilities")
-        {
-            public URL getDocumentUrl(TapService endpointSet)
-            {
-                return endpointSet.getCapabilitiesEndpoint();
-            }
-        };
-
         BaseEndpointSet endpointSet = new BaseEndpointSet(sodaService.getServiceUrl());
-
-        tcapXsdStage.run(reporter, endpointSet);
+        ResponseCache responseCache = sodaService.getResponseCache();
+        String address = endpointSet.getCapabilitiesEndpoint().toString();
+        StageVerdict verdict = responseCache.getCachedVerdict(address, Stage.CAP_XML.getCode(), reporter);
+        if (verdict != null)
+        {
+            verdict.replay(reporter);
+            return;
+        }
+
+        RecordingReporter recorder = new RecordingReporter(reporter);
+        SchemaDocumentValidator validator =
+                new SchemaDocumentValidator(IvoaSchemaCache.CAPABILITIES_NAMESPACE, "capabilities", true);
+        validator.validate(recorder, responseCache, address);
+        responseCache.storeVerdict(address, Stage.CAP_XML.getCode(),
+                recorder.getVerdict(Collections.<String, String> emptyMap()));
     }
 
 }
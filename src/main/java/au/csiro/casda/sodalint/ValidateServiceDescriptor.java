@@ -2,22 +2,21 @@ package au.csiro.casda.sodalint;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpResponseException;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
@@ -47,65 +46,99 @@ import uk.ac.starlink.ttools.taplint.VotLintTapRunner;
  */
 public class ValidateServiceDescriptor extends Validator implements SodaValidationTask
 {
+    static final String SODA_SERVICE_RESOURCE_PATH = "*[local-name()= 'RESOURCE' and "
+            + "@utype='adhoc:service' and ./*/@value='ivo://ivoa.net/std/SODA#sync-1.0']";
+
+    private static final String PARAM_PATH = "*[local-name()='PARAM']";
+
+    static final String INPUT_PARAM_PATH =
+            "*[local-name()='GROUP' and @name='inputParams']/*[local-name()='PARAM']";
 
     /** {@inheritDoc} */
 
     @Override
     public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
     {
-        Node syncNode = sodaService.getSyncServiceNode();
+        SodaCapability syncCapability = sodaService.getSyncCapability();
 
-        if (syncNode == null)
+        if (syncCapability == null)
         {
             reporter.report(SodaCode.I_SYNO, "No sync SODA endpoint to test.");
             return;
         }
 
+        URL syncUrl;
         try
         {
-            URL syncUrl = sodaService.getUrlFromCapabilityNode(syncNode);
-            reporter.report(SodaCode.I_VURL, "Validating URL: " + syncUrl);
-            
-            // Check endpoint exists
-            String content = getSyncContent(reporter, syncUrl);
-            if (StringUtils.isBlank(content))
-            {
-                reporter.report(SodaCode.I_SYNO, "Sync SODA endpoint does not return content.");
-                return;
-            }
+            syncUrl = syncCapability.getAccessUrl();
+        }
+        catch (MalformedURLException e)
+        {
+            reporter.report(SodaCode.E_SYUR, "Invalid sync interface access URL: ", e);
+            return;
+        }
 
-            verifyResponseWithVotLint(reporter, content);
-            verifyServiceDescriptor(reporter, content);
+        ResponseCache responseCache = sodaService.getResponseCache();
+        StageVerdict verdict =
+                responseCache.getCachedVerdict(syncUrl.toString(), Stage.SERVICE_DESC.getCode(), reporter);
+        if (verdict != null)
+        {
+            verdict.replay(reporter);
+            return;
         }
-        catch (XPathExpressionException | UnsupportedEncodingException e)
+
+        RecordingReporter recorder = new RecordingReporter(reporter);
+        checkServiceDescriptor(recorder, sodaService, syncUrl);
+        responseCache.storeVerdict(syncUrl.toString(), Stage.SERVICE_DESC.getCode(),
+                recorder.getVerdict(Collections.<String, String> emptyMap()));
+    }
+
+    private void checkServiceDescriptor(Reporter reporter, SodaService sodaService, URL syncUrl)
+    {
+        reporter.report(SodaCode.I_VURL, "Validating URL: " + syncUrl);
+
+        // Check endpoint exists
+        HttpEntity entity = getSyncEntity(reporter, sodaService, syncUrl);
+        if (entity == null)
         {
-            reporter.report(SodaCode.F_CODE, "Validate Service Descriptor coding error: ", e);
+            reporter.report(SodaCode.I_SYNO, "Sync SODA endpoint does not return content.");
+            return;
         }
-        catch (MalformedURLException e)
+
+        // Both checks read the captured response body directly, so large descriptors are not copied
+        try (InputStream is = entity.getContent())
         {
-            reporter.report(SodaCode.E_SYUR, "Invalid sync interface access URL: ", e);
+            verifyResponseWithVotLint(reporter, is);
         }
         catch (IOException e)
         {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            reporter.report(SodaCode.E_SYCO, "Unable to read sync response: " + e.getMessage());
         }
         catch (SAXException e)
         {
             reporter.report(SodaCode.E_SYUR, "Unable to parse service descriptor: ", e);
         }
+
+        try (InputStream is = entity.getContent())
+        {
+            verifyServiceDescriptor(reporter, is);
+        }
+        catch (IOException e)
+        {
+            reporter.report(SodaCode.E_SYCO, "Unable to read sync response: " + e.getMessage());
+        }
     }
 
-    private String getSyncContent(final Reporter reporter, URL address)
+    private HttpEntity getSyncEntity(final Reporter reporter, SodaService sodaService, URL address)
     {
         try
         {
-            String content = getXmlContentFromUrl(address.toString());
-            if (content == null)
+            HttpEntity entity = getXmlEntityFromUrl(reporter, sodaService, address.toString());
+            if (entity == null)
             {
                 reporter.report(SodaCode.E_SYCO, "Sync response contains no content");
             }
-            return content;
+            return entity;
         }
         catch (HttpResponseException e)
         {
@@ -134,18 +167,24 @@ public class ValidateServiceDescriptor extends Validator implements SodaValidati
      *            The xml text of the service description.
      */
     void verifyServiceDescriptor(Reporter reporter, String xmlContent)
+    {
+        verifyServiceDescriptor(reporter, new ByteArrayInputStream(xmlContent.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Run targeted verification of the service descriptor XML document, including its presence and the support for
+     * standard SODA parameters. The parser determines the document's encoding.
+     * 
+     * @param reporter
+     *            The validation message destination
+     * @param xmlContent
+     *            The xml document stream of the service description.
+     */
+    void verifyServiceDescriptor(Reporter reporter, InputStream xmlContent)
     {
         try
         {
-            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-            builderFactory.setValidating(false);
-            builderFactory.setNamespaceAware(true);
-            builderFactory.setFeature("http://xml.org/sax/features/validation", false);
-            builderFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-            DocumentBuilder builder = builderFactory.newDocumentBuilder();
-            byte[] bytes = xmlContent.getBytes("UTF-8");
-            ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-            Document document = builder.parse(is);
+            Document document = XmlRegistry.parse(xmlContent);
 
             // Check for resource with appropriate standard ID
             Node sodaSvcNode = getSodaServiceResource(document);
@@ -162,7 +201,7 @@ public class ValidateServiceDescriptor extends Validator implements SodaValidati
             checkInputParams(reporter, sodaSvcNode);
 
         }
-        catch (ParserConfigurationException | UnsupportedEncodingException | XPathExpressionException e)
+        catch (ParserConfigurationException | XPathExpressionException e)
         {
             reporter.report(SodaCode.E_SDIN, "Unexpected error processing service description", e);
         }
@@ -181,11 +220,8 @@ public class ValidateServiceDescriptor extends Validator implements SodaValidati
     {
         // logDocumentContent(document);
 
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        String expression = "*[local-name()= 'RESOURCE' and "
-                + "@utype='adhoc:service' and ./*/@value='ivo://ivoa.net/std/SODA#sync-1.0']";
-        NodeList svcResList =
-                (NodeList) xpath.evaluate(expression, document.getDocumentElement(), XPathConstants.NODESET);
+        NodeList svcResList = (NodeList) XmlRegistry.evaluate(SODA_SERVICE_RESOURCE_PATH, document.getDocumentElement(),
+                XPathConstants.NODESET);
 
         if (svcResList != null && svcResList.getLength() > 0)
         {
@@ -196,10 +232,8 @@ public class ValidateServiceDescriptor extends Validator implements SodaValidati
 
     private void checkSodaAccessUrl(Reporter reporter, Node sodaSvcNode) throws XPathExpressionException
     {
-        XPath xpath = XPathFactory.newInstance().newXPath();
-
         NodeList accessUrlList =
-                (NodeList) xpath.evaluate("*[local-name()='PARAM']", sodaSvcNode, XPathConstants.NODESET);
+                (NodeList) XmlRegistry.evaluate(PARAM_PATH, sodaSvcNode, XPathConstants.NODESET);
 
         if (accessUrlList == null || accessUrlList.getLength() == 0)
         {
@@ -216,11 +250,9 @@ public class ValidateServiceDescriptor extends Validator implements SodaValidati
 
     private void checkInputParams(Reporter reporter, Node sodaSvcNode) throws XPathExpressionException
     {
-        XPath xpath = XPathFactory.newInstance().newXPath();
         String[] requiredAttrs = new String[] { "name", "ucd", "datatype" };
         NodeList paramList =
-                (NodeList) xpath.evaluate("*[local-name()='GROUP' and @name='inputParams']/*[local-name()='PARAM']",
-                        sodaSvcNode, XPathConstants.NODESET);
+                (NodeList) XmlRegistry.evaluate(INPUT_PARAM_PATH, sodaSvcNode, XPathConstants.NODESET);
 
         // <PARAM name="ID" ucd="meta.ref.url;meta.curation" datatype="char" arraysize="*" />
         Map<String, Node> paramMap = new HashMap<>();
@@ -306,9 +338,24 @@ public class ValidateServiceDescriptor extends Validator implements SodaValidati
      */
     void verifyResponseWithVotLint(Reporter reporter, String xmlContent) throws IOException, SAXException
     {
-        byte[] bytes = xmlContent.getBytes("UTF-8");
-        ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+        verifyResponseWithVotLint(reporter, new ByteArrayInputStream(xmlContent.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Use VOTLint to check the standard compliance of the service descriptor.
+     * 
+     * @param reporter
+     *            The validation message destination
+     * @param xmlContent
+     *            The xml document stream of the service description.
+     * @throws IOException
+     *             If the content cannot be read.
+     * @throws SAXException
+     *             If the content cannot be parsed.
+     */
+    void verifyResponseWithVotLint(Reporter reporter, InputStream xmlContent) throws IOException, SAXException
+    {
         VotLintTapRunner runner = VotLintTapRunner.createGetSyncRunner(true);
-        runner.readResultDocument(reporter, is);
+        runner.readResultDocument(reporter, xmlContent);
     }
 }
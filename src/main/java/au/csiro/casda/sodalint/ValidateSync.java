@@ -1,14 +1,22 @@
 package au.csiro.casda.sodalint;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
-import javax.xml.xpath.XPathExpressionException;
-
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpResponseException;
-import org.w3c.dom.Node;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
 
 import uk.ac.starlink.ttools.taplint.Reporter;
 
@@ -25,21 +33,27 @@ import uk.ac.starlink.ttools.taplint.Reporter;
  */
 
 /**
- * Validate the sync endpoint.
+ * Validate the sync endpoint. If a test data product id is supplied, a cutout of the product is requested and
+ * streamed through a fixed size buffer, checking the content type and the FITS primary header and discarding the rest
+ * of the data, so that cutouts of any size can be checked.
  * <p>
  * Copyright 2016, CSIRO Australia. All rights reserved.
  */
 public class ValidateSync extends Validator implements SodaValidationTask
 {
+    private static final int CUTOUT_BUFFER_SIZE = FitsHeader.BLOCK_SIZE * 16;
+
+    private static final Set<String> FITS_MIME_TYPES =
+            new HashSet<>(Arrays.asList("application/fits", "image/fits"));
 
     /** {@inheritDoc} */
 
     @Override
     public void run(Reporter reporter, SodaService sodaService, String testDataProductId)
     {
-        Node syncNode = sodaService.getSyncServiceNode();
+        SodaCapability syncCapability = sodaService.getSyncCapability();
 
-        if (syncNode == null)
+        if (syncCapability == null)
         {
             reporter.report(SodaCode.I_SYNO, "No sync SODA endpoint to test.");
             return;
@@ -47,17 +61,13 @@ public class ValidateSync extends Validator implements SodaValidationTask
 
         try
         {
-            URL syncUrl = sodaService.getUrlFromCapabilityNode(syncNode);
+            URL syncUrl = syncCapability.getAccessUrl();
             reporter.report(SodaCode.I_VURL, "Validating URL: " + syncUrl);
 
             // Check endpoint exists
-            getSyncContent(reporter, syncUrl);
-        }
-        catch (XPathExpressionException e)
-        {
-            reporter.report(SodaCode.F_CODE, "Validate Sync coding error: ", e);
+            getSyncContent(reporter, sodaService, syncUrl);
 
-            e.printStackTrace();
+            probeCutout(reporter, sodaService, syncUrl, testDataProductId);
         }
         catch (MalformedURLException e)
         {
@@ -67,11 +77,11 @@ public class ValidateSync extends Validator implements SodaValidationTask
         }
     }
 
-    private String getSyncContent(final Reporter reporter, URL address)
+    private String getSyncContent(final Reporter reporter, SodaService sodaService, URL address)
     {
         try
         {
-            String content = getXmlContentFromUrl(address.toString());
+            String content = getXmlContentFromUrl(reporter, sodaService, address.toString());
             if (content == null)
             {
                 reporter.report(SodaCode.E_SYCO, "Sync response contains no content");
@@ -94,4 +104,161 @@ public class ValidateSync extends Validator implements SodaValidationTask
 
         return null;
     }
+
+    private void probeCutout(Reporter reporter, SodaService sodaService, URL syncUrl, String testDataProductId)
+    {
+        if (StringUtils.isBlank(testDataProductId))
+        {
+            reporter.report(SodaCode.I_SYNI, "No test data product id supplied, so sync cutouts will not be tested.");
+            return;
+        }
+
+        String address;
+        try
+        {
+            address = getCutoutAddress(sodaService, syncUrl, testDataProductId);
+        }
+        catch (URISyntaxException e)
+        {
+            reporter.report(SodaCode.E_SYUR, "Invalid sync interface access URL: ", e);
+            return;
+        }
+
+        reporter.report(SodaCode.I_VURL, "Requesting cutout: " + address);
+        HttpGet request = new HttpGet(address);
+        RequestTiming timing = new RequestTiming(address);
+        long bytes = 0;
+        boolean recorded = false;
+        try (CloseableHttpResponse response = sodaService.getHttpClient().execute(request, timing))
+        {
+            final int statusCodeOk = 200;
+            HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() != statusCodeOk || entity == null)
+            {
+                request.abort();
+                reporter.report(SodaCode.E_SYCU, "Unexpected http response to cutout request: "
+                        + response.getStatusLine().getStatusCode() + " Reason: "
+                        + response.getStatusLine().getReasonPhrase());
+                return;
+            }
+            ContentType contentType = ContentType.getOrDefault(entity);
+            if (!isFitsContentType(contentType))
+            {
+                request.abort();
+                reporter.report(SodaCode.E_SYCT, "Cutout response has an unexpected content type: " + contentType);
+                return;
+            }
+
+            byte[] buffer = new byte[CUTOUT_BUFFER_SIZE];
+            InputStream content = entity.getContent();
+            FitsHeader header = FitsHeader.read(content, buffer);
+            bytes = header.getHeaderBytes();
+            String problem = header.validate();
+            if (problem != null)
+            {
+                request.abort();
+                reporter.report(SodaCode.E_SYFH, "Invalid FITS primary header in cutout: " + problem);
+                return;
+            }
+
+            bytes += discard(content, buffer);
+            timing.bodyRead(bytes);
+            recordTiming(reporter, sodaService, timing);
+            recorded = true;
+            reporter.report(SodaCode.I_SYCU, "Cutout of " + testDataProductId + " has BITPIX "
+                    + header.getValue("BITPIX") + " and dimensions " + header.getDimensions() + ", " + bytes
+                    + " bytes read");
+            long expectedBytes = header.getHeaderBytes() + header.getDataBytes();
+            if (bytes < expectedBytes)
+            {
+                reporter.report(SodaCode.E_SYFH, "Cutout is truncated, the primary HDU needs " + expectedBytes
+                        + " bytes but only " + bytes + " bytes were returned");
+            }
+        }
+        catch (IOException e)
+        {
+            request.abort();
+            if (!recorded)
+            {
+                timing.failed(e);
+                recordTiming(reporter, sodaService, timing);
+                recorded = true;
+            }
+            reporter.report(SodaCode.E_SYCU, "Unable to read cutout response: " + e.getMessage());
+        }
+        finally
+        {
+            // Responses which were rejected and aborted are timed up to the point they were abandoned
+            if (!recorded)
+            {
+                timing.bodyRead(bytes);
+                recordTiming(reporter, sodaService, timing);
+            }
+        }
+    }
+
+    private static void recordTiming(Reporter reporter, SodaService sodaService, RequestTiming timing)
+    {
+        sodaService.getTimings().recordRequest(timing);
+        reporter.report(SodaCode.I_HTTP, timing.toString());
+    }
+
+    /**
+     * Build the address of a cutout of a data product, using the cutout parameters configured for the service.
+     * 
+     * @param sodaService
+     *            The service being tested.
+     * @param syncUrl
+     *            The sync endpoint url.
+     * @param testDataProductId
+     *            id of a valid data product which can be tested
+     * @return The cutout address.
+     * @throws URISyntaxException
+     *             If the sync url is not a valid URI.
+     */
+    static String getCutoutAddress(SodaService sodaService, URL syncUrl, String testDataProductId)
+            throws URISyntaxException
+    {
+        URIBuilder uriBuilder = new URIBuilder(syncUrl.toURI()).addParameter("ID", testDataProductId);
+        if (StringUtils.isNotBlank(sodaService.getCutoutCircle()))
+        {
+            uriBuilder.addParameter("CIRCLE", sodaService.getCutoutCircle());
+        }
+        if (StringUtils.isNotBlank(sodaService.getCutoutBand()))
+        {
+            uriBuilder.addParameter("BAND", sodaService.getCutoutBand());
+        }
+        return uriBuilder.build().toString();
+    }
+
+    /**
+     * @param contentType
+     *            The content type of a response.
+     * @return True if the content type is one used for FITS files.
+     */
+    static boolean isFitsContentType(ContentType contentType)
+    {
+        return FITS_MIME_TYPES.contains(contentType.getMimeType().toLowerCase());
+    }
+
+    /**
+     * Read the rest of a response and discard it.
+     * 
+     * @param content
+     *            The response content.
+     * @param buffer
+     *            The buffer to read into.
+     * @return The number of bytes read.
+     * @throws IOException
+     *             If the content could not be read.
+     */
+    static long discard(InputStream content, byte[] buffer) throws IOException
+    {
+        long total = 0;
+        for (int count = content.read(buffer); count >= 0; count = content.read(buffer))
+        {
+            total += count;
+        }
+        return total;
+    }
 }
@@ -1,5 +1,6 @@
 package au.csiro.casda.sodalint;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -7,14 +8,12 @@ import java.io.UnsupportedEncodingException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
 import org.apache.http.client.HttpResponseException;
-import org.apache.http.client.fluent.Request;
-import org.apache.http.client.fluent.Response;
 import org.apache.http.entity.ContentType;
 import org.w3c.dom.Document;
 
+import uk.ac.starlink.ttools.taplint.Reporter;
+
 /*
  * #%L
  * CSIRO ASKAP Science Data Archive
@@ -34,45 +33,113 @@ import org.w3c.dom.Document;
  */
 public class Validator
 {
+    /** The most leading white space examined when checking whether a response has any content. */
+    private static final int MAX_BLANK_PREFIX = 8192;
 
     /**
-     * Retrieve the content from an address using a GET request.
+     * Retrieve the content from an address using a GET request. The response is shared with other stages validating
+     * the same service, so the address is only requested once per run.
      *  
+     * @param reporter The destination for the timing of the request.
+     * @param sodaService The service being validated.
      * @param address The address to be queried.
      * @return The content, or null if no content could be read.
      * @throws HttpResponseException If a non 200 response code is returned.
      * @throws UnsupportedEncodingException If the content does not have an XML format. 
      * @throws IOException If the content could not be read.
      */
-    protected String getXmlContentFromUrl(String address)
+    protected String getXmlContentFromUrl(Reporter reporter, SodaService sodaService, String address)
             throws HttpResponseException, UnsupportedEncodingException, IOException
     {
-        Response response = Request.Get(address).execute();
-        HttpResponse httpResponse = response.returnResponse();
-        StatusLine statusLine = httpResponse.getStatusLine();
+        HttpEntity entity = getXmlEntityFromUrl(reporter, sodaService, address);
+        if (entity == null)
+        {
+            return null;
+        }
+        String content = readTextContent(entity);
+        if (StringUtils.isBlank(content))
+        {
+            return null;
+        }
+    
+        return content;
+    }
+
+    /**
+     * Retrieve the XML entity from an address using a GET request, so that it can be read as a stream. The response
+     * is shared with other stages validating the same service, so the address is only requested once per run.
+     *  
+     * @param reporter The destination for the timing of the request.
+     * @param sodaService The service being validated.
+     * @param address The address to be queried.
+     * @return The entity, or null if the response is empty or only white space.
+     * @throws HttpResponseException If a non 200 response code is returned.
+     * @throws UnsupportedEncodingException If the content does not have an XML format. 
+     * @throws IOException If the content could not be read.
+     */
+    protected HttpEntity getXmlEntityFromUrl(Reporter reporter, SodaService sodaService, String address)
+            throws HttpResponseException, UnsupportedEncodingException, IOException
+    {
+        CachedResponse response = sodaService.getResponseCache().getResponse(address, reporter);
         final int statusCodeOk = 200;
-        if (statusLine.getStatusCode() != statusCodeOk)
+        if (response.getStatusCode() != statusCodeOk)
         {
-            throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            throw new HttpResponseException(response.getStatusCode(), response.getReasonPhrase());
         }
-        HttpEntity entity = httpResponse.getEntity();
-        if (entity == null)
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0)
         {
             return null;
         }
+        try (BufferedInputStream content = new BufferedInputStream(entity.getContent()))
+        {
+            if (isBlank(content))
+            {
+                return null;
+            }
+        }
         ContentType contentType = ContentType.getOrDefault(entity);
         if (!ContentType.APPLICATION_XML.getMimeType().equals(contentType.getMimeType())
                 && !ContentType.TEXT_XML.getMimeType().equals(contentType.getMimeType()))
         {
             throw new UnsupportedEncodingException(contentType.toString());
         }
-        String content = readTextContent(entity);
-        if (StringUtils.isBlank(content))
+        return entity;
+    }
+
+    /**
+     * Check whether a document consists only of white space, leaving the stream at the start of the document. Only
+     * the first few kilobytes are examined, so a longer run of white space is left for the parser to reject.
+     * 
+     * @param content
+     *            The document stream, which must support mark and reset.
+     * @return True if the document is empty or only white space.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    protected static boolean isBlank(BufferedInputStream content) throws IOException
+    {
+        content.mark(MAX_BLANK_PREFIX);
+        try
         {
-            return null;
+            for (int i = 0; i < MAX_BLANK_PREFIX; i++)
+            {
+                int b = content.read();
+                if (b < 0)
+                {
+                    return true;
+                }
+                if (!Character.isWhitespace(b))
+                {
+                    return false;
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            content.reset();
         }
-    
-        return content;
     }
 
     /**
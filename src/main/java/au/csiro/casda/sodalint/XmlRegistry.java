@@ -0,0 +1,172 @@
+package au.csiro.casda.sodalint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Provides the XML parsers and compiled XPath expressions used by the validators. Each JAXP factory is looked up,
+ * which scans the class path, and configured only once. Compiled expressions and document builders are not thread
+ * safe, so they are borrowed from a small pool for each use and returned afterwards. This keeps the cost down however
+ * the stages are scheduled, including when every stage runs on a new virtual thread.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public final class XmlRegistry
+{
+    /** The most idle instances of each compiled expression, and of the document builder, which are kept. */
+    private static final int MAX_POOLED = 32;
+
+    /** The XPath factory is not thread safe, so it is only used while holding its lock. */
+    private static final XPathFactory XPATH_FACTORY = XPathFactory.newInstance();
+
+    /** The document builder factory is not thread safe, so it is only used while holding its lock. */
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+
+    /** A configured StAX factory may be used to create readers from any thread. */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    private static final ConcurrentMap<String, BlockingQueue<XPathExpression>> EXPRESSIONS =
+            new ConcurrentHashMap<>();
+
+    private static final BlockingQueue<DocumentBuilder> DOCUMENT_BUILDERS = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private XmlRegistry()
+    {
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory()
+    {
+        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+        builderFactory.setValidating(false);
+        builderFactory.setNamespaceAware(true);
+        try
+        {
+            builderFactory.setFeature("http://xml.org/sax/features/validation", false);
+            builderFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        }
+        catch (ParserConfigurationException e)
+        {
+            // The parser does not recognise the features, so it will not load external DTDs anyway
+        }
+        return builderFactory;
+    }
+
+    private static XMLInputFactory createXmlInputFactory()
+    {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return inputFactory;
+    }
+
+    /**
+     * Evaluate an XPath expression. The compiled form of the expression is borrowed from a pool for the evaluation,
+     * and is only compiled if no idle copy is available.
+     *
+     * @param expression
+     *            The XPath expression text.
+     * @param item
+     *            The node or document the expression is evaluated against.
+     * @param returnType
+     *            The type of result expected, one of the XPathConstants.
+     * @return The result of the evaluation, of the requested type.
+     * @throws XPathExpressionException
+     *             If the expression cannot be compiled or evaluated.
+     */
+    public static Object evaluate(String expression, Object item, QName returnType) throws XPathExpressionException
+    {
+        BlockingQueue<XPathExpression> pool =
+                EXPRESSIONS.computeIfAbsent(expression, key -> new ArrayBlockingQueue<>(MAX_POOLED));
+        XPathExpression compiled = pool.poll();
+        if (compiled == null)
+        {
+            synchronized (XPATH_FACTORY)
+            {
+                compiled = XPATH_FACTORY.newXPath().compile(expression);
+            }
+        }
+        try
+        {
+            return compiled.evaluate(item, returnType);
+        }
+        finally
+        {
+            pool.offer(compiled);
+        }
+    }
+
+    /**
+     * Parse a document with a namespace aware, non validating document builder. The builder is borrowed from a pool
+     * for the parse, and is reset before it is used again.
+     *
+     * @param content
+     *            The XML document stream. The parser determines the document's encoding.
+     * @return The parsed document.
+     * @throws ParserConfigurationException
+     *             If a builder cannot be configured.
+     * @throws SAXException
+     *             If the document is not well formed.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    public static Document parse(InputStream content) throws ParserConfigurationException, SAXException, IOException
+    {
+        DocumentBuilder builder = DOCUMENT_BUILDERS.poll();
+        if (builder == null)
+        {
+            synchronized (DOCUMENT_BUILDER_FACTORY)
+            {
+                builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+        }
+        try
+        {
+            return builder.parse(content);
+        }
+        finally
+        {
+            builder.reset();
+            DOCUMENT_BUILDERS.offer(builder);
+        }
+    }
+
+    /**
+     * Retrieve the shared namespace aware StAX input factory, with DTD and external entity support disabled. The
+     * factory must not be reconfigured.
+     *
+     * @return The input factory.
+     */
+    public static XMLInputFactory getXmlInputFactory()
+    {
+        return XML_INPUT_FACTORY;
+    }
+}
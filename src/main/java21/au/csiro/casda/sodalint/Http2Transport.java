@@ -0,0 +1,273 @@
+package au.csiro.casda.sodalint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Sends requests over HTTP/2 where the server supports it. This is the Java 21 implementation, packaged in the
+ * multi-release jar, which uses the JDK http client. HTTP/2 is negotiated with ALPN over TLS, or by an h2c upgrade
+ * for plain http, and the client falls back to HTTP/1.1 for servers which do not support it. Concurrent requests to
+ * an HTTP/2 host are multiplexed over a single connection.
+ * <p>
+ * Requests and responses are converted to and from the httpclient types used by the rest of the linter, and the
+ * response body is streamed rather than buffered. Redirects are followed by a separate client, so a host may have
+ * two connections open if some requests do not follow redirects.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public final class Http2Transport implements Closeable
+{
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    /** Headers which the JDK client sets itself and does not allow to be set on a request. */
+    private static final Set<String> RESTRICTED_HEADERS =
+            new HashSet<>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    private static final int STATUS_NO_CONTENT = 204;
+    private static final int STATUS_NOT_MODIFIED = 304;
+    private static final int MIN_STATUS_WITH_BODY = 200;
+
+    private final HttpClient redirectingClient;
+    private final HttpClient directClient;
+    private final Duration readTimeout;
+    private final String userAgent;
+
+    /**
+     * Create a new Http2Transport instance.
+     *
+     * @param connectTimeoutMillis
+     *            The time in milliseconds allowed to establish a connection.
+     * @param readTimeoutMillis
+     *            The time in milliseconds allowed to wait for the response headers.
+     * @param userAgent
+     *            The User-Agent header sent with each request.
+     */
+    public Http2Transport(int connectTimeoutMillis, int readTimeoutMillis, String userAgent)
+    {
+        this.readTimeout = Duration.ofMillis(readTimeoutMillis);
+        this.userAgent = userAgent;
+        redirectingClient = createClient(connectTimeoutMillis, HttpClient.Redirect.NORMAL);
+        directClient = createClient(connectTimeoutMillis, HttpClient.Redirect.NEVER);
+    }
+
+    /**
+     * @return True if this JVM can send requests over HTTP/2.
+     */
+    public static boolean isSupported()
+    {
+        return true;
+    }
+
+    private static HttpClient createClient(int connectTimeoutMillis, HttpClient.Redirect redirect)
+    {
+        return HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis)).followRedirects(redirect).build();
+    }
+
+    /**
+     * Send a request and wait for the response headers. Aborting the request cancels the exchange.
+     *
+     * @param request
+     *            The request to be sent.
+     * @param followRedirects
+     *            True if redirects should be followed.
+     * @return The response, whose body is read as a stream. The caller must close the response.
+     * @throws IOException
+     *             If the request could not be completed.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, boolean followRedirects) throws IOException
+    {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI()).timeout(readTimeout)
+                .method(request.getMethod(), getBodyPublisher(request));
+        for (Header header : request.getAllHeaders())
+        {
+            if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT)))
+            {
+                builder.header(header.getName(), header.getValue());
+            }
+        }
+        if (!request.containsHeader(HttpHeaders.USER_AGENT))
+        {
+            builder.header(HttpHeaders.USER_AGENT, userAgent);
+        }
+        HttpEntity requestEntity = getEntity(request);
+        if (requestEntity != null && requestEntity.getContentType() != null
+                && !request.containsHeader(HttpHeaders.CONTENT_TYPE))
+        {
+            builder.header(HttpHeaders.CONTENT_TYPE, requestEntity.getContentType().getValue());
+        }
+
+        HttpClient client = followRedirects ? redirectingClient : directClient;
+        CompletableFuture<HttpResponse<InputStream>> future =
+                client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (request instanceof HttpExecutionAware)
+        {
+            // Cancel the exchange if it is still waiting for headers, otherwise close the body being read
+            ((HttpExecutionAware) request).setCancellable(() -> {
+                future.cancel(true);
+                future.thenAccept(response -> closeQuietly(response.body()));
+                return true;
+            });
+        }
+
+        try
+        {
+            return toHttpResponse(request, future.get());
+        }
+        catch (CancellationException e)
+        {
+            throw new InterruptedIOException("Request to " + request.getURI() + " was aborted");
+        }
+        catch (InterruptedException e)
+        {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.getURI());
+        }
+        catch (ExecutionException e)
+        {
+            // Cancelling the exchange may complete the future with the cancellation rather than cancel it
+            if (e.getCause() instanceof CancellationException)
+            {
+                throw new InterruptedIOException("Request to " + request.getURI() + " was aborted");
+            }
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Request to " + request.getURI() + " failed", e.getCause());
+        }
+    }
+
+    private static HttpEntity getEntity(HttpUriRequest request)
+    {
+        return request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity()
+                : null;
+    }
+
+    /**
+     * The request bodies sent by the linter are small forms, so they are buffered rather than streamed.
+     */
+    private static HttpRequest.BodyPublisher getBodyPublisher(HttpUriRequest request) throws IOException
+    {
+        HttpEntity entity = getEntity(request);
+        if (entity == null)
+        {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        return HttpRequest.BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity));
+    }
+
+    private static CloseableHttpResponse toHttpResponse(HttpUriRequest request, HttpResponse<InputStream> response)
+    {
+        ProtocolVersion version =
+                response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1;
+        int statusCode = response.statusCode();
+        StreamedResponse httpResponse = new StreamedResponse(
+                new BasicStatusLine(version, statusCode, EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode,
+                        Locale.ENGLISH)), response.body());
+        response.headers().map().forEach((name, values) -> {
+            // HTTP/2 pseudo headers such as :status are not real headers
+            if (!name.startsWith(":"))
+            {
+                values.forEach(value -> httpResponse.addHeader(name, value));
+            }
+        });
+
+        boolean hasBody = !"HEAD".equals(request.getMethod()) && statusCode >= MIN_STATUS_WITH_BODY
+                && statusCode != STATUS_NO_CONTENT && statusCode != STATUS_NOT_MODIFIED;
+        if (hasBody)
+        {
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(response.body());
+            entity.setContentLength(response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1));
+            entity.setContentType(httpResponse.getFirstHeader(HttpHeaders.CONTENT_TYPE));
+            entity.setContentEncoding(httpResponse.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+            httpResponse.setEntity(entity);
+        }
+        else
+        {
+            closeQuietly(response.body());
+        }
+        return httpResponse;
+    }
+
+    private static void closeQuietly(InputStream in)
+    {
+        try
+        {
+            in.close();
+        }
+        catch (IOException e)
+        {
+            // The exchange is being abandoned, so there is nothing more to do
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        redirectingClient.shutdownNow();
+        directClient.shutdownNow();
+    }
+
+    /**
+     * A response whose body is streamed from the JDK client, and which abandons the body when closed.
+     */
+    private static final class StreamedResponse extends BasicHttpResponse implements CloseableHttpResponse
+    {
+        private final InputStream body;
+
+        StreamedResponse(BasicStatusLine statusLine, InputStream body)
+        {
+            super(statusLine);
+            this.body = body;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package au.csiro.casda.sodalint;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Creates the threads used to run stages and services. This is the Java 21 implementation, packaged in the
+ * multi-release jar, which can run the blocking validation requests on virtual threads.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public final class ThreadFactories
+{
+    private ThreadFactories()
+    {
+    }
+
+    /**
+     * @return True if this JVM can run validation on virtual threads.
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return true;
+    }
+
+    /**
+     * Create a thread factory for a pool of validation threads. Platform threads are created as daemon threads so that
+     * a hung request does not hold the JVM open. Virtual threads are always daemon threads.
+     *
+     * @param namePrefix
+     *            The prefix for the names of the threads.
+     * @param virtual
+     *            True if virtual threads should be used.
+     * @return The thread factory.
+     */
+    public static ThreadFactory newThreadFactory(final String namePrefix, boolean virtual)
+    {
+        if (virtual)
+        {
+            return Thread.ofVirtual().name(namePrefix, 1).factory();
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Create an executor to run validation tasks. Virtual threads are cheap, so when they are requested each task is
+     * started on a new virtual thread as soon as it is submitted, and it is left to the caller, and to the
+     * {@link HostGovernor} of the http client, to limit how much work is in progress. Otherwise the tasks are run on
+     * a fixed size pool of platform threads.
+     *
+     * @param namePrefix
+     *            The prefix for the names of the threads.
+     * @param platformThreads
+     *            The number of threads in the pool when platform threads are used.
+     * @param virtual
+     *            True if each task should be run on its own virtual thread.
+     * @return The executor, which the caller must shut down.
+     */
+    public static ExecutorService newExecutor(String namePrefix, int platformThreads, boolean virtual)
+    {
+        if (virtual)
+        {
+            return Executors.newThreadPerTaskExecutor(newThreadFactory(namePrefix, true));
+        }
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads), newThreadFactory(namePrefix, false));
+    }
+}
@@ -0,0 +1,252 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the filter combinations built by CutoutSampler from the values declared in a service descriptor.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class CutoutSamplerTest
+{
+    private static final int NO_LIMIT = 1000;
+    private static final int DECLARED_COMBINATIONS = 57;
+
+    private List<CutoutParameter> parameters;
+
+    @Before
+    public void setup() throws Exception
+    {
+        try (InputStream is = new FileInputStream("src/test/resources/service-descriptor-v1_3-ranges.xml"))
+        {
+            Document document = XmlRegistry.parse(is);
+            Node sodaSvcNode = (Node) XmlRegistry.evaluate(ValidateServiceDescriptor.SODA_SERVICE_RESOURCE_PATH,
+                    document.getDocumentElement(), XPathConstants.NODE);
+            parameters = CutoutParameter.readParameters(sodaSvcNode);
+        }
+    }
+
+    /**
+     * Test that the declared values of the service descriptor are read, and every parameter with values is sampled
+     * on its own, in pairs and all together.
+     */
+    @Test
+    public void testSampleDeclaredRanges()
+    {
+        assertEquals(Arrays.asList("POS", "CIRCLE", "POLYGON", "BAND", "TIME", "POL"), getNames(parameters));
+
+        List<CutoutCombination> combinations = CutoutSampler.sample(parameters, NO_LIMIT);
+
+        assertEquals(DECLARED_COMBINATIONS, combinations.size());
+        assertEquals("POS=CIRCLE 12 -34.5 0.5", combinations.get(0).toString());
+        assertFalse(combinations.get(0).isEdgeCase());
+        for (CutoutCombination combination : combinations)
+        {
+            assertFalse("POLYGON declares no values so should not be sampled: " + combination,
+                    combination.toString().contains("POLYGON="));
+        }
+    }
+
+    /**
+     * Test the valid values and edge cases of an interval parameter.
+     */
+    @Test
+    public void testIntervalSamples()
+    {
+        List<CutoutCombination> combinations = CutoutSampler.sample(parameters, NO_LIMIT);
+
+        assertEquals(Arrays.asList("BAND=0.21 0.22", "BAND=0.2125 0.2175", "BAND=0.21 0.2101", "BAND=0.2199 0.22",
+                "BAND=0.21495 0.21505"), getSingles(combinations, "BAND", false));
+        assertEquals(Arrays.asList("BAND=0.215 0.215", "BAND=-Inf 0.215", "BAND=0.215 +Inf", "BAND=0.22 0.21",
+                "BAND=0.23 0.24"), getSingles(combinations, "BAND", true));
+        assertEquals(Arrays.asList("TIME=55000 55010", "TIME=55002.5 55007.5", "TIME=55000 55000.1",
+                "TIME=55009.9 55010", "TIME=55004.95 55005.05"), getSingles(combinations, "TIME", false));
+    }
+
+    /**
+     * Test the valid values and edge cases of a circle parameter, and that the POS parameter covers the same circle.
+     */
+    @Test
+    public void testCircleSamples()
+    {
+        List<CutoutCombination> combinations = CutoutSampler.sample(parameters, NO_LIMIT);
+
+        assertEquals(Arrays.asList("CIRCLE=12 -34.5 0.5", "CIRCLE=12 -34.5 0.25", "CIRCLE=12 -34.05 0.1",
+                "CIRCLE=12 -34.5 0.005"), getSingles(combinations, "CIRCLE", false));
+        assertEquals(Arrays.asList("CIRCLE=12 -34.5 0", "CIRCLE=12 -34.5 1", "CIRCLE=12 -33 0.05"),
+                getSingles(combinations, "CIRCLE", true));
+        assertEquals(Arrays.asList("POS=CIRCLE 12 -34.5 0.5", "POS=RANGE 11.5 12.5 -35 -34",
+                "POS=CIRCLE 12 -34.5 0.005"), getSingles(combinations, "POS", false));
+        assertEquals(Arrays.asList("POS=RANGE -Inf +Inf -Inf +Inf", "POS=CIRCLE 12 -34.5 0"),
+                getSingles(combinations, "POS", true));
+    }
+
+    /**
+     * Test the valid values and edge case of a polygon parameter, and that the POS parameter covers the polygon when
+     * there is no circle.
+     */
+    @Test
+    public void testPolygonSamples()
+    {
+        List<CutoutParameter> polygon = Collections.singletonList(new CutoutParameter("POLYGON", "polygon", null,
+                "10 10 12 10 12 12 10 12", Collections.<String> emptyList()));
+        List<CutoutParameter> posAndPolygon = Arrays.asList(
+                new CutoutParameter("POS", null, null, null, Collections.<String> emptyList()), polygon.get(0));
+
+        List<CutoutCombination> combinations = CutoutSampler.sample(polygon, NO_LIMIT);
+
+        assertEquals(Arrays.asList("POLYGON=10 10 12 10 12 12 10 12",
+                "POLYGON=10.5 10.5 11.5 10.5 11.5 11.5 10.5 11.5",
+                "POLYGON=10.99 10.99 11.01 10.99 11.01 11.01 10.99 11.01"), getSingles(combinations, "POLYGON", false));
+        assertEquals(Collections.singletonList("POLYGON=10 12 12 12 12 10 10 10"),
+                getSingles(combinations, "POLYGON", true));
+        assertEquals("POS=CIRCLE 11 11 1.414213562",
+                CutoutSampler.sample(posAndPolygon, NO_LIMIT).get(0).toString());
+    }
+
+    /**
+     * Test the values of an enumerated parameter and of a plain numeric parameter.
+     */
+    @Test
+    public void testOptionAndScalarSamples()
+    {
+        List<CutoutCombination> combinations = CutoutSampler.sample(parameters, NO_LIMIT);
+        assertEquals(Arrays.asList("POL=I POL=Q POL=U POL=V", "POL=I", "POL=Q", "POL=U", "POL=V"),
+                getSingles(combinations, "POL", false));
+        assertEquals(Collections.singletonList("POL=" + CutoutSampler.UNDECLARED_OPTION),
+                getSingles(combinations, "POL", true));
+
+        List<CutoutParameter> scalar = Collections.singletonList(
+                new CutoutParameter("CHANNEL", null, "1", "5", Collections.<String> emptyList()));
+        combinations = CutoutSampler.sample(scalar, NO_LIMIT);
+        assertEquals(Arrays.asList("CHANNEL=1", "CHANNEL=5", "CHANNEL=3"), getSingles(combinations, "CHANNEL", false));
+        assertEquals(Arrays.asList("CHANNEL=-3", "CHANNEL=9"), getSingles(combinations, "CHANNEL", true));
+    }
+
+    /**
+     * Test that each pair of parameters is sent at its widest and narrowest values, apart from pairs of spatial
+     * parameters, and that all the parameters are sent together at their narrowest.
+     */
+    @Test
+    public void testPairwiseCombinations()
+    {
+        List<String> combinations = getDescriptions(CutoutSampler.sample(parameters, NO_LIMIT));
+
+        assertTrue(combinations.contains("POS=CIRCLE 12 -34.5 0.5 BAND=0.21 0.22"));
+        assertTrue(combinations.contains("POS=CIRCLE 12 -34.5 0.005 BAND=0.21495 0.21505"));
+        assertTrue(combinations.contains("CIRCLE=12 -34.5 0.5 POL=I POL=Q POL=U POL=V"));
+        assertTrue(combinations.contains("BAND=0.21 0.22 TIME=55000 55010"));
+        assertTrue(combinations.contains("TIME=55004.95 55005.05 POL=V"));
+        assertTrue(combinations
+                .contains("POS=CIRCLE 12 -34.5 0.005 BAND=0.21495 0.21505 TIME=55004.95 55005.05 POL=V"));
+        for (String combination : combinations)
+        {
+            assertFalse("Only one spatial parameter should be sent: " + combination,
+                    combination.contains("POS=") && combination.contains("CIRCLE="));
+        }
+    }
+
+    /**
+     * Test that a limited sample is an evenly spaced selection of the full sample, starting with the first.
+     */
+    @Test
+    public void testLimit()
+    {
+        final int limit = 10;
+        List<String> all = getDescriptions(CutoutSampler.sample(parameters, NO_LIMIT));
+        List<String> limited = getDescriptions(CutoutSampler.sample(parameters, limit));
+
+        assertEquals(limit, limited.size());
+        for (int i = 0; i < limit; i++)
+        {
+            assertEquals(all.get(i * DECLARED_COMBINATIONS / limit), limited.get(i));
+        }
+        assertEquals(all, getDescriptions(CutoutSampler.sample(parameters, DECLARED_COMBINATIONS)));
+    }
+
+    /**
+     * Test the parsing of declared values, which must be lists of finite numbers.
+     */
+    @Test
+    public void testParseNumbers()
+    {
+        assertNull(CutoutSampler.parseNumbers(null));
+        assertNull(CutoutSampler.parseNumbers("  "));
+        assertNull(CutoutSampler.parseNumbers("1 two 3"));
+        assertNull(CutoutSampler.parseNumbers("1 NaN"));
+        assertNull(CutoutSampler.parseNumbers("-Infinity 0"));
+
+        double[] numbers = CutoutSampler.parseNumbers(" 12.0\t-34.5  5e-1 ");
+        assertEquals(3, numbers.length);
+        assertEquals(12.0, numbers[0], 0);
+        assertEquals(-34.5, numbers[1], 0);
+        assertEquals(0.5, numbers[2], 0);
+    }
+
+    private static List<String> getNames(List<CutoutParameter> parameters)
+    {
+        List<String> names = new ArrayList<>();
+        for (CutoutParameter parameter : parameters)
+        {
+            names.add(parameter.getName());
+        }
+        return names;
+    }
+
+    private static List<String> getDescriptions(List<CutoutCombination> combinations)
+    {
+        List<String> descriptions = new ArrayList<>();
+        for (CutoutCombination combination : combinations)
+        {
+            descriptions.add(combination.toString());
+        }
+        return descriptions;
+    }
+
+    private static List<String> getSingles(List<CutoutCombination> combinations, String name, boolean edgeCase)
+    {
+        List<String> singles = new ArrayList<>();
+        for (CutoutCombination combination : combinations)
+        {
+            boolean single = true;
+            for (String[] parameter : combination.getParameters())
+            {
+                single &= name.equals(parameter[0]);
+            }
+            if (single && combination.isEdgeCase() == edgeCase)
+            {
+                singles.add(combination.toString());
+            }
+        }
+        return singles;
+    }
+}
@@ -0,0 +1,181 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the reading, validation and data size calculation of FitsHeader.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class FitsHeaderTest
+{
+    private static final int CARD_SIZE = 80;
+    private static final int CARDS_PER_BLOCK = FitsHeader.BLOCK_SIZE / CARD_SIZE;
+
+    /**
+     * Test that the values of a cube header are read and the stream is left at the start of the data.
+     *
+     * @throws IOException
+     *             If the header cannot be read.
+     */
+    @Test
+    public void testReadCubeHeader() throws IOException
+    {
+        byte[] fits = concat(header("SIMPLE  =                    T", "BITPIX  =                  -32",
+                "NAXIS   =                    3", "NAXIS1  =                  100 / RA",
+                "NAXIS2  =                  100 / Dec", "NAXIS3  =                   20", "END"), new byte[] { 42 });
+        InputStream in = new ByteArrayInputStream(fits);
+
+        FitsHeader header = FitsHeader.read(in, new byte[FitsHeader.BLOCK_SIZE]);
+
+        assertNull("Header should be valid", header.validate());
+        assertEquals("SIMPLE", header.getFirstKeyword());
+        assertEquals("100", header.getValue("NAXIS1"));
+        assertEquals("100 x 100 x 20", header.getDimensions());
+        assertEquals(FitsHeader.BLOCK_SIZE, header.getHeaderBytes());
+        assertEquals("800000 bytes of data should be padded to whole blocks", 278L * FitsHeader.BLOCK_SIZE,
+                header.getDataBytes());
+        assertEquals("Stream should be at the start of the data", 42, in.read());
+    }
+
+    /**
+     * Test that a header which fills its first block continues into the next one.
+     *
+     * @throws IOException
+     *             If the header cannot be read.
+     */
+    @Test
+    public void testMultiBlockHeader() throws IOException
+    {
+        String[] cards = new String[CARDS_PER_BLOCK + 1];
+        cards[0] = "SIMPLE  =                    T";
+        cards[1] = "BITPIX  =                    8";
+        cards[2] = "NAXIS   =                    0";
+        for (int i = 3; i < CARDS_PER_BLOCK; i++)
+        {
+            cards[i] = "COMMENT padding";
+        }
+        cards[CARDS_PER_BLOCK] = "END";
+
+        FitsHeader header = FitsHeader.read(new ByteArrayInputStream(header(cards)), new byte[FitsHeader.BLOCK_SIZE]);
+
+        assertNull(header.validate());
+        assertEquals(2L * FitsHeader.BLOCK_SIZE, header.getHeaderBytes());
+        assertEquals("", header.getDimensions());
+        assertEquals(0, header.getDataBytes());
+    }
+
+    /**
+     * Test that string values are unquoted, with escaped quotes kept and comments after the value dropped.
+     *
+     * @throws IOException
+     *             If the header cannot be read.
+     */
+    @Test
+    public void testStringValues() throws IOException
+    {
+        FitsHeader header = read("SIMPLE  =                    T", "OBJECT  = 'Sgr A*  '           / target",
+                "OBSERVER= 'O''Brien'", "BUNIT   = 'Jy/beam'", "OBJECT  = 'Second'", "END");
+
+        assertEquals("Sgr A*", header.getValue("OBJECT"));
+        assertEquals("O'Brien", header.getValue("OBSERVER"));
+        assertEquals("Jy/beam", header.getValue("BUNIT"));
+        assertNull(header.getValue("TELESCOP"));
+    }
+
+    /**
+     * Test that missing or invalid mandatory keywords are described.
+     *
+     * @throws IOException
+     *             If the header cannot be read.
+     */
+    @Test
+    public void testInvalidHeaders() throws IOException
+    {
+        assertEquals("First card is not SIMPLE = T", read("BITPIX  =                    8", "END").validate());
+        assertEquals("First card is not SIMPLE = T", read("SIMPLE  =                    F", "END").validate());
+        assertEquals("Invalid BITPIX value 12",
+                read("SIMPLE  =                    T", "BITPIX  =                   12", "END").validate());
+        assertEquals("Invalid NAXIS value null",
+                read("SIMPLE  =                    T", "BITPIX  =                   16", "END").validate());
+        assertEquals("Invalid NAXIS2 value -1", read("SIMPLE  =                    T", "BITPIX  =                   16",
+                "NAXIS   =                    2", "NAXIS1  =                   10", "NAXIS2  =                   -1",
+                "END").validate());
+    }
+
+    /**
+     * Test that a stream which ends before the END card is reported.
+     *
+     * @throws IOException
+     *             If the header cannot be read.
+     */
+    @Test
+    public void testTruncatedHeader() throws IOException
+    {
+        byte[] fits = header("SIMPLE  =                    T", "BITPIX  =                    8");
+        byte[] truncated = new byte[fits.length - CARD_SIZE];
+        System.arraycopy(fits, 0, truncated, 0, truncated.length);
+        for (byte[] bytes : new byte[][] { fits, truncated })
+        {
+            try
+            {
+                FitsHeader.read(new ByteArrayInputStream(bytes), new byte[FitsHeader.BLOCK_SIZE]);
+                fail("Header without END should not have been read");
+            }
+            catch (EOFException e)
+            {
+                assertTrue(e.getMessage().contains("within the FITS header"));
+            }
+        }
+    }
+
+    private static FitsHeader read(String... cards) throws IOException
+    {
+        return FitsHeader.read(new ByteArrayInputStream(header(cards)), new byte[FitsHeader.BLOCK_SIZE]);
+    }
+
+    private static byte[] header(String... cards)
+    {
+        int blocks = (cards.length + CARDS_PER_BLOCK - 1) / CARDS_PER_BLOCK;
+        StringBuilder header = new StringBuilder();
+        for (String card : cards)
+        {
+            header.append(StringUtils.rightPad(card, CARD_SIZE));
+        }
+        return StringUtils.rightPad(header.toString(), blocks * FitsHeader.BLOCK_SIZE)
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first);
+        out.write(second);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,139 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the Retry-After parsing and token bucket of HostGovernor.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class HostGovernorTest
+{
+    private static final long MAX_RETRY_AFTER_MILLIS = 300000;
+    private static final long START_NANOS = 1000000000L;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Test that missing and unparseable Retry-After values are ignored.
+     */
+    @Test
+    public void testParseRetryAfterInvalid()
+    {
+        assertNull(HostGovernor.parseRetryAfter(null));
+        assertNull(HostGovernor.parseRetryAfter(" "));
+        assertNull(HostGovernor.parseRetryAfter("soon"));
+        assertNull(HostGovernor.parseRetryAfter("-5"));
+    }
+
+    /**
+     * Test that a number of seconds is converted to milliseconds and capped.
+     */
+    @Test
+    public void testParseRetryAfterSeconds()
+    {
+        assertEquals(Long.valueOf(0), HostGovernor.parseRetryAfter("0"));
+        assertEquals(Long.valueOf(120000), HostGovernor.parseRetryAfter(" 120 "));
+        assertEquals(Long.valueOf(MAX_RETRY_AFTER_MILLIS), HostGovernor.parseRetryAfter("86400"));
+        assertEquals("Overflow should be capped", Long.valueOf(MAX_RETRY_AFTER_MILLIS),
+                HostGovernor.parseRetryAfter("99999999999999999999"));
+    }
+
+    /**
+     * Test that an HTTP date is converted to the time until then, which is never negative.
+     */
+    @Test
+    public void testParseRetryAfterDate()
+    {
+        long delayMillis = 60000;
+        long tolerance = 5000;
+        String future = DateUtils.formatDate(new Date(System.currentTimeMillis() + delayMillis));
+        long millis = HostGovernor.parseRetryAfter(future);
+        assertTrue("Delay should be close to a minute, not " + millis,
+                millis <= delayMillis && millis > delayMillis - tolerance);
+
+        String past = DateUtils.formatDate(new Date(System.currentTimeMillis() - delayMillis));
+        assertEquals(Long.valueOf(0), HostGovernor.parseRetryAfter(past));
+
+        String farFuture = DateUtils.formatDate(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        assertEquals(Long.valueOf(MAX_RETRY_AFTER_MILLIS), HostGovernor.parseRetryAfter(farFuture));
+    }
+
+    /**
+     * Test that a full bucket allows a burst of one second of requests, after which requests are spaced at the rate.
+     */
+    @Test
+    public void testTokenBucketBurstThenSpacing()
+    {
+        final int rate = 5;
+        HostGovernor.TokenBucket bucket = new HostGovernor.TokenBucket(rate, START_NANOS);
+
+        for (int i = 0; i < rate; i++)
+        {
+            assertEquals("Burst request " + i + " should not wait", START_NANOS, bucket.reserve(START_NANOS));
+        }
+        for (int i = 1; i <= rate; i++)
+        {
+            assertEquals("Request should be queued behind the earlier ones", START_NANOS + i * NANOS_PER_SECOND / rate,
+                    bucket.reserve(START_NANOS));
+        }
+    }
+
+    /**
+     * Test that the bucket refills at the rate but never holds more than one second of tokens.
+     */
+    @Test
+    public void testTokenBucketRefill()
+    {
+        final int rate = 2;
+        HostGovernor.TokenBucket bucket = new HostGovernor.TokenBucket(rate, START_NANOS);
+        bucket.reserve(START_NANOS);
+        bucket.reserve(START_NANOS);
+
+        long halfSecond = START_NANOS + NANOS_PER_SECOND / 2;
+        assertEquals("One token should have been refilled", halfSecond, bucket.reserve(halfSecond));
+        assertEquals(halfSecond + NANOS_PER_SECOND / 2, bucket.reserve(halfSecond));
+
+        long later = START_NANOS + TimeUnit.MINUTES.toNanos(1);
+        assertEquals(later, bucket.reserve(later));
+        assertEquals(later, bucket.reserve(later));
+        assertEquals("Bucket should not have held more than its capacity", later + NANOS_PER_SECOND / 2,
+                bucket.reserve(later));
+    }
+
+    /**
+     * Test that rates below one request a second still allow a single request, and no rate means no limit.
+     */
+    @Test
+    public void testTokenBucketLimits()
+    {
+        HostGovernor.TokenBucket slow = new HostGovernor.TokenBucket(0.5, START_NANOS);
+        assertEquals(START_NANOS, slow.reserve(START_NANOS));
+        assertEquals(START_NANOS + 2 * NANOS_PER_SECOND, slow.reserve(START_NANOS));
+
+        HostGovernor.TokenBucket unlimited = new HostGovernor.TokenBucket(0, START_NANOS);
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(START_NANOS, unlimited.reserve(START_NANOS));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the bucketing, percentiles and merging of LatencyHistogram.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class LatencyHistogramTest
+{
+    private static final int EXACT_COUNT = 128;
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 64;
+
+    /**
+     * Test that values below 128 each have their own bucket and the first larger values share buckets in pairs.
+     */
+    @Test
+    public void testBucketBoundaries()
+    {
+        for (int value = 0; value < EXACT_COUNT; value++)
+        {
+            assertEquals("Small values should be counted exactly", value, LatencyHistogram.getIndex(value));
+            assertEquals(value, LatencyHistogram.getHighestValue(value));
+        }
+        assertEquals(EXACT_COUNT, LatencyHistogram.getIndex(EXACT_COUNT));
+        assertEquals(EXACT_COUNT, LatencyHistogram.getIndex(EXACT_COUNT + 1));
+        assertEquals(EXACT_COUNT + 1, LatencyHistogram.getHighestValue(EXACT_COUNT));
+        assertEquals(EXACT_COUNT + 1, LatencyHistogram.getIndex(EXACT_COUNT + 2));
+    }
+
+    /**
+     * Test that every value falls in a bucket whose highest value is within the stated error of it, and that the
+     * buckets are in value order.
+     */
+    @Test
+    public void testBucketPrecision()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++)
+        {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(Long.SIZE - 1);
+            int index = LatencyHistogram.getIndex(value);
+            long highest = LatencyHistogram.getHighestValue(index);
+            assertTrue("Bucket of " + value + " should include it", highest >= value);
+            assertTrue("Bucket of " + value + " should end within the stated error, not at " + highest,
+                    highest - value <= value * MAX_RELATIVE_ERROR);
+            if (index > 0)
+            {
+                assertTrue("Previous bucket of " + value + " should end below it",
+                        LatencyHistogram.getHighestValue(index - 1) < value);
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getHighestValue(LatencyHistogram.getIndex(Long.MAX_VALUE)));
+    }
+
+    /**
+     * Test the percentiles of a spread of latencies, including the bounds.
+     */
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("An empty histogram should report zero", 0, histogram.getPercentileMicros(50));
+
+        for (int millis = 1; millis <= 1000; millis++)
+        {
+            histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(1000000, histogram.getMaxMicros());
+        assertLatency(500000, histogram.getPercentileMicros(50));
+        assertLatency(900000, histogram.getPercentileMicros(90));
+        assertLatency(990000, histogram.getPercentileMicros(99));
+        assertLatency(1000, histogram.getPercentileMicros(0));
+        assertEquals("The top percentile should be the largest value", 1000000, histogram.getPercentileMicros(100));
+    }
+
+    /**
+     * Test that negative latencies, which can come from a clock step, are counted as zero.
+     */
+    @Test
+    public void testNegativeLatency()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(-TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertEquals(1, histogram.getTotalCount());
+        assertEquals(0, histogram.getPercentileMicros(100));
+    }
+
+    /**
+     * Test that merging histograms gives the same result as recording every value in one histogram.
+     */
+    @Test
+    public void testMerge()
+    {
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int micros = 1; micros <= 500; micros++)
+        {
+            fast.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+            all.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        for (int millis = 10; millis <= 50; millis++)
+        {
+            slow.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+            all.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(slow);
+        merged.add(fast);
+
+        assertEquals(all.getTotalCount(), merged.getTotalCount());
+        assertEquals(all.getMaxMicros(), merged.getMaxMicros());
+        for (double percentile : new double[] { 0, 10, 50, 90, 92.5, 99, 100 })
+        {
+            assertEquals("Percentile " + percentile + " should match", all.getPercentileMicros(percentile),
+                    merged.getPercentileMicros(percentile));
+        }
+    }
+
+    private static void assertLatency(long expectedMicros, long actualMicros)
+    {
+        assertTrue("Expected about " + expectedMicros + " us but was " + actualMicros,
+                actualMicros >= expectedMicros && actualMicros - expectedMicros <= expectedMicros * MAX_RELATIVE_ERROR);
+    }
+}
@@ -0,0 +1,131 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import au.csiro.casda.sodalint.MessageAggregator.MessageCount;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the normalising, counting and eviction of messages by MessageAggregator.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class MessageAggregatorTest
+{
+    private static final String CODE = "E-CAP-CPRS";
+
+    /**
+     * Test that urls, numbers and white space are normalised so the same problem on different services matches.
+     */
+    @Test
+    public void testNormalise()
+    {
+        assertEquals("Bad response <url> status #", MessageAggregator.normalise(
+                "Bad response  http://example.com/soda/capabilities?x=1\n status 503"));
+        assertEquals("Value # out of range #", MessageAggregator.normalise("Value -1.5e3 out of range 42"));
+        assertEquals("", MessageAggregator.normalise(null));
+    }
+
+    /**
+     * Test that messages differing only in their urls and numbers are counted together, with the first services
+     * kept as exemplars.
+     */
+    @Test
+    public void testCountsMatchingMessages()
+    {
+        MessageAggregator aggregator = new MessageAggregator(10, 2);
+        for (int i = 1; i <= 3; i++)
+        {
+            aggregator.add(CODE, "Timeout after " + i + " s", "http://host" + i + "/soda");
+        }
+        aggregator.add("W-CAP-CPRS", "Timeout after 1 s", "http://host1/soda");
+
+        List<MessageCount> top = aggregator.getTopMessages(10);
+        assertEquals(2, top.size());
+        assertEquals(CODE, top.get(0).getCode());
+        assertEquals("Timeout after # s", top.get(0).getMessage());
+        assertEquals(3, top.get(0).getCount());
+        assertEquals(0, top.get(0).getMaxOvercount());
+        assertEquals(Arrays.asList("http://host1/soda", "http://host2/soda"), top.get(0).getExemplars());
+        assertEquals(1, top.get(1).getCount());
+        assertEquals(4, aggregator.getTotalMessages());
+    }
+
+    /**
+     * Test that once every counter is in use, a new message takes over the counter with the lowest count and
+     * carries its count as the overcount, while common messages are kept.
+     */
+    @Test
+    public void testEviction()
+    {
+        MessageAggregator aggregator = new MessageAggregator(2, 1);
+        add(aggregator, "common", 5);
+        add(aggregator, "rare", 2);
+        add(aggregator, "newcomer", 1);
+
+        List<MessageCount> top = aggregator.getTopMessages(10);
+        assertEquals(2, top.size());
+        assertEquals("common", top.get(0).getMessage());
+        assertEquals(5, top.get(0).getCount());
+        assertEquals("newcomer", top.get(1).getMessage());
+        assertEquals("Count should include the evicted count", 3, top.get(1).getCount());
+        assertEquals(2, top.get(1).getMaxOvercount());
+        assertEquals(8, aggregator.getTotalMessages());
+    }
+
+    /**
+     * Test that among messages with equal counts the least recently counted is taken over first.
+     */
+    @Test
+    public void testEvictsLeastRecentOfEqualCounts()
+    {
+        MessageAggregator aggregator = new MessageAggregator(2, 1);
+        add(aggregator, "first", 1);
+        add(aggregator, "second", 1);
+        add(aggregator, "third", 1);
+
+        List<MessageCount> top = aggregator.getTopMessages(1);
+        assertEquals(1, top.size());
+        assertEquals("third", top.get(0).getMessage());
+        assertEquals("second", aggregator.getTopMessages(2).get(1).getMessage());
+    }
+
+    /**
+     * Test that the returned counts are copies which do not change as more messages are counted.
+     */
+    @Test
+    public void testTopMessagesAreCopies()
+    {
+        MessageAggregator aggregator = new MessageAggregator(2, 1);
+        add(aggregator, "common", 1);
+        MessageCount count = aggregator.getTopMessages(1).get(0);
+        add(aggregator, "common", 1);
+
+        assertEquals(1, count.getCount());
+        assertEquals(2, aggregator.getTopMessages(1).get(0).getCount());
+    }
+
+    private static void add(MessageAggregator aggregator, String message, int times)
+    {
+        for (int i = 0; i < times; i++)
+        {
+            aggregator.add(CODE, message, "http://example.com/soda");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the scheduling of runs by MonitorDaemon.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class MonitorDaemonTest
+{
+    private static final long INTERVAL = TimeUnit.MINUTES.toNanos(5);
+    private static final long SLOT = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * Test that a run which finishes within its interval is followed by the next slot.
+     */
+    @Test
+    public void testNextSlot()
+    {
+        assertEquals(SLOT + INTERVAL, MonitorDaemon.getNextSlot(SLOT, INTERVAL, SLOT + 1));
+        assertEquals(SLOT + INTERVAL, MonitorDaemon.getNextSlot(SLOT, INTERVAL, SLOT + INTERVAL - 1));
+    }
+
+    /**
+     * Test that a run which finishes exactly on the next slot still runs in that slot.
+     */
+    @Test
+    public void testNextSlotNow()
+    {
+        assertEquals(SLOT + INTERVAL, MonitorDaemon.getNextSlot(SLOT, INTERVAL, SLOT + INTERVAL));
+    }
+
+    /**
+     * Test that the slots which passed during a slow run are skipped, keeping the runs on the original grid.
+     */
+    @Test
+    public void testSkipsPassedSlots()
+    {
+        assertEquals(SLOT + 2 * INTERVAL, MonitorDaemon.getNextSlot(SLOT, INTERVAL, SLOT + INTERVAL + 1));
+        assertEquals(SLOT + 4 * INTERVAL, MonitorDaemon.getNextSlot(SLOT, INTERVAL, SLOT + 3 * INTERVAL + 1));
+        assertEquals(SLOT + 4 * INTERVAL, MonitorDaemon.getNextSlot(SLOT, INTERVAL, SLOT + 4 * INTERVAL - 1));
+    }
+
+    /**
+     * Test that slots are found correctly when the nano time is negative, as its origin is arbitrary.
+     */
+    @Test
+    public void testNegativeNanoTime()
+    {
+        long slot = -SLOT;
+        assertEquals(slot + 3 * INTERVAL, MonitorDaemon.getNextSlot(slot, INTERVAL, slot + 2 * INTERVAL + 1));
+    }
+}
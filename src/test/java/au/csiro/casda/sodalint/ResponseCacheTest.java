@@ -0,0 +1,161 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the sharing of responses between stages by ResponseCache against a {@link StandInSodaServer}.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ResponseCacheTest
+{
+    private static final int STATUS_OK = 200;
+    private static final int LATENCY_MILLIS = 500;
+    private static final int CANCEL_MILLIS = 200;
+    private static final int WAIT_SECONDS = 10;
+
+    private StandInSodaServer server;
+    private SodaHttpClient httpClient;
+    private ResponseCache responseCache;
+    private String address;
+    private ExecutorService stages;
+    private ScheduledExecutorService canceller;
+
+    @Before
+    public void setup() throws IOException
+    {
+        server = new StandInSodaServer();
+        httpClient = new SodaHttpClient();
+        responseCache = new ResponseCache(httpClient, new ServiceTimings());
+        address = server.getServiceUrl() + "/capabilities";
+        stages = Executors.newFixedThreadPool(2);
+        canceller = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        canceller.shutdownNow();
+        stages.shutdownNow();
+        httpClient.close();
+        server.close();
+    }
+
+    /**
+     * Test that when the stage requesting a document is cancelled, a sibling stage waiting for the same document
+     * requests it again rather than sharing the cancelled stage's failure, and the new response is the one cached.
+     *
+     * @throws Exception
+     *             If the test cannot be run.
+     */
+    @Test
+    public void testCancelledFetchNotCached() throws Exception
+    {
+        server.setLatencyMillis(LATENCY_MILLIS);
+        CancellationScope cancelled = new CancellationScope();
+        Future<CachedResponse> cancelledStage = stages.submit(() -> getResponseIn(cancelled));
+        waitForRequests(1);
+        Future<CachedResponse> siblingStage = stages.submit(() -> getResponseIn(new CancellationScope()));
+        canceller.schedule(() -> cancelled.cancel("Stage deadline of 1 s was reached"), CANCEL_MILLIS,
+                TimeUnit.MILLISECONDS);
+
+        try
+        {
+            cancelledStage.get(WAIT_SECONDS, TimeUnit.SECONDS);
+            fail("Cancelled stage should not have received the document");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        }
+        assertEquals("Sibling stage should have read the document", STATUS_OK,
+                siblingStage.get(WAIT_SECONDS, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(STATUS_OK, responseCache.getResponse(address, null).getStatusCode());
+        assertEquals("Document should have been requested again once only", 2,
+                server.getRequestCount("/soda/capabilities"));
+    }
+
+    /**
+     * Test that a failure of the service itself, such as a read timeout, is still cached so every stage sees the
+     * same result.
+     *
+     * @throws Exception
+     *             If the test cannot be run.
+     */
+    @Test
+    public void testServiceFailureCached() throws Exception
+    {
+        server.setLatencyMillis(LATENCY_MILLIS);
+        try (SodaHttpClient slowClient = new SodaHttpClient(SodaHttpClient.DEFAULT_MAX_CONNECTIONS,
+                SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, SodaHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                CANCEL_MILLIS))
+        {
+            responseCache = new ResponseCache(slowClient, new ServiceTimings());
+            for (int stage = 0; stage < 2; stage++)
+            {
+                try
+                {
+                    stages.submit(() -> getResponseIn(new CancellationScope())).get(WAIT_SECONDS, TimeUnit.SECONDS);
+                    fail("Request should have timed out");
+                }
+                catch (ExecutionException e)
+                {
+                    assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SocketTimeoutException);
+                }
+            }
+        }
+        assertEquals("Timed out request should not have been repeated", 1,
+                server.getRequestCount("/soda/capabilities"));
+    }
+
+    private CachedResponse getResponseIn(CancellationScope scope) throws IOException
+    {
+        scope.enter();
+        try
+        {
+            return responseCache.getResponse(address, null);
+        }
+        finally
+        {
+            scope.exit();
+            Thread.interrupted();
+        }
+    }
+
+    private void waitForRequests(int count) throws InterruptedException
+    {
+        final int pollMillis = 10;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (server.getRequestCount("/soda/capabilities") < count && System.nanoTime() < deadline)
+        {
+            Thread.sleep(pollMillis);
+        }
+    }
+}
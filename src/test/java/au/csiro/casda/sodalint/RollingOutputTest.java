@@ -0,0 +1,136 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the appending and rolling over of RollingOutput files.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class RollingOutputTest
+{
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setup() throws IOException
+    {
+        directory = Files.createTempDirectory("sodalint-output");
+        file = directory.resolve("monitor.log");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(new File(directory.toString()));
+    }
+
+    /**
+     * Test that blocks are appended to an existing file until the next block would take it past the limit.
+     *
+     * @throws IOException
+     *             If the files cannot be written.
+     */
+    @Test
+    public void testAppendsUntilLimit() throws IOException
+    {
+        Files.write(file, "old\n".getBytes(StandardCharsets.UTF_8));
+        try (RollingOutput output = new RollingOutput(file, 12, 2))
+        {
+            output.write("run1\n");
+            output.write("run2\n");
+        }
+
+        assertEquals("run2\n", read(file));
+        assertEquals("old\nrun1\n", read(directory.resolve("monitor.log.1")));
+    }
+
+    /**
+     * Test that each roll over shifts the backups along and the oldest is deleted.
+     *
+     * @throws IOException
+     *             If the files cannot be written.
+     */
+    @Test
+    public void testKeepsLimitedBackups() throws IOException
+    {
+        try (RollingOutput output = new RollingOutput(file, 5, 2))
+        {
+            for (int run = 1; run <= 4; run++)
+            {
+                output.write("run" + run + "\n");
+            }
+        }
+
+        assertEquals("run4\n", read(file));
+        assertEquals("run3\n", read(directory.resolve("monitor.log.1")));
+        assertEquals("run2\n", read(directory.resolve("monitor.log.2")));
+        assertFalse("Oldest backup should have been deleted", Files.exists(directory.resolve("monitor.log.3")));
+    }
+
+    /**
+     * Test that a block larger than the limit is written whole to an empty file rather than rolled over again.
+     *
+     * @throws IOException
+     *             If the files cannot be written.
+     */
+    @Test
+    public void testOversizedBlock() throws IOException
+    {
+        try (RollingOutput output = new RollingOutput(file, 5, 1))
+        {
+            output.write("a long run\n");
+        }
+
+        assertEquals("a long run\n", read(file));
+        assertFalse(Files.exists(directory.resolve("monitor.log.1")));
+    }
+
+    /**
+     * Test that with no backups the file is simply started again.
+     *
+     * @throws IOException
+     *             If the files cannot be written.
+     */
+    @Test
+    public void testNoBackups() throws IOException
+    {
+        try (RollingOutput output = new RollingOutput(file, 5, 0))
+        {
+            output.write("run1\n");
+            output.write("run2\n");
+        }
+
+        assertEquals("run2\n", read(file));
+        assertEquals(1, directory.toFile().list().length);
+    }
+
+    private static String read(Path path) throws IOException
+    {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
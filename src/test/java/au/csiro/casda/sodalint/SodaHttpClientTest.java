@@ -0,0 +1,218 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.client.CircularRedirectException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the redirect handling, deadlines and host permits of SodaHttpClient against a {@link StandInSodaServer}.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class SodaHttpClientTest
+{
+    private static final String PRODUCT_ID = "cube-1";
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_SEE_OTHER = 303;
+    private static final int DEADLINE_MILLIS = 1000;
+
+    private StandInSodaServer server;
+    private SodaHttpClient httpClient;
+    private String host;
+
+    @Before
+    public void setup() throws IOException
+    {
+        server = new StandInSodaServer();
+        httpClient = new SodaHttpClient(SodaHttpClient.DEFAULT_MAX_CONNECTIONS,
+                SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, SodaHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                SodaHttpClient.DEFAULT_READ_TIMEOUT_MILLIS, DEADLINE_MILLIS, new HostGovernor(1, 0));
+        host = server.getServiceUrl().getHost();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        httpClient.close();
+        server.close();
+    }
+
+    /**
+     * Test that a redirect is followed and the permit for the host is held until the final body has been read.
+     *
+     * @throws IOException
+     *             If the request fails.
+     */
+    @Test
+    public void testRedirectFollowed() throws IOException
+    {
+        server.setCutoutAxes(10, 10);
+        HttpGet request = new HttpGet(server.getServiceUrl() + "/moved?ID=" + PRODUCT_ID);
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            assertEquals(STATUS_OK, response.getStatusLine().getStatusCode());
+            assertEquals(1, server.getRequestCount("/soda/moved"));
+            assertEquals(1, server.getRequestCount("/soda/sync"));
+            assertEquals("Final hop should hold the permit", 0, httpClient.getGovernor().getAvailableSlots(host));
+
+            byte[] body = EntityUtils.toByteArray(response.getEntity());
+            assertEquals(2 * FitsHeader.BLOCK_SIZE, body.length);
+        }
+        assertEquals("Permit should have been released", 1, httpClient.getGovernor().getAvailableSlots(host));
+    }
+
+    /**
+     * Test that the body of a redirected request is still aborted at the request's deadline.
+     *
+     * @throws IOException
+     *             If the request fails other than at the deadline.
+     */
+    @Test
+    public void testRedirectToSlowBodyDeadline() throws IOException
+    {
+        final int trickleMillis = 200;
+        server.setCutoutAxes(10, 10, 200);
+        server.setTrickleMillis(trickleMillis);
+        HttpGet request = new HttpGet(server.getServiceUrl() + "/moved?ID=" + PRODUCT_ID);
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            assertEquals(STATUS_OK, response.getStatusLine().getStatusCode());
+            EntityUtils.toByteArray(response.getEntity());
+            fail("Slow body should have been aborted at the deadline");
+        }
+        catch (InterruptedIOException e)
+        {
+            assertTrue("Deadline should have been reported: " + e.getMessage(),
+                    e.getMessage().contains("deadline of " + DEADLINE_MILLIS + " ms"));
+        }
+        assertEquals("Permit should have been released", 1, httpClient.getGovernor().getAvailableSlots(host));
+    }
+
+    /**
+     * Test that cancelling the caller's scope aborts the final hop of a redirected request.
+     *
+     * @throws IOException
+     *             If the request fails other than by being cancelled.
+     */
+    @Test
+    public void testRedirectCancelled() throws IOException
+    {
+        final int trickleMillis = 200;
+        server.setCutoutAxes(10, 10, 200);
+        server.setTrickleMillis(trickleMillis);
+        CancellationScope scope = new CancellationScope();
+        HttpGet request = new HttpGet(server.getServiceUrl() + "/moved?ID=" + PRODUCT_ID);
+        scope.enter();
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            scope.cancel("Stopped by the test");
+            EntityUtils.toByteArray(response.getEntity());
+            fail("Cancelled body should not have been read");
+        }
+        catch (InterruptedIOException e)
+        {
+            assertEquals("Stopped by the test", e.getMessage());
+        }
+        finally
+        {
+            scope.exit();
+            Thread.interrupted();
+        }
+        assertEquals(1, httpClient.getGovernor().getAvailableSlots(host));
+    }
+
+    /**
+     * Test that a request whose configuration disables redirects receives the redirect response.
+     *
+     * @throws IOException
+     *             If the request fails.
+     */
+    @Test
+    public void testRedirectDisabled() throws IOException
+    {
+        HttpGet request = new HttpGet(server.getServiceUrl() + "/moved?ID=" + PRODUCT_ID);
+        request.setConfig(RequestConfig.copy(httpClient.getRequestConfig()).setRedirectsEnabled(false).build());
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            assertEquals(STATUS_SEE_OTHER, response.getStatusLine().getStatusCode());
+            assertTrue(response.getFirstHeader("Location").getValue().endsWith("/soda/sync?ID=" + PRODUCT_ID));
+        }
+        assertEquals(0, server.getRequestCount("/soda/sync"));
+    }
+
+    /**
+     * Test that the request's configuration is applied to the redirected hop, not only the first.
+     *
+     * @throws IOException
+     *             If the request fails other than by timing out.
+     */
+    @Test
+    public void testRedirectKeepsConfig() throws IOException
+    {
+        final int socketTimeoutMillis = 100;
+        final int trickleMillis = 400;
+        server.setCutoutAxes(10, 10, 20);
+        server.setTrickleMillis(trickleMillis);
+        HttpGet request = new HttpGet(server.getServiceUrl() + "/moved?ID=" + PRODUCT_ID);
+        request.setConfig(RequestConfig.copy(httpClient.getRequestConfig()).setSocketTimeout(socketTimeoutMillis)
+                .build());
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            EntityUtils.toByteArray(response.getEntity());
+            fail("Slow body of the redirected hop should have reached the socket timeout");
+        }
+        catch (SocketTimeoutException e)
+        {
+            // The redirected hop used the request's short socket timeout
+        }
+        assertEquals(1, server.getRequestCount("/soda/sync"));
+    }
+
+    /**
+     * Test that a redirect back to an address already requested is rejected rather than followed again.
+     *
+     * @throws IOException
+     *             If the request fails other than by being rejected.
+     */
+    @Test
+    public void testCircularRedirect() throws IOException
+    {
+        HttpGet request = new HttpGet(server.getServiceUrl() + "/loop?ID=" + PRODUCT_ID);
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            fail("Circular redirect should have been rejected, not returned " + response.getStatusLine());
+        }
+        catch (ClientProtocolException e)
+        {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof CircularRedirectException);
+        }
+        assertEquals("Loop should not have been requested again", 1, server.getRequestCount("/soda/loop"));
+        assertEquals("Permit should have been released", 1, httpClient.getGovernor().getAvailableSlots(host));
+    }
+}
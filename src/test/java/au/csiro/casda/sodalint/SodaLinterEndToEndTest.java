@@ -0,0 +1,569 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.starlink.task.TaskException;
+import uk.ac.starlink.ttools.taplint.OutputReporter;
+import uk.ac.starlink.ttools.taplint.ReportType;
+import uk.ac.starlink.ttools.taplint.TextOutputReporter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Runs the linter over http against a {@link StandInSodaServer}, checking the reports of whole validation runs.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class SodaLinterEndToEndTest
+{
+    private static final String CHARSET_UTF_8 = "UTF-8";
+    private static final String PRODUCT_ID = "cube-1";
+
+    private StandInSodaServer server;
+    private SodaHttpClient httpClient;
+    private SodaLinter linter;
+
+    @Before
+    public void setup() throws IOException
+    {
+        server = new StandInSodaServer();
+        httpClient = new SodaHttpClient();
+        linter = new SodaLinter(httpClient);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        httpClient.close();
+        server.close();
+    }
+
+    /**
+     * Test that a well behaved service passes all the default stages, including the sync cutout and async job.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testDefaultStagesPass() throws Exception
+    {
+        String result = runStages(PRODUCT_ID, "CPV", "CAP", "AVV", "SVD", "SYN", "ASY");
+
+        assertEquals("No errors should have been reported", "", getLines(result, "E-", "F-"));
+        assertTrue("Cutout should have been checked", result.contains("I-SYN-SYCU"));
+        assertTrue("Async job should have been created", result.contains("I-ASY-ASJB"));
+        assertEquals("Async job should have run", 1, server.getRequestCount("/soda/async/1/phase"));
+    }
+
+    /**
+     * Test that the requests made about an async job are timed and reported with their methods.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testAsyncRequestsTimed() throws Exception
+    {
+        String result = runStages(PRODUCT_ID, "CAP", "ASY");
+
+        String timings = getLines(result, "I-ASY-HTTP");
+        String jobUrl = server.getServiceUrl() + "/async/1";
+        assertTrue("Job creation should have been timed", timings.contains("POST " + server.getServiceUrl()
+                + "/async returned 303"));
+        assertTrue("Job status should have been timed", timings.contains("GET " + jobUrl + " returned 200"));
+        assertTrue("Job run should have been timed", timings.contains("POST " + jobUrl + "/phase returned 303"));
+        assertTrue("Job result should have been timed", timings.contains("GET " + jobUrl + "/results/cutout"));
+        assertTrue("Job deletion should have been timed", timings.contains("DELETE " + jobUrl + " returned 303"));
+    }
+
+    /**
+     * Test that the schema and rule checks of the capabilities document share a single download of it.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testCapabilitiesFetchedOnce() throws Exception
+    {
+        String result = runStages(null, "CPV", "CAP");
+
+        assertEquals("No errors should have been reported", "", getLines(result, "E-", "F-"));
+        assertEquals("Capabilities should be requested once", 1, server.getRequestCount("/soda/capabilities"));
+        assertEquals("Capabilities should be requested beneath the base url", 0,
+                server.getRequestCount("/capabilities"));
+    }
+
+    /**
+     * Test that an http error from the sync endpoint is reported.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testSyncServerError() throws Exception
+    {
+        final int statusServerError = 500;
+        server.failRequests("/soda/sync", statusServerError, -1);
+
+        String result = runStages(null, "CAP", "SYN");
+
+        assertTrue("Sync error should have been reported", getLines(result, "E-SYN-SYCO").contains("500"));
+    }
+
+    /**
+     * Test that a service descriptor consisting only of white space is reported as empty by each stage reading it,
+     * rather than being handed to the parser.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testBlankServiceDescriptor() throws Exception
+    {
+        server.setServiceDescriptor(" \r\n\t\n");
+
+        String result = runStages(PRODUCT_ID, "CAP", "SVD", "CUT");
+
+        assertTrue("Blank descriptor should be reported", result.contains("I-SVD-SYNO"));
+        assertTrue("Blank descriptor should be reported",
+                getLines(result, "E-SVD-SYCO").contains("Sync response contains no content"));
+        assertTrue("Cutouts should find no parameters",
+                getLines(result, "E-CUT-SYCO").contains("Sync response contains no content"));
+        assertEquals("Blank descriptor should not be parsed", "", getLines(result, "E-SVD-SYUR", "E-CUT-SYUR"));
+    }
+
+    /**
+     * Test that a slow service is reported once the read timeout is reached.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testReadTimeout() throws Exception
+    {
+        final int readTimeoutMillis = 200;
+        final int latencyMillis = 1000;
+        server.setLatencyMillis(latencyMillis);
+        try (SodaHttpClient slowClient = new SodaHttpClient(SodaHttpClient.DEFAULT_MAX_CONNECTIONS,
+                SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, readTimeoutMillis, readTimeoutMillis))
+        {
+            linter = new SodaLinter(slowClient);
+            String result = runStages(null, "CAP");
+
+            assertTrue("Timeout should have been reported", getLines(result, "E-CAP-CPRS").contains("timed out"));
+            String timing = getLines(result, "I-CAP-HTTP");
+            assertTrue("Timed out request should have been timed: " + timing,
+                    timing.contains(" failed in ") && timing.contains("no response: SocketTimeoutException"));
+        }
+    }
+
+    /**
+     * Test that a stage which hangs is cancelled at its deadline, without waiting for the slow response.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testStageDeadline() throws Exception
+    {
+        final int latencyMillis = 5000;
+        server.setLatencyMillis(latencyMillis);
+        DeadlineSettings deadlines = new DeadlineSettings();
+        deadlines.setStageSeconds(1);
+        linter.setDeadlineSettings(deadlines);
+
+        String result = runStages(null, "CAP");
+
+        assertTrue("Stage should have been cancelled", getLines(result, "E-CAP-DDLN").contains("deadline of 1 s"));
+        assertEquals("Request should have been sent", 1, server.getRequestCount("/soda/capabilities"));
+        assertEquals("Stage should not have waited for the response", 0,
+                server.getAnsweredCount("/soda/capabilities"));
+    }
+
+    /**
+     * Test that an async job which does not finish before the stage deadline is stopped being followed, and the stage
+     * is completed without its thread waiting for the job.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testAsyncStageDeadline() throws Exception
+    {
+        final int jobDurationMillis = 60000;
+        server.setJobDurationMillis(jobDurationMillis);
+        DeadlineSettings deadlines = new DeadlineSettings();
+        deadlines.setStageSeconds(1);
+        linter.setDeadlineSettings(deadlines);
+
+        String result = runStages(PRODUCT_ID, "CAP", "ASY");
+
+        assertTrue("Job should have been created", result.contains("I-ASY-ASJB-01 Created async job"));
+        assertTrue("Job should have stopped being followed",
+                getLines(result, "E-ASY-ASJT").contains("Stopped waiting for async job"));
+        assertTrue("Stage should have been cancelled", getLines(result, "E-ASY-DDLN").contains("deadline of 1 s"));
+        assertFalse("Stage should not have been abandoned", result.contains("discarded"));
+    }
+
+    /**
+     * Test that documents which have not changed are revalidated with conditional requests and the earlier results
+     * are replayed.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testConditionalRevalidation() throws Exception
+    {
+        server.setEtagsEnabled(true);
+        Path cacheDir = Files.createTempDirectory("sodalint-cache");
+        try
+        {
+            linter.setRevalidationCache(new RevalidationCache(cacheDir));
+            String first = runStages(null, "CAP", "SVD");
+            assertFalse("First run should check the documents", first.contains("-CACH-"));
+
+            String second = runStages(null, "CAP", "SVD");
+            assertTrue("Capabilities should be replayed", second.contains("I-CAP-CACH"));
+            assertTrue("Service descriptor should be replayed", second.contains("I-SVD-CACH"));
+            assertEquals("Replayed results should match", getLines(first, "E-", "W-"), getLines(second, "E-", "W-"));
+            assertEquals("Both documents should have been revalidated", 2, server.getNotModifiedCount());
+        }
+        finally
+        {
+            FileUtils.deleteDirectory(new File(cacheDir.toString()));
+        }
+    }
+
+    /**
+     * Test that the results cached by another version of the linter are not replayed, as its checks may differ.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testRevalidationCacheVersion() throws Exception
+    {
+        server.setEtagsEnabled(true);
+        Path cacheDir = Files.createTempDirectory("sodalint-cache");
+        try
+        {
+            linter.setRevalidationCache(new RevalidationCache(cacheDir, "1.0"));
+            runStages(null, "CAP");
+
+            linter.setRevalidationCache(new RevalidationCache(cacheDir, "1.1"));
+            String upgraded = runStages(null, "CAP");
+            assertFalse("Results of the earlier version should not be replayed", upgraded.contains("-CACH-"));
+            assertEquals("The document should have been fetched in full", 0, server.getNotModifiedCount());
+
+            String second = runStages(null, "CAP");
+            assertTrue("Results of the same version should be replayed", second.contains("I-CAP-CACH"));
+        }
+        finally
+        {
+            FileUtils.deleteDirectory(new File(cacheDir.toString()));
+        }
+    }
+
+    /**
+     * Test that a fleet run lists the most common messages, counting the same problem on different services together.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testFleetSummary() throws Exception
+    {
+        final int statusServerError = 500;
+        try (StandInSodaServer otherServer = new StandInSodaServer())
+        {
+            server.failRequests("/soda/sync", statusServerError, -1);
+            otherServer.failRequests("/soda/sync", statusServerError, -1);
+            List<FleetEntry> services = Arrays.asList(new FleetEntry(server.getServiceUrl(), null),
+                    new FleetEntry(otherServer.getServiceUrl(), null));
+            FleetRunner fleetRunner = new FleetRunner(linter, 2, ReportFormat.TEXT, 10, 1024);
+            fleetRunner.setSummarySize(5);
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PrintStream ps = new PrintStream(baos, false, CHARSET_UTF_8);
+            fleetRunner.run(services, new HashSet<>(Arrays.asList("CAP", "SYN")), ps);
+            ps.flush();
+            String result = baos.toString(CHARSET_UTF_8);
+            System.out.println(result);
+
+            String summary = result.substring(result.indexOf("Most common messages across 2 services"));
+            assertTrue("Shared failure should have been counted once per service",
+                    summary.contains("2 E-SYN-SYCO Unexpected http response"));
+            assertTrue("Exemplars should have been listed", summary.contains(server.getServiceUrl().toString())
+                    && summary.contains(otherServer.getServiceUrl().toString()));
+            assertFalse("Info messages should not have been counted", summary.contains(" I-"));
+        }
+    }
+
+    /**
+     * Test that a JSON fleet run writes whole records naming their service and stage, with the records of the
+     * services sharing the output.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testJsonFleetRecords() throws Exception
+    {
+        try (StandInSodaServer otherServer = new StandInSodaServer())
+        {
+            List<FleetEntry> services = Arrays.asList(new FleetEntry(server.getServiceUrl(), null),
+                    new FleetEntry(otherServer.getServiceUrl(), null));
+            FleetRunner fleetRunner = new FleetRunner(linter, 2, ReportFormat.JSON, 10, 1024);
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PrintStream ps = new PrintStream(baos, false, CHARSET_UTF_8);
+            fleetRunner.run(services, new HashSet<>(Arrays.asList("CAP", "SYN")), ps);
+            ps.flush();
+            String result = baos.toString(CHARSET_UTF_8);
+            System.out.println(result);
+
+            for (String line : result.trim().split("\n"))
+            {
+                assertTrue("Each line should be a whole record: " + line,
+                        line.startsWith("{\"timestamp\":") && line.endsWith("}"));
+            }
+            for (StandInSodaServer standIn : Arrays.asList(server, otherServer))
+            {
+                String service = "\"service\":\"" + standIn.getServiceUrl() + "\"";
+                assertTrue("Capabilities records should name the service",
+                        result.contains(service + ",\"stage\":\"CAP\""));
+                assertTrue("Sync records should name the service", result.contains(service + ",\"stage\":\"SYN\""));
+            }
+        }
+    }
+
+    /**
+     * Test that the linter works with the HTTP/2 transport requested against a server which only speaks HTTP/1.1,
+     * and reports the protocol negotiated.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testHttp2TransportFallsBack() throws Exception
+    {
+        try (SodaHttpClient http2Client = new SodaHttpClient(SodaHttpClient.DEFAULT_MAX_CONNECTIONS,
+                SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, SodaHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                SodaHttpClient.DEFAULT_READ_TIMEOUT_MILLIS, SodaHttpClient.DEFAULT_REQUEST_TIMEOUT_MILLIS,
+                new HostGovernor(SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, 0), true))
+        {
+            linter = new SodaLinter(http2Client);
+            String result = runStages(PRODUCT_ID, "CAP", "SVD", "SYN", "ASY");
+
+            assertEquals("No errors should have been reported", "", getLines(result, "E-", "F-"));
+            assertTrue("Protocol should have been reported", getLines(result, "I-CAP-HTTP").contains("over HTTP/1.1"));
+            assertEquals("Async job should have run", 1, server.getRequestCount("/soda/async/1/phase"));
+        }
+    }
+
+    /**
+     * Test that documents are requested compressed, decompressed for validation, and the compression reported.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testCompressedDocuments() throws Exception
+    {
+        String plain = runStages(null, "CAP");
+        assertTrue("Uncompressed transfer should have been reported",
+                getLines(plain, "I-CAP-CMPR").contains("does not support compressed transfer"));
+
+        for (String coding : new String[] { "gzip", "deflate" })
+        {
+            server.setCompression(coding);
+            String result = runStages(null, "CAP", "AVV", "SVD");
+
+            assertEquals("No errors should have been reported", "", getLines(result, "E-", "F-"));
+            assertTrue("Capabilities compression should have been reported",
+                    getLines(result, "I-CAP-CMPR").contains("supports " + coding + " compressed transfer"));
+            assertTrue("Descriptor compression should have been reported",
+                    getLines(result, "I-SVD-CMPR").contains("supports " + coding + " compressed transfer"));
+            assertTrue("Compressed size should have been timed", getLines(result, "I-CAP-HTTP").contains(coding));
+        }
+    }
+
+    /**
+     * Test that the load test reports throughput and the requests refused by a throttled service.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testThrottledLoadTest() throws Exception
+    {
+        final int requests = 40;
+        final int maxPerSecond = 20;
+        LoadTestSettings settings = new LoadTestSettings();
+        settings.setClients(2);
+        settings.setRequestCount(requests);
+        linter.setLoadTestSettings(settings);
+        server.setThrottle(maxPerSecond, 1);
+
+        String result = runStages(PRODUCT_ID, "CAP", "LOD");
+
+        assertTrue("Throughput should have been reported", result.contains(requests + " requests in"));
+        assertTrue("Throttled requests should have been reported", getLines(result, "E-LOD-LDER").contains("429"));
+        assertTrue("Latency of throttled requests should have been reported separately",
+                getLines(result, "I-LOD-LOAD").contains(" failed requests: p50 "));
+    }
+
+    /**
+     * Test that a load test with more clients than the host allows in progress reports the concurrency it ran at.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testLoadTestLimitedByHost() throws Exception
+    {
+        final int requests = 6;
+        LoadTestSettings settings = new LoadTestSettings();
+        settings.setClients(3);
+        settings.setRequestCount(requests);
+        try (SodaHttpClient singleClient = new SodaHttpClient(SodaHttpClient.DEFAULT_MAX_CONNECTIONS,
+                SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, SodaHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                SodaHttpClient.DEFAULT_READ_TIMEOUT_MILLIS, SodaHttpClient.DEFAULT_REQUEST_TIMEOUT_MILLIS,
+                new HostGovernor(1, 0)))
+        {
+            linter = new SodaLinter(singleClient);
+            linter.setLoadTestSettings(settings);
+
+            String result = runStages(PRODUCT_ID, "CAP", "LOD");
+
+            assertTrue("Effective concurrency should have been reported",
+                    getLines(result, "I-LOD-VURL").contains("with 3 clients (limited by maxperhost to 1 at once)"));
+            assertTrue("Throughput should have been reported", result.contains(requests + " requests in"));
+        }
+    }
+
+    /**
+     * Test that a request rate set for the host keeps the load test within the limit of a throttled service.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testHostRateLimit() throws Exception
+    {
+        final int requests = 15;
+        final int maxPerSecond = 12;
+        final int requestsPerSecond = 5;
+        LoadTestSettings settings = new LoadTestSettings();
+        settings.setClients(2);
+        settings.setRequestCount(requests);
+        server.setThrottle(maxPerSecond, 1);
+        try (SodaHttpClient politeClient = new SodaHttpClient(SodaHttpClient.DEFAULT_MAX_CONNECTIONS,
+                SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, SodaHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                SodaHttpClient.DEFAULT_READ_TIMEOUT_MILLIS, SodaHttpClient.DEFAULT_REQUEST_TIMEOUT_MILLIS,
+                new HostGovernor(SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, requestsPerSecond)))
+        {
+            linter = new SodaLinter(politeClient);
+            linter.setLoadTestSettings(settings);
+
+            String result = runStages(PRODUCT_ID, "CAP", "LOD");
+
+            assertTrue("Throughput should have been reported", result.contains(requests + " requests in"));
+            assertFalse("No requests should have been throttled", result.contains("E-LOD-LDER"));
+            assertEquals("Server should not have throttled any request", 0, server.getThrottledCount());
+            assertTrue("Requests should have been spaced out, not " + server.getPeakRequestsPerSecond() + " in 1 s",
+                    server.getPeakRequestsPerSecond() <= maxPerSecond);
+        }
+    }
+
+    /**
+     * Test that cutouts are requested across the declared parameter space, with server errors reported as failures
+     * and rejected edge cases accepted.
+     *
+     * @throws Exception
+     *             If the run fails.
+     */
+    @Test
+    public void testCutoutParameterExercise() throws Exception
+    {
+        final int statusBadRequest = 400;
+        final int statusServerError = 500;
+        final int maxCombinations = 1000;
+        server.setServiceDescriptor(
+                FileUtils.readFileToString(new File("src/test/resources/service-descriptor-v1_3-ranges.xml")));
+        server.setCutoutAxes(10, 10);
+        server.failCutouts("POL=" + CutoutSampler.UNDECLARED_OPTION, statusBadRequest);
+        server.failCutouts("POL=Q", statusServerError);
+        CutoutExerciseSettings settings = new CutoutExerciseSettings();
+        settings.setMaxCombinations(maxCombinations);
+        linter.setCutoutExerciseSettings(settings);
+
+        String result = runStages(PRODUCT_ID, "CAP", "CUT");
+
+        String failures = getLines(result, "E-CUT-CXFL");
+        assertTrue("Server error should have been reported", failures.contains("POL=Q failed"));
+        assertTrue("Server error status should have been reported", failures.contains("500"));
+        assertFalse("Rejected edge case should not be a failure", failures.contains(CutoutSampler.UNDECLARED_OPTION));
+        assertTrue("Summary should have been reported", getLines(result, "I-CUT-CXSM").contains("edge cases rejected"));
+        assertTrue("Slowest cutouts should have been reported", result.contains("I-CUT-CXSL"));
+        assertTrue("Combinations should have been requested", server.getRequestCount("/soda/sync") > 1);
+    }
+
+    private String runStages(String productId, String... stages) throws IOException, TaskException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(baos, false, CHARSET_UTF_8);
+        OutputReporter reporter = new TextOutputReporter(ps, ReportType.values(), 10, false, 1024);
+        linter.createExecutable(reporter, server.getServiceUrl(), new HashSet<>(Arrays.asList(stages)), productId)
+                .execute();
+        ps.flush();
+        String result = baos.toString(CHARSET_UTF_8);
+        System.out.println(result);
+        return result;
+    }
+
+    private static String getLines(String result, String... prefixes)
+    {
+        List<String> lines = new ArrayList<>();
+        for (String line : result.split("\n"))
+        {
+            for (String prefix : prefixes)
+            {
+                if (line.startsWith(prefix))
+                {
+                    lines.add(line);
+                }
+            }
+        }
+        return String.join("\n", lines);
+    }
+}
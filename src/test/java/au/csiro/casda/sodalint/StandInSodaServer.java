@@ -0,0 +1,702 @@
+package au.csiro.casda.sodalint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * An in process stand-in for a SODA service, used to test the linter end to end without a network. The server
+ * listens on a free loopback port and serves a capabilities document, an availability document, a sync endpoint
+ * which returns the service descriptor or a synthetic FITS cutout, and UWS async jobs which complete after a
+ * configurable time. Latency, http errors, throttling, ETag validators, compression and slowly trickled cutouts can
+ * be injected to exercise the linter's error, timeout, caching, transfer and load test paths. A /moved endpoint
+ * redirects to the sync endpoint with the same query, with a short body, to exercise redirects, and a /loop endpoint
+ * redirects to itself.
+ * <p>
+ * The service base url is {@link #getServiceUrl()}, which has no trailing slash. The VOSI documents are served from
+ * any path ending in their name, so requests which wrongly resolve them as siblings of the base url can be counted.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class StandInSodaServer implements AutoCloseable
+{
+    private static final String BASE_PATH = "/soda";
+    private static final String XML_CONTENT_TYPE = "text/xml;charset=UTF-8";
+    private static final String FITS_CONTENT_TYPE = "application/fits";
+    private static final String ETAG = "\"stand-in-1\"";
+    private static final int FITS_BLOCK_SIZE = 2880;
+    private static final int FITS_CARD_SIZE = 80;
+    private static final int WAIT_POLL_MILLIS = 20;
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_SEE_OTHER = 303;
+    private static final int STATUS_NOT_MODIFIED = 304;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+    private static final String AVAILABILITY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<vosi:availability xmlns:vosi=\"http://www.ivoa.net/xml/VOSIAvailability/v1.0\">\n"
+            + "  <vosi:available>true</vosi:available>\n</vosi:availability>\n";
+
+    private static final String JOB = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<uws:job xmlns:uws=\"http://www.ivoa.net/xml/UWS/v1.0\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+            + "<uws:jobId>%s</uws:jobId><uws:phase>%s</uws:phase><uws:results>%s</uws:results></uws:job>\n";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final Map<String, Fault> faults = new ConcurrentHashMap<>();
+    private final Map<String, Integer> cutoutFaults = new ConcurrentHashMap<>();
+    private final Map<String, Long> jobRunTimes = new ConcurrentHashMap<>();
+    private final AtomicInteger jobCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private final Map<String, AtomicInteger> answeredCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger throttledCount = new AtomicInteger();
+    private final AtomicInteger completedCutoutCount = new AtomicInteger();
+    private final Deque<Long> recentArrivals = new ArrayDeque<>();
+    private int peakRequestsPerSecond;
+
+    private volatile String capabilities;
+    private volatile String availability = AVAILABILITY;
+    private volatile String serviceDescriptor;
+    private volatile int[] cutoutAxes = { 100, 100, 20 };
+    private volatile long latencyMillis;
+    private volatile long jobDurationMillis = 200;
+    private volatile long trickleMillis;
+    private volatile boolean etagsEnabled;
+    private volatile String compression;
+    private volatile int maxRequestsPerSecond;
+    private volatile int retryAfterSeconds = 1;
+    private long throttleWindowStart;
+    private int throttleWindowCount;
+
+    /**
+     * Create and start a new StandInSodaServer on a free loopback port.
+     *
+     * @throws IOException
+     *             If the server cannot be started or the default service descriptor cannot be read.
+     */
+    public StandInSodaServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // Async job polls block, so each exchange gets its own thread
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        capabilities = createCapabilities(getServiceUrl().toString());
+        serviceDescriptor = readResource("/service-descriptor-v1_2-good.xml");
+    }
+
+    /**
+     * @return The base url of the stand-in service, which is the parent of its capabilities endpoint.
+     */
+    public URL getServiceUrl()
+    {
+        try
+        {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), BASE_PATH);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setCapabilities(String capabilities)
+    {
+        this.capabilities = capabilities;
+    }
+
+    public void setAvailability(String availability)
+    {
+        this.availability = availability;
+    }
+
+    public void setServiceDescriptor(String serviceDescriptor)
+    {
+        this.serviceDescriptor = serviceDescriptor;
+    }
+
+    /**
+     * @param cutoutAxes
+     *            The length of each axis of the synthetic cutouts, which hold 32 bit floats.
+     */
+    public void setCutoutAxes(int... cutoutAxes)
+    {
+        this.cutoutAxes = cutoutAxes.clone();
+    }
+
+    /**
+     * @param latencyMillis
+     *            The delay added before every response is sent.
+     */
+    public void setLatencyMillis(long latencyMillis)
+    {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param jobDurationMillis
+     *            The time an async job spends executing before it completes.
+     */
+    public void setJobDurationMillis(long jobDurationMillis)
+    {
+        this.jobDurationMillis = jobDurationMillis;
+    }
+
+    /**
+     * @param trickleMillis
+     *            The delay before each FITS block of a cutout is sent, or 0 to send cutouts at once.
+     */
+    public void setTrickleMillis(long trickleMillis)
+    {
+        this.trickleMillis = trickleMillis;
+    }
+
+    /**
+     * @param etagsEnabled
+     *            True to send an ETag with the VOSI documents and sync descriptor and honour If-None-Match.
+     */
+    public void setEtagsEnabled(boolean etagsEnabled)
+    {
+        this.etagsEnabled = etagsEnabled;
+    }
+
+    /**
+     * @param compression
+     *            The content coding, gzip or deflate, used to compress the VOSI documents and sync descriptor when the
+     *            request accepts it, or null to send them uncompressed.
+     */
+    public void setCompression(String compression)
+    {
+        this.compression = compression;
+    }
+
+    /**
+     * Answer requests beyond a rate with 429 Too Many Requests and a Retry-After header.
+     *
+     * @param maxRequestsPerSecond
+     *            The number of requests allowed in each second, or 0 for no limit.
+     * @param retryAfterSeconds
+     *            The value of the Retry-After header.
+     */
+    public synchronized void setThrottle(int maxRequestsPerSecond, int retryAfterSeconds)
+    {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.throttleWindowCount = 0;
+    }
+
+    /**
+     * Fail requests for a path with an http error.
+     *
+     * @param path
+     *            The path of the requests to fail, e.g. /soda/sync.
+     * @param statusCode
+     *            The http status code to return.
+     * @param count
+     *            The number of requests to fail, or -1 to fail every request.
+     */
+    public void failRequests(String path, int statusCode, int count)
+    {
+        faults.put(path, new Fault(statusCode, count));
+    }
+
+    /**
+     * Answer the cutout requests which include a filter parameter with an http error, as a service does when it
+     * rejects a filter or fails while cutting it out.
+     *
+     * @param parameter
+     *            The decoded filter parameter, e.g. POL=Q.
+     * @param statusCode
+     *            The http status code to return.
+     */
+    public void failCutouts(String parameter, int statusCode)
+    {
+        cutoutFaults.put(parameter, statusCode);
+    }
+
+    /**
+     * @param path
+     *            The path of the requests, e.g. /soda/capabilities.
+     * @return The number of requests received for the path, excluding the query.
+     */
+    public int getRequestCount(String path)
+    {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param path
+     *            The path of the requests, e.g. /soda/capabilities.
+     * @return The number of requests for the path which were answered, counted once any latency has passed and
+     *         before the response is sent.
+     */
+    public int getAnsweredCount(String path)
+    {
+        AtomicInteger count = answeredCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return The number of requests answered with 429 Too Many Requests.
+     */
+    public int getThrottledCount()
+    {
+        return throttledCount.get();
+    }
+
+    /**
+     * @return The number of cutouts whose whole body has been sent.
+     */
+    public int getCompletedCutoutCount()
+    {
+        return completedCutoutCount.get();
+    }
+
+    /**
+     * @return The largest number of requests received within any one second.
+     */
+    public synchronized int getPeakRequestsPerSecond()
+    {
+        return peakRequestsPerSecond;
+    }
+
+    /**
+     * @return The number of conditional requests answered with 304 Not Modified.
+     */
+    public int getNotModifiedCount()
+    {
+        return notModifiedCount.get();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String path = exchange.getRequestURI().getPath();
+            requestCounts.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+            recordArrival();
+            drain(exchange.getRequestBody());
+            if (latencyMillis > 0)
+            {
+                Thread.sleep(latencyMillis);
+            }
+            answeredCounts.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+            if (isThrottled())
+            {
+                throttledCount.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                send(exchange, STATUS_TOO_MANY_REQUESTS, null, new byte[0]);
+                return;
+            }
+            Fault fault = faults.get(path);
+            if (fault != null && fault.take())
+            {
+                send(exchange, fault.statusCode, null, new byte[0]);
+                return;
+            }
+            route(exchange, path);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String path) throws IOException, InterruptedException
+    {
+        String method = exchange.getRequestMethod();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (path.endsWith("/capabilities"))
+        {
+            sendDocument(exchange, capabilities);
+        }
+        else if (path.endsWith("/availability"))
+        {
+            sendDocument(exchange, availability);
+        }
+        else if (path.equals(BASE_PATH + "/sync"))
+        {
+            String id = getParameter(query, "ID");
+            if (id == null)
+            {
+                sendDocument(exchange, serviceDescriptor);
+            }
+            else
+            {
+                Integer statusCode = getCutoutFault(query);
+                if (statusCode != null)
+                {
+                    send(exchange, statusCode, null, new byte[0]);
+                }
+                else
+                {
+                    sendCutout(exchange);
+                }
+            }
+        }
+        else if (path.equals(BASE_PATH + "/moved"))
+        {
+            // Unlike the UWS redirects, this one has a body, as many servers send
+            exchange.getResponseHeaders().set("Location", BASE_PATH + "/sync" + (query == null ? "" : "?" + query));
+            send(exchange, STATUS_SEE_OTHER, "text/plain",
+                    "Moved to the sync endpoint\n".getBytes(StandardCharsets.UTF_8));
+        }
+        else if (path.equals(BASE_PATH + "/loop"))
+        {
+            redirect(exchange, BASE_PATH + "/loop" + (query == null ? "" : "?" + query));
+        }
+        else if (path.equals(BASE_PATH + "/async") && "POST".equals(method))
+        {
+            String jobId = String.valueOf(jobCount.incrementAndGet());
+            jobRunTimes.put(jobId, 0L);
+            redirect(exchange, BASE_PATH + "/async/" + jobId);
+        }
+        else if (path.equals(BASE_PATH + "/async"))
+        {
+            send(exchange, STATUS_OK, XML_CONTENT_TYPE, ("<uws:jobs xmlns:uws=\"http://www.ivoa.net/xml/UWS/v1.0\"/>")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        else if (path.startsWith(BASE_PATH + "/async/"))
+        {
+            handleJob(exchange, method, path.substring((BASE_PATH + "/async/").length()), query);
+        }
+        else
+        {
+            send(exchange, STATUS_NOT_FOUND, null, new byte[0]);
+        }
+    }
+
+    private void handleJob(HttpExchange exchange, String method, String jobPath, String query)
+            throws IOException, InterruptedException
+    {
+        String[] parts = jobPath.split("/");
+        String jobId = parts[0];
+        if (!jobRunTimes.containsKey(jobId))
+        {
+            send(exchange, STATUS_NOT_FOUND, null, new byte[0]);
+        }
+        else if (parts.length > 1 && "phase".equals(parts[1]) && "POST".equals(method))
+        {
+            jobRunTimes.put(jobId, System.nanoTime());
+            redirect(exchange, BASE_PATH + "/async/" + jobId);
+        }
+        else if (parts.length > 1 && "results".equals(parts[1]))
+        {
+            sendCutout(exchange);
+        }
+        else if ("DELETE".equals(method))
+        {
+            jobRunTimes.remove(jobId);
+            redirect(exchange, BASE_PATH + "/async");
+        }
+        else
+        {
+            String wait = getParameter(query, "WAIT");
+            String phase = getParameter(query, "PHASE");
+            if (wait != null && phase != null)
+            {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Long.parseLong(wait));
+                while (System.nanoTime() < deadline && phase.equals(getPhase(jobId)))
+                {
+                    Thread.sleep(WAIT_POLL_MILLIS);
+                }
+            }
+            String currentPhase = getPhase(jobId);
+            String results = UwsJobStatus.PHASE_COMPLETED.equals(currentPhase) ? "<uws:result id=\"cutout\" "
+                    + "xlink:href=\"" + BASE_PATH + "/async/" + jobId + "/results/cutout\"/>" : "";
+            send(exchange, STATUS_OK, XML_CONTENT_TYPE,
+                    String.format(JOB, jobId, currentPhase, results).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String getPhase(String jobId)
+    {
+        Long runTime = jobRunTimes.get(jobId);
+        if (runTime == null || runTime == 0L)
+        {
+            return UwsJobStatus.PHASE_PENDING;
+        }
+        return System.nanoTime() - runTime >= TimeUnit.MILLISECONDS.toNanos(jobDurationMillis)
+                ? UwsJobStatus.PHASE_COMPLETED : "EXECUTING";
+    }
+
+    private void sendDocument(HttpExchange exchange, String document) throws IOException
+    {
+        if (etagsEnabled)
+        {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+            {
+                notModifiedCount.incrementAndGet();
+                exchange.sendResponseHeaders(STATUS_NOT_MODIFIED, -1);
+                return;
+            }
+        }
+        byte[] body = document.getBytes(StandardCharsets.UTF_8);
+        String coding = compression;
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (coding != null && acceptEncoding != null && acceptEncoding.contains(coding))
+        {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = "gzip".equals(coding) ? new GZIPOutputStream(compressed)
+                    : new DeflaterOutputStream(compressed))
+            {
+                out.write(body);
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", coding);
+            body = compressed.toByteArray();
+        }
+        send(exchange, STATUS_OK, XML_CONTENT_TYPE, body);
+    }
+
+    /**
+     * Stream a FITS file with a valid primary header and zero filled data, without holding the data in memory.
+     */
+    private void sendCutout(HttpExchange exchange) throws IOException, InterruptedException
+    {
+        final int bitsPerByte = 8;
+        final int bitpix = -32;
+        int[] axes = cutoutAxes;
+        StringBuilder header = new StringBuilder();
+        header.append(card("SIMPLE", "T")).append(card("BITPIX", String.valueOf(bitpix)))
+                .append(card("NAXIS", String.valueOf(axes.length)));
+        long dataBytes = Math.abs(bitpix) / bitsPerByte;
+        for (int i = 0; i < axes.length; i++)
+        {
+            header.append(card("NAXIS" + (i + 1), String.valueOf(axes[i])));
+            dataBytes *= axes[i];
+        }
+        header.append(String.format("%-" + FITS_CARD_SIZE + "s", "END"));
+        while (header.length() % FITS_BLOCK_SIZE != 0)
+        {
+            header.append(' ');
+        }
+        long paddedData = (dataBytes + FITS_BLOCK_SIZE - 1) / FITS_BLOCK_SIZE * FITS_BLOCK_SIZE;
+
+        exchange.getResponseHeaders().set("Content-Type", FITS_CONTENT_TYPE);
+        exchange.sendResponseHeaders(STATUS_OK, header.length() + paddedData);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+            byte[] zeros = new byte[FITS_BLOCK_SIZE];
+            for (long written = 0; written < paddedData; written += FITS_BLOCK_SIZE)
+            {
+                if (trickleMillis > 0)
+                {
+                    out.flush();
+                    Thread.sleep(trickleMillis);
+                }
+                out.write(zeros);
+            }
+            completedCutoutCount.incrementAndGet();
+        }
+    }
+
+    private static String card(String keyword, String value)
+    {
+        final int valueWidth = 20;
+        return String.format("%-8s= %" + valueWidth + "s%" + (FITS_CARD_SIZE - 10 - valueWidth) + "s", keyword,
+                value, "");
+    }
+
+    private synchronized void recordArrival()
+    {
+        long now = System.nanoTime();
+        recentArrivals.addLast(now);
+        while (now - recentArrivals.peekFirst() >= TimeUnit.SECONDS.toNanos(1))
+        {
+            recentArrivals.removeFirst();
+        }
+        peakRequestsPerSecond = Math.max(peakRequestsPerSecond, recentArrivals.size());
+    }
+
+    private synchronized boolean isThrottled()
+    {
+        if (maxRequestsPerSecond <= 0)
+        {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now - throttleWindowStart >= TimeUnit.SECONDS.toNanos(1))
+        {
+            throttleWindowStart = now;
+            throttleWindowCount = 0;
+        }
+        return ++throttleWindowCount > maxRequestsPerSecond;
+    }
+
+    private static void redirect(HttpExchange exchange, String location) throws IOException
+    {
+        exchange.getResponseHeaders().set("Location", location);
+        send(exchange, STATUS_SEE_OTHER, null, new byte[0]);
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body)
+            throws IOException
+    {
+        if (contentType != null)
+        {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        if (body.length > 0)
+        {
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+
+    private static String getParameter(String query, String name)
+    {
+        if (query == null)
+        {
+            return null;
+        }
+        for (String pair : query.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equalsIgnoreCase(name))
+            {
+                return pair.substring(equals + 1);
+            }
+        }
+        return null;
+    }
+
+    private Integer getCutoutFault(String query) throws IOException
+    {
+        for (String pair : query.split("&"))
+        {
+            Integer statusCode = cutoutFaults.get(URLDecoder.decode(pair, StandardCharsets.UTF_8.name()));
+            if (statusCode != null)
+            {
+                return statusCode;
+            }
+        }
+        return null;
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        final int bufferSize = 4096;
+        byte[] buffer = new byte[bufferSize];
+        while (in.read(buffer) >= 0)
+        {
+            // Discard the request body
+        }
+    }
+
+    private static String readResource(String name) throws IOException
+    {
+        try (InputStream in = StandInSodaServer.class.getResourceAsStream(name))
+        {
+            if (in == null)
+            {
+                throw new IOException("Missing test resource " + name);
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final int bufferSize = 4096;
+            byte[] buffer = new byte[bufferSize];
+            for (int count = in.read(buffer); count >= 0; count = in.read(buffer))
+            {
+                content.write(buffer, 0, count);
+            }
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String createCapabilities(String baseUrl)
+    {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<vosi:capabilities xmlns:vosi=\"http://www.ivoa.net/xml/VOSICapabilities/v1.0\"\n")
+                .append("    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n")
+                .append("    xmlns:vod=\"http://www.ivoa.net/xml/VODataService/v1.1\">\n");
+        appendCapability(xml, "ivo://ivoa.net/std/VOSI#capabilities", null, "full", baseUrl + "/capabilities");
+        appendCapability(xml, "ivo://ivoa.net/std/VOSI#availability", null, "full", baseUrl + "/availability");
+        appendCapability(xml, "ivo://ivoa.net/std/SODA#sync-1.0", "std", "base", baseUrl + "/sync");
+        appendCapability(xml, "ivo://ivoa.net/std/SODA#async-1.0", "std", "base", baseUrl + "/async");
+        return xml.append("</vosi:capabilities>\n").toString();
+    }
+
+    private static void appendCapability(StringBuilder xml, String standardId, String role, String use,
+            String accessUrl)
+    {
+        xml.append("  <capability standardID=\"").append(standardId).append("\">\n")
+                .append("    <interface xsi:type=\"vod:ParamHTTP\"")
+                .append(role == null ? "" : " role=\"" + role + "\"").append(" version=\"1.0\">\n")
+                .append("      <accessURL use=\"").append(use).append("\">").append(accessUrl)
+                .append("</accessURL>\n    </interface>\n  </capability>\n");
+    }
+
+    /**
+     * An injected http error for a path.
+     */
+    private static class Fault
+    {
+        private final int statusCode;
+        private final boolean always;
+        private final AtomicInteger remaining;
+
+        Fault(int statusCode, int count)
+        {
+            this.statusCode = statusCode;
+            this.always = count < 0;
+            this.remaining = new AtomicInteger(count);
+        }
+
+        boolean take()
+        {
+            return always || remaining.getAndDecrement() > 0;
+        }
+    }
+}
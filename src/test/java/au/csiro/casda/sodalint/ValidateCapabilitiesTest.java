@@ -0,0 +1,199 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.starlink.ttools.taplint.ReportType;
+import uk.ac.starlink.ttools.taplint.Reporter;
+import uk.ac.starlink.ttools.taplint.TextOutputReporter;
+
+/*
+ * #%L
+ * CSIRO Data Access Portal
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the reading of capabilities documents by ValidateCapabilities and the detection of the sync and async
+ * endpoints.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ValidateCapabilitiesTest
+{
+
+    private static final String CHARSET_UTF_8 = "UTF-8";
+    private ValidateCapabilities vc;
+    private SodaService sodaService;
+    private ByteArrayOutputStream baos;
+    private Reporter reporter;
+
+    @Before
+    public void setup() throws IOException
+    {
+        vc = new ValidateCapabilities();
+        sodaService = new SodaService(new URL("http://example.com/SODA"), null);
+        baos = new ByteArrayOutputStream();
+        reporter = new TextOutputReporter(new PrintStream(baos, false, CHARSET_UTF_8), ReportType.values(), 10, false,
+                1024);
+    }
+
+    /**
+     * Test that the first access url of the top level SODA 1.0 capabilities is found, ignoring nested and namespaced
+     * capability elements.
+     *
+     * @throws IOException
+     *             If the data file cannot be read.
+     */
+    @Test
+    public void testSyncAndAsyncCapabilities() throws IOException
+    {
+        String result = validate("src/test/resources/capabilities-sync-async.xml");
+
+        assertEquals("No message should have been reported", "", result);
+        assertEquals("ivo://ivoa.net/std/SODA#sync-1.0", sodaService.getSyncCapability().getStandardId());
+        assertEquals(2, sodaService.getSyncCapability().getInterfaceCount());
+        assertEquals("http://example.com/SODA/sync", sodaService.getSyncCapability().getAccessUrlText());
+        assertEquals("ivo://ivoa.net/std/SODA#async-1.0", sodaService.getAsyncCapability().getStandardId());
+        assertEquals(1, sodaService.getAsyncCapability().getInterfaceCount());
+        assertEquals("http://example.com/SODA/async", sodaService.getAsyncCapability().getAccessUrlText());
+    }
+
+    /**
+     * Test that the AccessData ids are accepted as the sync and async endpoints but reported as outdated.
+     *
+     * @throws IOException
+     *             If the data file cannot be read.
+     */
+    @Test
+    public void testAccessDataCapabilities() throws IOException
+    {
+        String result = validate("src/test/resources/capabilities-accessdata.xml");
+
+        String[] expectedMessages = new String[] {
+                "E-CPEP-01 SODA endpoint uses outdated AccessData id: ivo://ivoa.net/std/AccessData#sync",
+                "E-CPEP-02 SODA endpoint uses outdated AccessData id: ivo://ivoa.net/std/AccessData#async" };
+        assertEquals("Messages should have been reported", StringUtils.join(expectedMessages, System.lineSeparator()),
+                result);
+        assertEquals("http://example.com/data/sync", sodaService.getSyncCapability().getAccessUrlText());
+        assertEquals("http://example.com/data/async", sodaService.getAsyncCapability().getAccessUrlText());
+    }
+
+    /**
+     * Test that sync and async capabilities without an interface are reported. The sync capability is not used by
+     * later stages, but the async capability is still recorded.
+     *
+     * @throws IOException
+     *             If the data file cannot be read.
+     */
+    @Test
+    public void testCapabilitiesWithoutInterface() throws IOException
+    {
+        String result = validate("src/test/resources/capabilities-no-interface.xml");
+
+        String[] expectedMessages = new String[] { "E-CPIF-01 SODA sync endpoint does not contain an interface",
+                "E-CPIF-02 SODA async endpoint does not contain an interface" };
+        assertEquals("Messages should have been reported", StringUtils.join(expectedMessages, System.lineSeparator()),
+                result);
+        assertNull(sodaService.getSyncCapability());
+        assertEquals(0, sodaService.getAsyncCapability().getInterfaceCount());
+        assertNull(sodaService.getAsyncCapability().getAccessUrlText());
+    }
+
+    /**
+     * Test that SODA capabilities without the 1.0 qualifiers are reported.
+     *
+     * @throws IOException
+     *             If the data file cannot be read.
+     */
+    @Test
+    public void testUnqualifiedSodaCapability() throws IOException
+    {
+        String result = validate("src/test/resources/capabilities-old-soda.xml");
+
+        assertEquals("E-CPEP-01 SODA endpoints found but they do not have v1.0 sync or async qualifiers", result);
+        assertNull(sodaService.getSyncCapability());
+        assertNull(sodaService.getAsyncCapability());
+    }
+
+    /**
+     * Test that a document without any capabilities is reported as missing the SODA endpoints.
+     *
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    @Test
+    public void testNoCapabilities() throws IOException
+    {
+        String result = validate(new ByteArrayInputStream(
+                "<vosi:capabilities xmlns:vosi=\"http://www.ivoa.net/xml/VOSICapabilities/v1.0\"/>"
+                        .getBytes(CHARSET_UTF_8)));
+
+        assertEquals("E-CPEP-01 SODA requires at least one of the sync and async endpoints", result);
+    }
+
+    /**
+     * Test that a response of only white space is reported as having no content.
+     *
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    @Test
+    public void testBlankDocument() throws IOException
+    {
+        String result = validate(new ByteArrayInputStream(" \r\n\t\n".getBytes(CHARSET_UTF_8)));
+
+        assertEquals("E-CPRS-01 Capabilities response contains no content", result);
+    }
+
+    /**
+     * Test that a response which is not XML is reported as a parsing error.
+     *
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    @Test
+    public void testNonXmlDocument() throws IOException
+    {
+        String result = validate(new ByteArrayInputStream("\n  Service unavailable".getBytes(CHARSET_UTF_8)));
+
+        assertTrue("Parse error should have been reported: " + result,
+                result.startsWith("E-CPSX-01 Error parsing capabilities metadata"));
+        assertNull(sodaService.getSyncCapability());
+    }
+
+    private String validate(String fileName) throws IOException
+    {
+        try (InputStream is = new FileInputStream(fileName))
+        {
+            return validate(is);
+        }
+    }
+
+    private String validate(InputStream is) throws IOException
+    {
+        vc.validateCapabilities(reporter, is, sodaService);
+        String result = baos.toString(CHARSET_UTF_8);
+        System.out.println(result);
+        return result.trim();
+    }
+}
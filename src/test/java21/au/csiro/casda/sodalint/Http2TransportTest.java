@@ -0,0 +1,217 @@
+package au.csiro.casda.sodalint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2010 - 2016 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Tests the Java 21 Http2Transport against a {@link StandInSodaServer}, which only speaks HTTP/1.1, so the transport
+ * must fall back from its h2c upgrade. Run by the test21 task.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class Http2TransportTest
+{
+    private static final String PRODUCT_ID = "cube-1";
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_SEE_OTHER = 303;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final int TRICKLE_MILLIS = 200;
+
+    private StandInSodaServer server;
+    private Http2Transport transport;
+    private ScheduledExecutorService aborter;
+
+    @Before
+    public void setup() throws IOException
+    {
+        server = new StandInSodaServer();
+        transport = new Http2Transport(TIMEOUT_MILLIS, TIMEOUT_MILLIS, "sodalint-test");
+        aborter = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        aborter.shutdownNow();
+        transport.close();
+        server.close();
+    }
+
+    /**
+     * Test that the transport is the Java 21 implementation, not the Java 8 stand in.
+     */
+    @Test
+    public void testSupported()
+    {
+        assertTrue(Http2Transport.isSupported());
+    }
+
+    /**
+     * Test that a body is streamed as it arrives rather than buffered, and that the response is converted with its
+     * protocol, status and headers.
+     *
+     * @throws IOException
+     *             If the request fails.
+     */
+    @Test
+    public void testStreamedBody() throws IOException
+    {
+        server.setCutoutAxes(10, 10, 20);
+        server.setTrickleMillis(TRICKLE_MILLIS);
+        try (CloseableHttpResponse response = transport.execute(getCutout("/sync"), true))
+        {
+            assertEquals(STATUS_OK, response.getStatusLine().getStatusCode());
+            assertEquals("Server only speaks HTTP/1.1", "HTTP/1.1", SodaHttpClient.getProtocol(response));
+            assertEquals("application/fits", response.getEntity().getContentType().getValue());
+
+            InputStream content = response.getEntity().getContent();
+            FitsHeader header = FitsHeader.read(content, new byte[FitsHeader.BLOCK_SIZE]);
+            assertEquals("10 x 10 x 20", header.getDimensions());
+            assertEquals("Header should have been read before the body was sent", 0,
+                    server.getCompletedCutoutCount());
+
+            byte[] data = EntityUtils.toByteArray(response.getEntity());
+            assertEquals(header.getDataBytes(), data.length);
+        }
+    }
+
+    /**
+     * Test that redirects are followed, or returned to the caller, as asked.
+     *
+     * @throws IOException
+     *             If the request fails.
+     */
+    @Test
+    public void testRedirect() throws IOException
+    {
+        server.setCutoutAxes(10, 10);
+        try (CloseableHttpResponse response = transport.execute(getCutout("/moved"), false))
+        {
+            assertEquals(STATUS_SEE_OTHER, response.getStatusLine().getStatusCode());
+            assertTrue(response.getFirstHeader("Location").getValue().endsWith("/soda/sync?ID=" + PRODUCT_ID));
+        }
+        assertEquals(0, server.getRequestCount("/soda/sync"));
+
+        try (CloseableHttpResponse response = transport.execute(getCutout("/moved"), true))
+        {
+            assertEquals(STATUS_OK, response.getStatusLine().getStatusCode());
+            assertEquals(2 * FitsHeader.BLOCK_SIZE, EntityUtils.toByteArray(response.getEntity()).length);
+        }
+        assertEquals(1, server.getRequestCount("/soda/sync"));
+    }
+
+    /**
+     * Test that aborting a request while it waits for the response headers ends the wait.
+     *
+     * @throws IOException
+     *             If the request fails other than by being aborted.
+     */
+    @Test
+    public void testAbortWaitingForHeaders() throws IOException
+    {
+        server.setLatencyMillis(TIMEOUT_MILLIS);
+        HttpGet request = getCutout("/sync");
+        aborter.schedule(request::abort, TRICKLE_MILLIS, TimeUnit.MILLISECONDS);
+        try (CloseableHttpResponse response = transport.execute(request, true))
+        {
+            fail("Aborted request should not have returned " + response.getStatusLine());
+        }
+        catch (InterruptedIOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("was aborted"));
+        }
+        assertEquals("Response should not have been sent", 0, server.getAnsweredCount("/soda/sync"));
+    }
+
+    /**
+     * Test that aborting a request while its body is being read stops the read.
+     *
+     * @throws IOException
+     *             If the request fails other than by being aborted.
+     */
+    @Test
+    public void testAbortReadingBody() throws IOException
+    {
+        server.setCutoutAxes(10, 10, 200);
+        server.setTrickleMillis(TRICKLE_MILLIS);
+        HttpGet request = getCutout("/moved");
+        try (CloseableHttpResponse response = transport.execute(request, true))
+        {
+            InputStream content = response.getEntity().getContent();
+            FitsHeader.read(content, new byte[FitsHeader.BLOCK_SIZE]);
+            aborter.schedule(request::abort, TRICKLE_MILLIS, TimeUnit.MILLISECONDS);
+            EntityUtils.toByteArray(response.getEntity());
+            fail("Aborted body should not have been read");
+        }
+        catch (IOException e)
+        {
+            // The read of the abandoned body fails
+        }
+        assertEquals("Cutout should not have been sent in full", 0, server.getCompletedCutoutCount());
+    }
+
+    /**
+     * Test that a request sent through SodaHttpClient over the transport still has its deadline and permit enforced
+     * across a redirect.
+     *
+     * @throws IOException
+     *             If the request fails other than at the deadline.
+     */
+    @Test
+    public void testDeadlineAcrossRedirect() throws IOException
+    {
+        final int deadlineMillis = 1000;
+        server.setCutoutAxes(10, 10, 200);
+        server.setTrickleMillis(TRICKLE_MILLIS);
+        try (SodaHttpClient httpClient = new SodaHttpClient(SodaHttpClient.DEFAULT_MAX_CONNECTIONS,
+                SodaHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, TIMEOUT_MILLIS, TIMEOUT_MILLIS, deadlineMillis,
+                new HostGovernor(1, 0), true))
+        {
+            String host = server.getServiceUrl().getHost();
+            try (CloseableHttpResponse response = httpClient.execute(getCutout("/moved")))
+            {
+                assertEquals(STATUS_OK, response.getStatusLine().getStatusCode());
+                assertEquals(0, httpClient.getGovernor().getAvailableSlots(host));
+                EntityUtils.toByteArray(response.getEntity());
+                fail("Slow body should have been aborted at the deadline");
+            }
+            catch (InterruptedIOException e)
+            {
+                assertTrue(e.getMessage(), e.getMessage().contains("deadline of " + deadlineMillis + " ms"));
+            }
+            assertEquals(1, httpClient.getGovernor().getAvailableSlots(host));
+        }
+    }
+
+    private HttpGet getCutout(String path)
+    {
+        return new HttpGet(server.getServiceUrl() + path + "?ID=" + PRODUCT_ID);
+    }
+}